@@ -1,14 +1,24 @@
 package nodemanager;
 
 import java.awt.event.MouseEvent;
+import java.io.File;
+import java.io.IOException;
 import javax.swing.UIManager;
 import javax.swing.UnsupportedLookAndFeelException;
 import nodemanager.gui.NodeManagerWindow;
 import nodemanager.model.Graph;
 import nodemanager.events.EventLog;
+import nodemanager.exceptions.VersionLogAccessException;
+import nodemanager.files.VersionLog;
 import nodemanager.gui.InputConsole;
 import nodemanager.gui.editPage.NodeDataPane;
 import nodemanager.gui.editPage.mapComponents.MapImage;
+import nodemanager.io.CachingStorageBackend;
+import nodemanager.io.DownloadCache;
+import nodemanager.io.DriveStorageBackend;
+import nodemanager.io.FileNameCache;
+import nodemanager.io.LocalStorageBackend;
+import nodemanager.io.StorageBackend;
 import nodemanager.modes.AbstractMode;
 import nodemanager.modes.ModeNone;
 
@@ -16,6 +26,16 @@ import nodemanager.modes.ModeNone;
 /**
  * Using this as a controller
  * 
+ * Exports are stored on the Google Drive, unless the nodemanager.storage
+ * system property is set to a folder on this computer, in which case they
+ * are stored there instead. nodemanager.storage.latency and
+ * nodemanager.storage.bandwidth slow that folder down to a given number of
+ * milliseconds per request and bytes per second, so exports and imports can
+ * be profiled without a network:
+ * <pre>
+ * java -Dnodemanager.storage=exports -Dnodemanager.storage.latency=100 -Dnodemanager.storage.bandwidth=1000000 ...
+ * </pre>
+ * 
  * @author Matt Crow (greengrappler12@gmail.com)
  */
 
@@ -30,9 +50,13 @@ public class NodeManager {
     private final EventLog log;
     private NodeDataPane dataPane; // don't like this. Need GUI manager
     private NodeManagerWindow gui;
+    private final StorageBackend storage;
+    private final FileNameCache fileNames;
     
     private static NodeManager instance;
     
+    private static final String STORAGE_PROPERTY = "nodemanager.storage";
+    
     private NodeManager(){
         graph = Graph.createDefault();
         mode = new ModeNone();
@@ -40,6 +64,37 @@ public class NodeManager {
         dataPane = null;
         map = null;
         gui = null;
+        DownloadCache downloads = new DownloadCache();
+        storage = new CachingStorageBackend(createStorageBackend(), downloads);
+        fileNames = new FileNameCache();
+        // remember which downloads were used most recently
+        Runtime.getRuntime().addShutdownHook(new Thread(downloads::save, "DownloadCache save"));
+    }
+    
+    /**
+     * @return the StorageBackend chosen by the nodemanager.storage system properties
+     */
+    private static StorageBackend createStorageBackend(){
+        String folder = System.getProperty(STORAGE_PROPERTY);
+        if(folder == null){
+            return new DriveStorageBackend();
+        }
+        
+        // give a new folder an empty version log, so it can be exported to
+        LocalStorageBackend unthrottled = new LocalStorageBackend(new File(folder));
+        try {
+            if(!unthrottled.getLocalFile(VersionLog.DEFAULT_VERSION_LOG_ID).exists()){
+                new VersionLog().save(unthrottled);
+            }
+        } catch (IOException | VersionLogAccessException ex) {
+            ex.printStackTrace();
+        }
+        
+        return new LocalStorageBackend(
+            new File(folder), 
+            Long.getLong(STORAGE_PROPERTY + ".latency", 0), 
+            Long.getLong(STORAGE_PROPERTY + ".bandwidth", 0)
+        );
     }
     
     public static final NodeManager getInstance(){
@@ -89,6 +144,22 @@ public class NodeManager {
         return log;
     }
     
+    /**
+     * @return where exports are uploaded to and downloaded from. Downloads
+     * are cached on this computer.
+     */
+    public final StorageBackend getStorageBackend(){
+        return storage;
+    }
+    
+    /**
+     * @return the names of files in the storage backend which have been
+     * looked up before
+     */
+    public final FileNameCache getFileNameCache(){
+        return fileNames;
+    }
+    
     public final void setNodeDataPane(NodeDataPane ndp){
         dataPane = ndp;
     }
@@ -33,8 +33,11 @@ public class NodeMovedEvent extends EditEvent{
         newX = icon.getX();
         newY = icon.getY();
         icon.setPos(initialX, initialY);
-        moved.setX((int)icon.getScale().mapXToNodeX(icon.getX()));
-        moved.setY((int)icon.getScale().mapYToNodeY(icon.getY()));
+        g.moveNode(
+            moved.getId(),
+            (int)icon.getScale().mapXToNodeX(icon.getX()),
+            (int)icon.getScale().mapYToNodeY(icon.getY())
+        );
         icon.getHost().repaint();
     }
 
@@ -42,8 +45,11 @@ public class NodeMovedEvent extends EditEvent{
     public void redoImpl(Graph g) {
         NodeIcon icon = NodeManager.getInstance().getMap().getIcon(moved.getId());
         icon.setPos(newX, newY);
-        moved.setX((int)icon.getScale().mapXToNodeX(icon.getX()));
-        moved.setY((int)icon.getScale().mapYToNodeY(icon.getY()));
+        g.moveNode(
+            moved.getId(),
+            (int)icon.getScale().mapXToNodeX(icon.getX()),
+            (int)icon.getScale().mapYToNodeY(icon.getY())
+        );
         icon.getHost().repaint();
     }
     
@@ -1,6 +1,8 @@
 package nodemanager.files;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -54,9 +56,15 @@ public abstract class AbstractWayfindingFileHelper {
             case NODE_CONN:
                 ret = new NodeConnFileHelper(name);
                 break;
+            case CONTRACTION_HIERARCHY:
+                ret = new ContractionHierarchyFileHelper(name);
+                break;
             case LABEL:
                 ret = new NodeLabelFileHelper(name);
                 break;
+            case BINARY_GRAPH:
+                ret = new BinaryGraphFileHelper(name);
+                break;
             case MAP_IMAGE:
                 ret = new MapFileHelper(name);
                 break;
@@ -91,16 +99,34 @@ public abstract class AbstractWayfindingFileHelper {
     public final File writeToTempFile(Graph g) throws IOException{
         File temp = File.createTempFile(name, type.getFileExtention());
         temp.deleteOnExit();
-        this.writeGraphDataToFile(g, new FileOutputStream(temp));
+        try(OutputStream out = new FileOutputStream(temp)){
+            this.writeGraphDataToFile(g, out);
+        }
         return temp;
     }
     
     public final File writeToFileUnderParent(Graph g, String parentDirectory) throws IOException{
         File f = Paths.get(parentDirectory, getFileName()).toFile();
-        this.writeGraphDataToFile(g, new FileOutputStream(f));
+        try(OutputStream out = new FileOutputStream(f)){
+            this.writeGraphDataToFile(g, out);
+        }
         return f;
     }
         
+    /**
+     * Reads this file type's data from a file on this computer, and adds it
+     * to the given graph.
+     * 
+     * @param g
+     * @param f
+     * @throws IOException 
+     */
+    public void readGraphDataFromFile(Graph g, File f) throws IOException{
+        try(InputStream in = new BufferedInputStream(new FileInputStream(f))){
+            readGraphDataFromFile(g, in);
+        }
+    }
+    
     /**
      * Reads this file type's data from the given InputStream, and adds it to
      * the given graph.
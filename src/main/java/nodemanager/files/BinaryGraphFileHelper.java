@@ -0,0 +1,384 @@
+package nodemanager.files;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import nodemanager.model.Graph;
+import nodemanager.model.Node;
+
+/**
+ * Used to read/write the binary graph file, which holds the same nodes,
+ * connections, and labels as the node coordinate, connection, and label
+ * files, but is much smaller and faster to parse.
+ *
+ * The file is laid out as follows. Every number after the version is an
+ * unsigned LEB128 varint, and "signed" numbers are zigzag encoded first.
+ * <ol>
+ * <li>the magic number "WFGR" and a version byte</li>
+ * <li>the id table: the number of ids, then each id as a signed difference
+ * from the one before it. Ids are sorted, and include every node and every
+ * id with a connection.</li>
+ * <li>a bit set, one bit per id in the table, of which ids are nodes</li>
+ * <li>the coordinates of each node, as signed differences from the previous
+ * node's coordinates</li>
+ * <li>the connections in CSR layout: for each id in the table, the number of
+ * connections to ids later in the table, then those ids' positions in the
+ * table, each as the difference from the one before it. This stores every
+ * connection once, even though Graph stores both directions.</li>
+ * <li>the label string table: the number of labels, then each label in
+ * sorted order as the number of UTF-8 bytes it shares with the label before
+ * it, followed by the rest of its bytes</li>
+ * <li>for each label, the position of its id in the id table</li>
+ * </ol>
+ *
+ * @author Matt Crow
+ */
+public class BinaryGraphFileHelper extends AbstractWayfindingFileHelper {
+    private static final int MAGIC = 0x57464752; // "WFGR"
+    private static final int VERSION = 1;
+
+    public BinaryGraphFileHelper(String title){
+        super(title + "BinaryGraph", FileType.BINARY_GRAPH);
+    }
+
+    public BinaryGraphFileHelper(){
+        this("temp");
+    }
+
+    /*
+    Reading
+    */
+
+    @Override
+    public void readGraphDataFromFile(Graph g, InputStream in) throws IOException {
+        try(Decoder d = new Decoder(in)){
+            int magic = (d.readByte() << 24) | (d.readByte() << 16) | (d.readByte() << 8) | d.readByte();
+            if(magic != MAGIC){
+                throw new IOException("Not a binary graph file");
+            }
+            int version = d.readByte();
+            if(version != VERSION){
+                throw new IOException("Unsupported binary graph version " + version);
+            }
+
+            int[] ids = new int[d.readCount()];
+            int prev = 0;
+            for(int i = 0; i < ids.length; i++){
+                prev += d.readSigned();
+                ids[i] = prev;
+            }
+
+            byte[] isNode = new byte[(ids.length + 7) / 8];
+            d.readFully(isNode);
+            int x = 0;
+            int y = 0;
+            for(int i = 0; i < ids.length; i++){
+                if((isNode[i >>> 3] & (1 << (i & 7))) != 0){
+                    x += d.readSigned();
+                    y += d.readSigned();
+                    g.addNode(new Node(ids[i], x, y));
+                }
+            }
+
+            int degree;
+            int to;
+            for(int from = 0; from < ids.length; from++){
+                degree = d.readCount();
+                to = from;
+                for(int j = 0; j < degree; j++){
+                    to += d.readUnsigned();
+                    if(to < 0 || to >= ids.length){
+                        throw new IOException("Connection to an id outside the id table");
+                    }
+                    g.addConnection(ids[from], ids[to]);
+                }
+            }
+
+            String[] labels = new String[d.readCount()];
+            byte[] prevBytes = new byte[0];
+            byte[] bytes;
+            int shared;
+            for(int i = 0; i < labels.length; i++){
+                shared = d.readUnsigned();
+                if(shared > prevBytes.length){
+                    throw new IOException("Corrupt label table");
+                }
+                bytes = Arrays.copyOf(prevBytes, shared + d.readCount());
+                d.readFully(bytes, shared, bytes.length - shared);
+                labels[i] = new String(bytes, StandardCharsets.UTF_8);
+                prevBytes = bytes;
+            }
+            int index;
+            for(String label : labels){
+                index = d.readUnsigned();
+                if(index < 0 || index >= ids.length){
+                    throw new IOException("Label for an id outside the id table");
+                }
+                g.addLabel(label, ids[index]);
+            }
+        }
+    }
+
+    /**
+     * Reads varints out of its own buffer, rather than going through
+     * BufferedInputStream.read() for every byte
+     */
+    private static final class Decoder implements AutoCloseable {
+        private final InputStream in;
+        private final byte[] buffer;
+        private int position;
+        private int limit;
+
+        private Decoder(InputStream in){
+            this.in = in;
+            buffer = new byte[1 << 16];
+            position = 0;
+            limit = 0;
+        }
+
+        private int readByte() throws IOException {
+            if(position == limit){
+                limit = in.read(buffer, 0, buffer.length);
+                position = 0;
+                if(limit <= 0){
+                    limit = 0;
+                    throw new EOFException("Binary graph file ended early");
+                }
+            }
+            return buffer[position++] & 0xff;
+        }
+
+        private int readUnsigned() throws IOException {
+            int value = 0;
+            int b;
+            for(int shift = 0; shift < 35; shift += 7){
+                b = readByte();
+                value |= (b & 0x7f) << shift;
+                if((b & 0x80) == 0){
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        private int readSigned() throws IOException {
+            int zigzag = readUnsigned();
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        /**
+         * @return an unsigned varint which must not be negative
+         */
+        private int readCount() throws IOException {
+            int count = readUnsigned();
+            if(count < 0){
+                throw new IOException("Malformed count");
+            }
+            return count;
+        }
+
+        private void readFully(byte[] bytes) throws IOException {
+            readFully(bytes, 0, bytes.length);
+        }
+
+        private void readFully(byte[] bytes, int offset, int length) throws IOException {
+            int chunk;
+            while(length > 0){
+                if(position == limit){
+                    limit = in.read(buffer, 0, buffer.length);
+                    position = 0;
+                    if(limit <= 0){
+                        limit = 0;
+                        throw new EOFException("Binary graph file ended early");
+                    }
+                }
+                chunk = Math.min(length, limit - position);
+                System.arraycopy(buffer, position, bytes, offset, chunk);
+                position += chunk;
+                offset += chunk;
+                length -= chunk;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /*
+    Writing
+    */
+
+    @Override
+    public void writeGraphDataToFile(Graph g, OutputStream out) throws IOException {
+        List<Node> nodes = g.getAllNodes();
+        int[] pairs = g.copyConnectionPairs();
+        // labels of nodes that don't exist are left out
+        String[] labels = g.getAllLabel().stream().filter((label)->g.getNodeByLabel(label) != null).sorted().toArray(String[]::new);
+        int[] labelIds = new int[labels.length];
+        for(int i = 0; i < labels.length; i++){
+            labelIds[i] = g.getNodeByLabel(labels[i]).getId();
+        }
+
+        // build the id table
+        int[] ids = new int[nodes.size() + pairs.length + labelIds.length];
+        int numIds = 0;
+        for(Node n : nodes){
+            ids[numIds] = n.getId();
+            numIds++;
+        }
+        System.arraycopy(pairs, 0, ids, numIds, pairs.length);
+        numIds += pairs.length;
+        System.arraycopy(labelIds, 0, ids, numIds, labelIds.length);
+        numIds += labelIds.length;
+        Arrays.sort(ids, 0, numIds);
+        int unique = 0;
+        for(int i = 0; i < numIds; i++){
+            if(unique == 0 || ids[i] != ids[unique - 1]){
+                ids[unique] = ids[i];
+                unique++;
+            }
+        }
+        ids = Arrays.copyOf(ids, unique);
+
+        // CSR table of connections to later ids
+        int[] offsets = new int[ids.length + 1];
+        int from;
+        int to;
+        for(int i = 0; i < pairs.length; i += 2){
+            from = Arrays.binarySearch(ids, pairs[i]);
+            to = Arrays.binarySearch(ids, pairs[i + 1]);
+            if(from < to){
+                offsets[from + 1]++;
+            }
+        }
+        for(int i = 0; i < ids.length; i++){
+            offsets[i + 1] += offsets[i];
+        }
+        int[] targets = new int[offsets[ids.length]];
+        int[] fill = Arrays.copyOf(offsets, ids.length);
+        for(int i = 0; i < pairs.length; i += 2){
+            from = Arrays.binarySearch(ids, pairs[i]);
+            to = Arrays.binarySearch(ids, pairs[i + 1]);
+            if(from < to){
+                targets[fill[from]] = to;
+                fill[from]++;
+            }
+        }
+        for(int i = 0; i < ids.length; i++){
+            Arrays.sort(targets, offsets[i], offsets[i + 1]);
+        }
+
+        Encoder e = new Encoder(new BufferedOutputStream(out, 1 << 16));
+        e.writeByte(MAGIC >>> 24);
+        e.writeByte(MAGIC >>> 16);
+        e.writeByte(MAGIC >>> 8);
+        e.writeByte(MAGIC);
+        e.writeByte(VERSION);
+
+        e.writeUnsigned(ids.length);
+        int prev = 0;
+        for(int id : ids){
+            e.writeSigned(id - prev);
+            prev = id;
+        }
+
+        byte[] isNode = new byte[(ids.length + 7) / 8];
+        int[] nodeOrder = new int[nodes.size()]; // position in the id table of each node
+        int index;
+        for(int i = 0; i < nodeOrder.length; i++){
+            index = Arrays.binarySearch(ids, nodes.get(i).getId());
+            isNode[index >>> 3] |= 1 << (index & 7);
+            nodeOrder[i] = index;
+        }
+        e.write(isNode);
+        Node[] byIndex = new Node[ids.length];
+        for(int i = 0; i < nodeOrder.length; i++){
+            byIndex[nodeOrder[i]] = nodes.get(i);
+        }
+        int x = 0;
+        int y = 0;
+        for(Node n : byIndex){
+            if(n != null){
+                e.writeSigned(n.getX() - x);
+                e.writeSigned(n.getY() - y);
+                x = n.getX();
+                y = n.getY();
+            }
+        }
+
+        for(int i = 0; i < ids.length; i++){
+            e.writeUnsigned(offsets[i + 1] - offsets[i]);
+            prev = i;
+            for(int edge = offsets[i]; edge < offsets[i + 1]; edge++){
+                e.writeUnsigned(targets[edge] - prev);
+                prev = targets[edge];
+            }
+        }
+
+        e.writeUnsigned(labels.length);
+        byte[] prevBytes = new byte[0];
+        byte[] bytes;
+        int shared;
+        for(String label : labels){
+            bytes = label.getBytes(StandardCharsets.UTF_8);
+            shared = 0;
+            while(shared < bytes.length && shared < prevBytes.length && bytes[shared] == prevBytes[shared]){
+                shared++;
+            }
+            e.writeUnsigned(shared);
+            e.writeUnsigned(bytes.length - shared);
+            e.write(bytes, shared, bytes.length - shared);
+            prevBytes = bytes;
+        }
+        for(int id : labelIds){
+            e.writeUnsigned(Arrays.binarySearch(ids, id));
+        }
+        e.flush();
+    }
+
+    /**
+     * Writes varints to a buffered stream
+     */
+    private static final class Encoder {
+        private final OutputStream out;
+
+        private Encoder(OutputStream out){
+            this.out = out;
+        }
+
+        private void writeByte(int b) throws IOException {
+            out.write(b);
+        }
+
+        private void writeUnsigned(int value) throws IOException {
+            while((value & ~0x7f) != 0){
+                out.write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+
+        private void writeSigned(int value) throws IOException {
+            writeUnsigned((value << 1) ^ (value >> 31));
+        }
+
+        private void write(byte[] bytes) throws IOException {
+            out.write(bytes);
+        }
+
+        private void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+        }
+
+        private void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package nodemanager.files;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import nodemanager.io.CsvReader;
+import nodemanager.io.RowWriter;
+import static nodemanager.io.StreamReaderUtil.NEWLINE;
+import nodemanager.model.Graph;
+import nodemanager.routing.ContractionHierarchy;
+import nodemanager.routing.RoutingGraph;
+
+/**
+ * Used to read/write the contraction hierarchy file, which lets Wayfinding
+ * answer route queries without running Dijkstra over the whole node
+ * connection file.
+ *
+ * The file has two sections. The first gives the rank of every node, the
+ * second lists the shortcut connections, along with the node each one skips
+ * over and its length. A client searches upward from both ends of a route,
+ * following node connections and shortcuts only toward higher ranked nodes.
+ *
+ * @author Matt Crow
+ */
+public class ContractionHierarchyFileHelper extends AbstractWayfindingFileHelper {
+    private static final String RANK_HEADER = "id, rank";
+    private static final String SHORTCUT_FIRST_COLUMN = "node1";
+    private static final String SHORTCUT_HEADER = SHORTCUT_FIRST_COLUMN + ", node2, via, length";
+
+    private final HashMap<Integer, Integer> ranks;
+    private int shortcutCount;
+
+    public ContractionHierarchyFileHelper(String title){
+        super(title + "Shortcuts", FileType.CONTRACTION_HIERARCHY);
+        ranks = new HashMap<>();
+        shortcutCount = 0;
+    }
+
+    public ContractionHierarchyFileHelper(){
+        this("temp");
+    }
+
+    /**
+     * @param id the id of a node
+     * @return the rank of that node in the last file read, or -1 if it has none
+     */
+    public final int getRankFor(int id){
+        return ranks.getOrDefault(id, -1);
+    }
+
+    /**
+     * @return the number of shortcuts in the last file read
+     */
+    public final int getShortcutCount(){
+        return shortcutCount;
+    }
+
+    /**
+     * The hierarchy is built from the node coordinates and connections, so
+     * this doesn't add anything to the Graph. It just records the ranks and
+     * number of shortcuts in the file.
+     */
+    @Override
+    public void readGraphDataFromFile(Graph g, InputStream in) throws IOException {
+        ranks.clear();
+        shortcutCount = 0;
+
+        try(CsvReader csv = new CsvReader(in)){
+            String[] line = csv.nextRow(); //skip header
+            boolean inShortcuts = false;
+            while((line = csv.nextRow()) != null){
+                if(line[0].equals(SHORTCUT_FIRST_COLUMN)){
+                    inShortcuts = true;
+                } else if(inShortcuts){
+                    shortcutCount++;
+                } else {
+                    ranks.put(Integer.parseInt(line[0]), Integer.parseInt(line[1]));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void writeGraphDataToFile(Graph g, OutputStream out) throws IOException {
+        RoutingGraph rg = RoutingGraph.fromGraph(g);
+        ContractionHierarchy ch = ContractionHierarchy.build(rg);
+
+        try(RowWriter writer = new RowWriter(out)){
+            writer.write(RANK_HEADER);
+            for(int i = 0; i < rg.getNodeCount(); i++){
+                writer.write(NEWLINE).write(rg.getIdAt(i)).write(", ").write(ch.getRankAt(i));
+            }
+            writer.write(NEWLINE).write(SHORTCUT_HEADER);
+            for(int i = 0; i < ch.getShortcutCount(); i++){
+                writer
+                    .write(NEWLINE)
+                    .write(rg.getIdAt(ch.getShortcutFrom(i)))
+                    .write(", ")
+                    .write(rg.getIdAt(ch.getShortcutTo(i)))
+                    .write(", ")
+                    .write(rg.getIdAt(ch.getShortcutVia(i)))
+                    .write(", ")
+                    .write(Double.toString(ch.getShortcutLength(i)));
+            }
+        }
+    }
+}
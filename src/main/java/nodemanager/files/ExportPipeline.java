@@ -0,0 +1,164 @@
+package nodemanager.files;
+
+import java.io.IOException;
+import java.io.InputStream;
+import nodemanager.exceptions.NoPermissionException;
+import nodemanager.exceptions.VersionLogAccessException;
+import nodemanager.files.ExportProgress.Stage;
+import nodemanager.io.StorageBackend;
+import static nodemanager.io.GoogleDriveUploader.DOWNLOAD_URL_PREFIX;
+import nodemanager.model.Graph;
+
+/**
+ * The ExportPipeline runs every stage of an export: finding the previous
+ * export of the same type, writing, hashing, uploading, and publishing the
+ * Graph's files, uploading the manifest, and adding it to the version log.
+ * Each stage is reported to an ExportProgress.
+ *
+ * An export can take a while, so run it on an executor, rather than the
+ * Swing thread, and cancel it by cancelling its Future.
+ *
+ * <hr>
+ * {@code
+ *  ExportPipeline export = new ExportPipeline(manifest, backend, folderId, versionLog, "Main");
+ *  export.getProgress().addListener((status)->SwingUtilities.invokeLater(...));
+ *  Future<String> result = executor.submit(()->export.run(graph));
+ *  result.cancel(true); // to cancel it
+ * }
+ *
+ * @author Matt Crow
+ */
+public class ExportPipeline {
+    private final WayfindingManifest manifest;
+    private final StorageBackend backend;
+    private final String folderId;
+    private final VersionLog versionLog;
+    private final String wayfindingType;
+    private final ExportProgress progress;
+    private String abandonedFolderId;
+
+    /**
+     * @param manifest the manifest to export, with its options already set
+     * @param backend where to upload to
+     * @param folderId the id of the folder to create the export's folder in
+     * @param versionLog the version log to add the export to, which has
+     * already been downloaded
+     * @param wayfindingType the version of wayfinding this export is for
+     */
+    public ExportPipeline(WayfindingManifest manifest, StorageBackend backend, String folderId, VersionLog versionLog, String wayfindingType){
+        this.manifest = manifest;
+        this.backend = backend;
+        this.folderId = folderId;
+        this.versionLog = versionLog;
+        this.wayfindingType = wayfindingType;
+        progress = new ExportProgress();
+        abandonedFolderId = null;
+    }
+
+    public final ExportProgress getProgress(){
+        return progress;
+    }
+
+    public final WayfindingManifest getManifest(){
+        return manifest;
+    }
+
+    /**
+     * @return the id of the folder a failed or cancelled run couldn't
+     * delete, or null if there isn't one
+     */
+    public final String getAbandonedFolderId(){
+        return abandonedFolderId;
+    }
+
+    /**
+     * Downloads the manifest of the newest export of the same type, so its
+     * unchanged files don't need to be uploaded again.
+     *
+     * @return the previous export's manifest, or null if there isn't one, or
+     * it cannot be downloaded
+     */
+    private WayfindingManifest downloadPreviousExport() throws InterruptedException {
+        String[] exports = versionLog.getExportsFor(wayfindingType);
+        progress.startStage(Stage.PREVIOUS_EXPORT, Math.min(exports.length, 1));
+        WayfindingManifest previous = null;
+        if(exports.length > 0){
+            previous = new WayfindingManifest();
+            try(InputStream in = backend.download(exports[exports.length - 1])){
+                previous.readUrls(in);
+                progress.step(Stage.PREVIOUS_EXPORT);
+            } catch (IOException ex) {
+                // just upload everything
+                ex.printStackTrace();
+                previous = null;
+            }
+        }
+        progress.finishStage(Stage.PREVIOUS_EXPORT);
+        return previous;
+    }
+
+    /**
+     * Deletes the folder the manifest was uploaded to, if one was created,
+     * as nothing uses an export which isn't in the version log. This
+     * thread's interrupted status is cleared while deleting, so cancelling
+     * the export doesn't cancel the clean up too.
+     */
+    private void deleteExportFolder(){
+        String created = manifest.getCreatedFolderId();
+        if(created == null){
+            return;
+        }
+        boolean interrupted = Thread.interrupted();
+        try {
+            backend.delete(created);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            abandonedFolderId = created;
+        } finally {
+            if(interrupted){
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Runs the export on this thread. Files which fail to upload are listed
+     * by getManifest().getUploadErrors().
+     *
+     * If the export fails or is cancelled before it is added to the version
+     * log, the folder it was uploaded to is deleted. If that fails too, see
+     * getAbandonedFolderId(). The version log given to this is only changed
+     * once it has been saved.
+     *
+     * @param g the Graph to export
+     * @return the id of the uploaded manifest
+     * @throws IOException if the folder or manifest cannot be uploaded
+     * @throws NoPermissionException if the user cannot access the folder
+     * @throws VersionLogAccessException if the user cannot edit the version log
+     * @throws InterruptedException if the export is cancelled
+     */
+    public final String run(Graph g) throws IOException, NoPermissionException, VersionLogAccessException, InterruptedException {
+        String manifestId;
+        try {
+            manifest.setPreviousExport(downloadPreviousExport());
+            manifestId = manifest.upload(backend, folderId, g, progress);
+            progress.startStage(Stage.VERSION_LOG, 1);
+        } catch (Exception ex) {
+            deleteExportFolder();
+            throw ex;
+        }
+
+        // the save may have gone through even if it throws, so keep the folder either way
+        String url = DOWNLOAD_URL_PREFIX + manifestId;
+        versionLog.copy().addExport(wayfindingType, url).save(backend);
+        versionLog.addExport(wayfindingType, url);
+        try {
+            progress.step(Stage.VERSION_LOG);
+        } catch (InterruptedException ex) {
+            // too late to cancel, as the export is already in the version log
+            Thread.currentThread().interrupt();
+        }
+        progress.finishStage(Stage.VERSION_LOG);
+        return manifestId;
+    }
+}
@@ -0,0 +1,218 @@
+package nodemanager.files;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * ExportProgress keeps track of how far along each stage of an export is,
+ * and how long each stage has taken, so it is possible to see where the time
+ * goes when exporting over a slow connection.
+ *
+ * Stages are started, stepped through once per file, and finished, possibly
+ * from several threads at once. Each change is sent to the listeners as a
+ * Status, which never changes once created, so it can be safely handed over
+ * to the Swing thread.
+ *
+ * Exports are cancelled by interrupting the thread running them. Starting or
+ * stepping through a stage on an interrupted thread throws an
+ * InterruptedException, so the export stops at the next file.
+ *
+ * @author Matt Crow
+ */
+public class ExportProgress {
+    public static enum Stage {
+        PREVIOUS_EXPORT("Checking the previous export"),
+        SERIALIZE("Writing files"),
+        HASH("Finding unchanged files"),
+        UPLOAD("Uploading files"),
+        PUBLISH("Publishing files"),
+        MANIFEST("Uploading the manifest"),
+        VERSION_LOG("Updating the version log");
+
+        private final String description;
+
+        private Stage(String description){
+            this.description = description;
+        }
+
+        public final String getDescription(){
+            return description;
+        }
+    }
+
+    /**
+     * How far along a stage was at some point
+     */
+    public static final class Status {
+        private final Stage stage;
+        private final int completed;
+        private final int total;
+        private final long elapsedMillis;
+        private final boolean finished;
+
+        private Status(Stage stage, int completed, int total, long elapsedMillis, boolean finished){
+            this.stage = stage;
+            this.completed = completed;
+            this.total = total;
+            this.elapsedMillis = elapsedMillis;
+            this.finished = finished;
+        }
+
+        public final Stage getStage(){
+            return stage;
+        }
+
+        public final int getCompleted(){
+            return completed;
+        }
+
+        public final int getTotal(){
+            return total;
+        }
+
+        /**
+         * @return how long the stage had been running, or how long it took,
+         * if it is finished
+         */
+        public final long getElapsedMillis(){
+            return elapsedMillis;
+        }
+
+        public final boolean isFinished(){
+            return finished;
+        }
+
+        @Override
+        public String toString(){
+            return String.format(
+                "%s: %d/%d%s (%.2fs)",
+                stage.getDescription(),
+                completed,
+                total,
+                (finished) ? " done" : "",
+                elapsedMillis / 1000.0
+            );
+        }
+    }
+
+    private final EnumMap<Stage, Integer> completed;
+    private final EnumMap<Stage, Integer> totals;
+    private final EnumMap<Stage, Long> startTimes; // in nanoseconds
+    private final EnumMap<Stage, Long> endTimes;
+    private final List<Consumer<Status>> listeners;
+
+    public ExportProgress(){
+        completed = new EnumMap<>(Stage.class);
+        totals = new EnumMap<>(Stage.class);
+        startTimes = new EnumMap<>(Stage.class);
+        endTimes = new EnumMap<>(Stage.class);
+        listeners = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * @param listener notified each time a stage starts, steps, or finishes.
+     * Note that it is not called on the Swing thread.
+     * @return this, for chaining purposes
+     */
+    public final ExportProgress addListener(Consumer<Status> listener){
+        listeners.add(listener);
+        return this;
+    }
+
+    private static void checkCancelled() throws InterruptedException {
+        if(Thread.currentThread().isInterrupted()){
+            throw new InterruptedException("Export cancelled");
+        }
+    }
+
+    /**
+     * Starts timing a stage. Starting a stage which has already started does
+     * nothing, so each of several concurrent tasks can start it.
+     *
+     * @param stage the stage to start
+     * @param total how many steps the stage has
+     * @throws InterruptedException if the export has been cancelled
+     */
+    public final void startStage(Stage stage, int total) throws InterruptedException {
+        checkCancelled();
+        Status status;
+        synchronized(this){
+            if(startTimes.containsKey(stage)){
+                return;
+            }
+            startTimes.put(stage, System.nanoTime());
+            totals.put(stage, total);
+            completed.put(stage, 0);
+            status = statusOf(stage);
+        }
+        notifyListeners(status);
+    }
+
+    /**
+     * Marks one more step of a stage as complete.
+     *
+     * @param stage the stage to step through
+     * @throws InterruptedException if the export has been cancelled
+     */
+    public final void step(Stage stage) throws InterruptedException {
+        checkCancelled();
+        Status status;
+        synchronized(this){
+            completed.merge(stage, 1, Integer::sum);
+            status = statusOf(stage);
+        }
+        notifyListeners(status);
+    }
+
+    /**
+     * Stops timing a stage, starting it first if it never started, such as
+     * when it had nothing to do.
+     *
+     * @param stage the stage to finish
+     */
+    public final void finishStage(Stage stage){
+        Status status;
+        synchronized(this){
+            long now = System.nanoTime();
+            startTimes.putIfAbsent(stage, now);
+            totals.putIfAbsent(stage, 0);
+            completed.putIfAbsent(stage, 0);
+            endTimes.put(stage, now);
+            status = statusOf(stage);
+        }
+        notifyListeners(status);
+    }
+
+    private Status statusOf(Stage stage){
+        long start = startTimes.get(stage);
+        long end = endTimes.getOrDefault(stage, System.nanoTime());
+        return new Status(
+            stage,
+            completed.getOrDefault(stage, 0),
+            totals.getOrDefault(stage, 0),
+            (end - start) / 1000000,
+            endTimes.containsKey(stage)
+        );
+    }
+
+    private void notifyListeners(Status status){
+        listeners.forEach((listener)->listener.accept(status));
+    }
+
+    /**
+     * @return how far along each stage which has started is, in the order
+     * the stages run
+     */
+    public final synchronized List<Status> getStatuses(){
+        ArrayList<Status> ret = new ArrayList<>();
+        for(Stage stage : Stage.values()){
+            if(startTimes.containsKey(stage)){
+                ret.add(statusOf(stage));
+            }
+        }
+        return ret;
+    }
+}
@@ -10,7 +10,9 @@ package nodemanager.files;
 public enum FileType {
     NODE_COORD( "Node coordinates", "NodeCoords", "csv", "text/csv"),
     NODE_CONN(  "Node connections", "NodeConn",   "csv", "text/csv"),
+    CONTRACTION_HIERARCHY("Contraction hierarchy", "Shortcuts", "csv", "text/csv"),
     LABEL(      "labels",           "Labels",     "csv", "text/csv"),
+    BINARY_GRAPH("Binary graph",    "BinaryGraph", "wfg", "application/octet-stream"),
     MAP_IMAGE(  "map image",        "MapImage",   "png", "image/png"),
     MANIFEST(   "NONE",             "Manifest",   "csv", "text/csv"),
     VERSION_LOG("NONE",             "NONE",       "csv", "text/csv");
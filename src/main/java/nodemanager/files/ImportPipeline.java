@@ -0,0 +1,187 @@
+package nodemanager.files;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import nodemanager.model.Graph;
+
+/**
+ * The ImportPipeline imports several files at once. Each file is parsed on
+ * its own thread into a separate staging Graph, then the staging Graphs are
+ * merged into the real Graph in a single step, in the order the files were
+ * added.
+ *
+ * This means the slowest file decides how long an import takes, rather than
+ * all of them added together, while the result stays the same as importing
+ * each file one after another. Files can come from this computer, or from a
+ * StreamSource, such as a download, in which case each file is parsed as its
+ * bytes arrive.
+ *
+ * <hr>
+ * {@code
+ *  ImportPipeline pipeline = new ImportPipeline()
+ *      .add(new NodeCoordFileHelper(), coordFile)
+ *      .add(new NodeConnFileHelper(), connFile);
+ *  pipeline.stage(); // off the Swing thread
+ *  pipeline.applyTo(graph); // on the Swing thread
+ * }
+ *
+ * @author Matt Crow
+ */
+public class ImportPipeline {
+    private final ArrayList<String> names;
+    private final ArrayList<GraphReader> readers;
+    private final ArrayList<Graph> staged; // null for files which failed to parse
+    private final ArrayList<String> errors;
+
+    /**
+     * Opens the stream to read a file from. This is called on the thread
+     * which parses the file, so it may block.
+     */
+    @FunctionalInterface
+    public static interface StreamSource {
+        public InputStream open() throws IOException;
+    }
+    
+    @FunctionalInterface
+    private static interface GraphReader {
+        public Graph read() throws IOException;
+    }
+
+    public ImportPipeline(){
+        names = new ArrayList<>();
+        readers = new ArrayList<>();
+        staged = new ArrayList<>();
+        errors = new ArrayList<>();
+    }
+
+    /**
+     * Adds a file to import. Files are merged in the order they are added,
+     * so add node coordinates before connections, labels, and the map image.
+     *
+     * @param helper the helper used to read the file
+     * @param f the file to read
+     * @return this, for chaining purposes
+     */
+    public final ImportPipeline add(AbstractWayfindingFileHelper helper, File f){
+        names.add(f.getName());
+        readers.add(()->{
+            Graph g = new Graph();
+            helper.readGraphDataFromFile(g, f);
+            return g;
+        });
+        return this;
+    }
+    
+    /**
+     * Adds a file to import from a stream, which is opened and closed by the
+     * thread that parses it. Files are merged in the order they are added.
+     *
+     * @param helper the helper used to read the file
+     * @param name what to call the file in error messages
+     * @param source opens the stream to read the file from
+     * @return this, for chaining purposes
+     */
+    public final ImportPipeline add(AbstractWayfindingFileHelper helper, String name, StreamSource source){
+        names.add(name);
+        readers.add(()->{
+            Graph g = new Graph();
+            try(InputStream in = source.open()){
+                helper.readGraphDataFromFile(g, in);
+            }
+            return g;
+        });
+        return this;
+    }
+    
+    /**
+     * Adds a file which has already been parsed, so it is merged in order
+     * with the rest.
+     *
+     * @param name what to call the file
+     * @param parsed the file's contents
+     * @return this, for chaining purposes
+     */
+    public final ImportPipeline add(String name, Graph parsed){
+        names.add(name);
+        readers.add(()->parsed);
+        return this;
+    }
+
+    /**
+     * Parses every file at the same time, each into its own staging Graph,
+     * and waits for all of them to finish. Files which fail to parse are
+     * skipped, and their errors are listed by getErrors().
+     *
+     * This can take a while, so don't call it from the Swing thread.
+     *
+     * @throws InterruptedException if interrupted while waiting for the files.
+     * Nothing is left staged, so applyTo won't import only some of them.
+     */
+    public final void stage() throws InterruptedException {
+        staged.clear();
+        errors.clear();
+        if(readers.isEmpty()){
+            return;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(readers.size());
+        try {
+            ArrayList<Future<Graph>> results = new ArrayList<>();
+            for(GraphReader reader : readers){
+                results.add(pool.submit(reader::read));
+            }
+
+            for(int i = 0; i < results.size(); i++){
+                try {
+                    staged.add(results.get(i).get());
+                } catch (InterruptedException ex) {
+                    staged.clear();
+                    throw ex;
+                } catch (ExecutionException ex) {
+                    staged.add(null);
+                    ex.getCause().printStackTrace();
+                    errors.add(String.format("Failed to import %s: %s", names.get(i), ex.getCause().getMessage()));
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Merges everything parsed by stage() into the given Graph, in the order
+     * the files were added.
+     *
+     * @param g the Graph to add the files' contents to
+     */
+    public final void applyTo(Graph g){
+        for(Graph file : staged){
+            if(file != null){
+                g.mergeFrom(file);
+            }
+        }
+    }
+
+    /**
+     * @param index the position the file was added in, starting from 0
+     * @return whether or not the file parsed during the last call to stage()
+     */
+    public final boolean wasStaged(int index){
+        return index < staged.size() && staged.get(index) != null;
+    }
+
+    /**
+     * @return a message for each file which failed to parse during the last
+     * call to stage()
+     */
+    public final List<String> getErrors(){
+        return errors;
+    }
+}
@@ -1,9 +1,10 @@
 package nodemanager.files;
 
-import java.awt.image.BufferedImage;
 import java.io.*;
-import javax.imageio.ImageIO;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import nodemanager.model.Graph;
+import nodemanager.model.TiledImage;
 
 
 /**
@@ -20,14 +21,31 @@ public class MapFileHelper extends AbstractWayfindingFileHelper{
         this("temp");
     }
 
+    /**
+     * Opens the map image in the given file. Maps too large to keep in
+     * memory are read from the file as they are drawn, so it shouldn't be
+     * moved or deleted while the program is running.
+     * 
+     * @param g the graph to set the map image of
+     * @param f the image file
+     * @throws IOException if f isn't an image
+     */
+    @Override
+    public void readGraphDataFromFile(Graph g, File f) throws IOException {
+        g.setMapImage(TiledImage.open(f));
+    }
+    
     @Override
     public void readGraphDataFromFile(Graph g, InputStream in) throws IOException {
-        BufferedImage mapImage = ImageIO.read(in);
-        g.setMapImage(mapImage);
+        // saved to a file first, as large maps are read from it as they are drawn
+        File temp = File.createTempFile("map", "." + FILE_FORMAT);
+        temp.deleteOnExit();
+        Files.copy(in, temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        readGraphDataFromFile(g, temp);
     }
 
     @Override
     public void writeGraphDataToFile(Graph g, OutputStream out) throws IOException {
-        ImageIO.write(g.getMapImage(), FILE_FORMAT, out);
+        g.getMapTiles().writeTo(FILE_FORMAT, out);
     }
 }
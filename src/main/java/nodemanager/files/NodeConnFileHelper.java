@@ -1,8 +1,10 @@
 package nodemanager.files;
 
 import java.io.InputStream;
-import nodemanager.io.StreamReaderUtil;
+import nodemanager.io.IntRowReader;
+import nodemanager.io.RowWriter;
 import static nodemanager.io.StreamReaderUtil.NEWLINE;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import nodemanager.model.Graph;
@@ -23,30 +25,42 @@ public class NodeConnFileHelper extends AbstractWayfindingFileHelper {
 
     @Override
     public void readGraphDataFromFile(Graph g, InputStream in) throws IOException {
-        String fileContents = StreamReaderUtil.readStream(in);
-        String[] lines = fileContents.split("\\n");
-        
-        String[] line;
-        int id1;
-        int id2;
-        //skip header
-        for(int i = 1; i < lines.length; i++){
-            line = lines[i].split(",");
-            id1 = Integer.parseInt(line[0].trim());
-            id2 = Integer.parseInt(line[1].trim());
-            g.addConnection(id1, id2);
+        try(IntRowReader reader = new IntRowReader(in)){
+            readRows(g, reader);
+        }
+    }
+    
+    /**
+     * Memory maps the file if it is large, so the rows are parsed straight
+     * out of it
+     */
+    @Override
+    public void readGraphDataFromFile(Graph g, File f) throws IOException {
+        try(IntRowReader reader = IntRowReader.open(f)){
+            readRows(g, reader);
+        }
+    }
+    
+    private void readRows(Graph g, IntRowReader reader) throws IOException {
+        reader.skipLine(); //skip header
+        int[] row = new int[2]; // node1, node2
+        int numFields;
+        while((numFields = reader.nextRow(row)) != -1){
+            if(numFields < 2){
+                throw new IOException(String.format("Line %d: expected node1, node2", reader.getLineNumber()));
+            }
+            g.addConnection(row[0], row[1]);
         }
     }
 
     @Override
     public void writeGraphDataToFile(Graph g, OutputStream out) throws IOException {
-        out.write("node1, node2".getBytes());
-        g.getAllConnections().forEach((pair)->{
-            try {
-                out.write(String.format("%c%d, %d", NEWLINE, pair[0], pair[1]).getBytes());
-            } catch (IOException ex) {
-                ex.printStackTrace();
+        int[] pairs = g.copyConnectionPairs();
+        try(RowWriter writer = new RowWriter(out)){
+            writer.write("node1, node2");
+            for(int i = 0; i < pairs.length; i += 2){
+                writer.write(NEWLINE).write(pairs[i]).write(", ").write(pairs[i + 1]);
             }
-        });
+        }
     }
 }
@@ -1,7 +1,9 @@
 package nodemanager.files;
 
-import nodemanager.io.StreamReaderUtil;
+import nodemanager.io.IntRowReader;
+import nodemanager.io.RowWriter;
 import static nodemanager.io.StreamReaderUtil.NEWLINE;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -23,31 +25,41 @@ public class NodeCoordFileHelper extends AbstractWayfindingFileHelper {
 
     @Override
     public void readGraphDataFromFile(Graph g, InputStream in) throws IOException {
-        String contents = StreamReaderUtil.readStream(in);
-        String[] rows = contents.split("\\n");
-        
-        String[] line;
-        int id;
-        int x;
-        int y;
-        for(int i = 1; i < rows.length; i++){
-            line = rows[i].split(",");
-            id = Integer.parseInt(line[0].trim());
-            x = Integer.parseInt(line[1].trim());
-            y = Integer.parseInt(line[2].trim());
-            g.addNode(new Node(id, x, y));
+        try(IntRowReader reader = new IntRowReader(in)){
+            readRows(g, reader);
+        }
+    }
+    
+    /**
+     * Memory maps the file if it is large, so the rows are parsed straight
+     * out of it
+     */
+    @Override
+    public void readGraphDataFromFile(Graph g, File f) throws IOException {
+        try(IntRowReader reader = IntRowReader.open(f)){
+            readRows(g, reader);
+        }
+    }
+    
+    private void readRows(Graph g, IntRowReader reader) throws IOException {
+        reader.skipLine(); //skip header
+        int[] row = new int[3]; // id, x, y
+        int numFields;
+        while((numFields = reader.nextRow(row)) != -1){
+            if(numFields < 3){
+                throw new IOException(String.format("Line %d: expected id, x, y", reader.getLineNumber()));
+            }
+            g.addNode(new Node(row[0], row[1], row[2]));
         }
     }
 
     @Override
     public void writeGraphDataToFile(Graph g, OutputStream out) throws IOException {
-        out.write("id, x, y".getBytes());
-        g.getAllNodes().forEach((node)->{
-            try {
-                out.write(String.format("%c%d, %d, %d", NEWLINE, node.getId(), node.getX(), node.getY()).getBytes());
-            } catch (IOException ex) {
-                ex.printStackTrace();
+        try(RowWriter writer = new RowWriter(out)){
+            writer.write("id, x, y");
+            for(Node node : g.getAllNodes()){
+                writer.write(NEWLINE).write(node.getId()).write(", ").write(node.getX()).write(", ").write(node.getY());
             }
-        });
+        }
     }
 }
@@ -1,6 +1,7 @@
 package nodemanager.files;
 
-import nodemanager.io.StreamReaderUtil;
+import nodemanager.io.CsvReader;
+import nodemanager.io.RowWriter;
 import static nodemanager.io.StreamReaderUtil.NEWLINE;
 import java.io.IOException;
 import java.io.InputStream;
@@ -23,29 +24,25 @@ public class NodeLabelFileHelper extends AbstractWayfindingFileHelper {
 
     @Override
     public void readGraphDataFromFile(Graph g, InputStream in) throws IOException {
-        String contents = StreamReaderUtil.readStream(in);
-        String[] rows = contents.split("\\n");
-        
-        String[] line;
-        String label;
-        int id;
-        for(int i = 1; i < rows.length; i++){
-            line = rows[i].split(",");
-            label = line[0].trim();
-            id = Integer.parseInt(line[1].trim());
-            g.addLabel(label, id);
+        try(CsvReader csv = new CsvReader(in)){
+            String[] line = csv.nextRow(); //skip header
+            String label;
+            int id;
+            while((line = csv.nextRow()) != null){
+                label = line[0];
+                id = Integer.parseInt(line[1]);
+                g.addLabel(label, id);
+            }
         }
     }
 
     @Override
     public void writeGraphDataToFile(Graph g, OutputStream out) throws IOException {
-        out.write("label, id".getBytes());
-        g.getAllLabel().forEach((label)->{
-            try {
-                out.write(String.format("%c%s, %d", NEWLINE, label, g.getNodeByLabel(label).getId()).getBytes());
-            } catch (IOException ex) {
-                ex.printStackTrace();
+        try(RowWriter writer = new RowWriter(out)){
+            writer.write("label, id");
+            for(String label : g.getAllLabel()){
+                writer.write(NEWLINE).write(label).write(", ").write(g.getNodeByLabel(label).getId());
             }
-        });
+        }
     }
 }
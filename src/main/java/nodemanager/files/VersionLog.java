@@ -1,14 +1,17 @@
 package nodemanager.files;
 
-import nodemanager.io.StreamReaderUtil;
+import nodemanager.io.CsvReader;
 import static nodemanager.io.StreamReaderUtil.NEWLINE;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
-import nodemanager.io.GoogleDriveUploader;
-import nodemanager.io.StreamWriterUtil;
+import nodemanager.NodeManager;
+import nodemanager.exceptions.NoPermissionException;
+import nodemanager.exceptions.VersionLogAccessException;
+import nodemanager.io.RowWriter;
+import nodemanager.io.StorageBackend;
 import nodemanager.model.Graph;
 
 /**
@@ -108,6 +111,17 @@ public class VersionLog extends AbstractWayfindingFileHelper {
     }
     
     
+    /**
+     * @return a VersionLog with the same exports as this, which can be
+     * changed without changing this
+     */
+    public final VersionLog copy(){
+        VersionLog ret = new VersionLog();
+        exports.forEach((type, urls)->ret.exports.put(type, new ArrayList<>(urls)));
+        return ret;
+    }
+    
+    
     /*
     Getters
     */
@@ -154,24 +168,25 @@ public class VersionLog extends AbstractWayfindingFileHelper {
     public void readGraphDataFromFile(Graph g, InputStream in) throws IOException {
         exports.clear();
         
-        String content = StreamReaderUtil.readStream(in);
-        String[] rows = content.split("\\n");
-        
-        //locate columns
-        HashMap<Integer, String> columnToType = new HashMap<>();
-        String[] headers = rows[0].split(",");
-        for(int i = 0; i < headers.length; i++){
-            columnToType.put(i, headers[i].trim());
-        }
-        
-        //populate exports
-        String[] row;
-        for(int rowNum = 1; rowNum < rows.length; rowNum++){
-            row = rows[rowNum].split(",");
-            for(int column = 0; column < row.length; column++){
-                if(!"".equals(row[column].trim())){
-                    //not empty
-                    addExport(columnToType.get(column), row[column].trim());
+        try(CsvReader csv = new CsvReader(in)){
+            //locate columns
+            HashMap<Integer, String> columnToType = new HashMap<>();
+            String[] headers = csv.nextRow();
+            if(headers == null){
+                return; // empty log
+            }
+            for(int i = 0; i < headers.length; i++){
+                columnToType.put(i, headers[i]);
+            }
+
+            //populate exports
+            String[] row;
+            while((row = csv.nextRow()) != null){
+                for(int column = 0; column < row.length; column++){
+                    if(!"".equals(row[column])){
+                        //not empty
+                        addExport(columnToType.get(column), row[column]);
+                    }
                 }
             }
         }
@@ -179,32 +194,47 @@ public class VersionLog extends AbstractWayfindingFileHelper {
     
     @Override
     public void writeGraphDataToFile(Graph g, OutputStream out) throws IOException {
-        StringBuilder sb = new StringBuilder();
-        
-        ArrayList<String> versions = new ArrayList<>(exports.keySet());
-        
-        sb.append(String.join(", ", versions));
-        
-        int maxUrls = 0; //maximum URLs any one version has
-        for(ArrayList<String> al : exports.values()){
-            if(al.size() > maxUrls){
-                maxUrls = al.size();
+        try(RowWriter writer = new RowWriter(out)){
+            ArrayList<String> versions = new ArrayList<>(exports.keySet());
+            
+            writer.write(String.join(", ", versions));
+            
+            int maxUrls = 0; //maximum URLs any one version has
+            for(ArrayList<String> al : exports.values()){
+                if(al.size() > maxUrls){
+                    maxUrls = al.size();
+                }
             }
-        }
-        
-        String[] newRow;
-        ArrayList<String> vUrls; //version's URLs
-        for(int i = 0; i < maxUrls; i++){
-            sb.append(NEWLINE);
-            newRow = new String[exports.size()]; //number of columns
-            for(int j = 0; j < exports.size(); j++){
-                vUrls = exports.get(versions.get(j));
-                //           prevent out of bounds               blank if that version doesn't have an i'th URL
-                newRow[j] = (vUrls.size() > i) ? vUrls.get(i) : "";
+            
+            String[] newRow;
+            ArrayList<String> vUrls; //version's URLs
+            for(int i = 0; i < maxUrls; i++){
+                writer.write(NEWLINE);
+                newRow = new String[exports.size()]; //number of columns
+                for(int j = 0; j < exports.size(); j++){
+                    vUrls = exports.get(versions.get(j));
+                    //           prevent out of bounds               blank if that version doesn't have an i'th URL
+                    newRow[j] = (vUrls.size() > i) ? vUrls.get(i) : "";
+                }
+                writer.write(String.join(", ", newRow));
             }
-            sb.append(String.join(", ", newRow));
         }
-        StreamWriterUtil.writeStream(out, sb.toString());
+    }
+    
+    /**
+     * Saves this over the version log in the given storage, so Wayfinding
+     * sees the new exports.
+     * 
+     * @param backend the storage to save to
+     * @throws IOException if the upload fails
+     * @throws VersionLogAccessException if the user cannot edit the version log
+     */
+    public final void save(StorageBackend backend) throws IOException, VersionLogAccessException {
+        try {
+            backend.update(DEFAULT_VERSION_LOG_ID, writeToTempFile(null), getType().getMimeType());
+        } catch (NoPermissionException ex) {
+            throw new VersionLogAccessException();
+        }
     }
     
     /*
@@ -215,11 +245,11 @@ public class VersionLog extends AbstractWayfindingFileHelper {
     public static void main(String[] args) throws IOException{
         VersionLog v = new VersionLog();
         try {
-            InputStream stream = GoogleDriveUploader.download(DEFAULT_VERSION_LOG_ID);
+            InputStream stream = NodeManager.getInstance().getStorageBackend().download(DEFAULT_VERSION_LOG_ID);
             v.readGraphDataFromFile(null, stream);
             v.writeGraphDataToFile(null, System.out);
 
-            //GoogleDriveUploader.revise(v);
+            //v.save(NodeManager.getInstance().getStorageBackend());
         } catch (IOException ex) {
             ex.printStackTrace();
         }
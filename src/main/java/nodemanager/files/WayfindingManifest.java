@@ -1,16 +1,31 @@
 package nodemanager.files;
 
-import com.google.api.services.drive.model.File;
-import nodemanager.io.StreamReaderUtil;
+import nodemanager.io.CsvReader;
+import nodemanager.io.RowWriter;
 import static nodemanager.io.StreamReaderUtil.NEWLINE;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import nodemanager.NodeManager;
 import nodemanager.exceptions.NoPermissionException;
-import nodemanager.io.GoogleDriveUploader;
+import nodemanager.files.ExportProgress.Stage;
+import nodemanager.io.HashUtil;
+import nodemanager.io.StorageBackend;
 import static nodemanager.io.GoogleDriveUploader.DOWNLOAD_URL_PREFIX;
 import nodemanager.model.Graph;
 
@@ -27,6 +42,23 @@ public class WayfindingManifest extends AbstractWayfindingFileHelper {
     private final String title;
     private final HashMap<FileType, AbstractWayfindingFileHelper> attachedFiles;
     private final HashMap<FileType, String> urls;
+    private final HashMap<FileType, String> hashes; // SHA-256 of each file, when known
+    private WayfindingManifest previousExport;
+    private long bytesSkipped;
+    private boolean includeContractionHierarchy;
+    private boolean includeBinaryGraph;
+    private final LinkedHashMap<FileType, String> uploadErrors;
+    private String createdFolderId; // by the last upload, if it got that far
+    private StorageBackend backend; // null to use NodeManager's
+    
+    /*
+    How many files can be uploaded at once. Drive starts rate limiting if
+    too many requests are made at the same time.
+    */
+    private static final int MAX_CONCURRENT_UPLOADS = 4;
+    
+    // what the binary graph file holds, so it can be read in their place
+    private static final List<FileType> BINARY_GRAPH_CONTENTS = Arrays.asList(FileType.NODE_COORD, FileType.NODE_CONN, FileType.LABEL);
     
     private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ISO_DATE_TIME;
     
@@ -35,6 +67,14 @@ public class WayfindingManifest extends AbstractWayfindingFileHelper {
         title = folderName;
         attachedFiles = new HashMap<>();
         urls = new HashMap<>();
+        hashes = new HashMap<>();
+        previousExport = null;
+        bytesSkipped = 0;
+        includeContractionHierarchy = false;
+        includeBinaryGraph = false;
+        uploadErrors = new LinkedHashMap<>();
+        createdFolderId = null;
+        backend = null;
     }
     
     public WayfindingManifest(){
@@ -45,6 +85,66 @@ public class WayfindingManifest extends AbstractWayfindingFileHelper {
         return title;
     }
     
+    /**
+     * Sets whether or not uploadToDrive should also upload a contraction
+     * hierarchy file, so Wayfinding can find routes more quickly.
+     * Off by default, as it can take a while to build for large graphs.
+     * 
+     * @param include whether or not to include the file
+     */
+    public final void setIncludeContractionHierarchy(boolean include){
+        includeContractionHierarchy = include;
+    }
+    
+    /**
+     * Sets whether or not uploadToDrive should also upload the binary graph
+     * file, which holds the nodes, connections, and labels in a form
+     * that is smaller and faster to load than the csv files.
+     * The csv files are still uploaded, for clients that can't read it.
+     * 
+     * @param include whether or not to include the file
+     */
+    public final void setIncludeBinaryGraph(boolean include){
+        includeBinaryGraph = include;
+    }
+    
+    /**
+     * Sets where this downloads the files it links to from. Defaults to the
+     * storage backend chosen when the program started.
+     * 
+     * @param backend the storage to download from
+     */
+    public final void setStorageBackend(StorageBackend backend){
+        this.backend = backend;
+    }
+    
+    /**
+     * @return where this downloads the files it links to from
+     */
+    private StorageBackend getStorageBackend(){
+        return (backend == null) ? NodeManager.getInstance().getStorageBackend() : backend;
+    }
+    
+    /**
+     * Sets the manifest of the last export of the same type, so upload can
+     * link to any of its files which haven't changed, rather than uploading
+     * them again.
+     * 
+     * @param previous the previous manifest, with its URLs already read, or
+     * null to upload every file
+     */
+    public final void setPreviousExport(WayfindingManifest previous){
+        previousExport = previous;
+    }
+    
+    /**
+     * @return how many bytes the last call to upload didn't need to upload,
+     * as the files were the same as in the previous export
+     */
+    public final long getBytesSkipped(){
+        return bytesSkipped;
+    }
+    
     public final boolean containsUrlFor(FileType fileType) {
         return urls.containsKey(fileType);
     }
@@ -64,13 +164,12 @@ public class WayfindingManifest extends AbstractWayfindingFileHelper {
             AbstractWayfindingFileHelper file = AbstractWayfindingFileHelper.fromType("manifestFile", fileType);
             String id = urls.get(fileType).replace(DOWNLOAD_URL_PREFIX, "");
 
-            try {
-                InputStream in = GoogleDriveUploader.download(id);
+            try(InputStream in = getStorageBackend().download(id)) {
                 file.readGraphDataFromFile(g, in);
+                attachedFiles.put(fileType, file); //cache the file, so it is only downloaded again if this failed
             } catch (IOException ex) {
                 ex.printStackTrace();
             }
-            attachedFiles.put(fileType, file); //cache the file
 
             ret = file;
         }
@@ -78,51 +177,222 @@ public class WayfindingManifest extends AbstractWayfindingFileHelper {
         return ret;
     }
 
-    @Override
-    public void readGraphDataFromFile(Graph g, InputStream in) throws IOException {
-        // gather URLs
+    /**
+     * Downloads and imports several of the files this links to at once.
+     * Each file is parsed as it downloads, into a separate Graph, then they
+     * are all added to the given Graph in the order their types are declared
+     * in FileType, so nodes always come before their connections and labels.
+     * Files which have already been imported are skipped.
+     * 
+     * @param g the Graph to add the files' contents to
+     * @param types the types of file to import. Types this has no URL for are skipped.
+     * @return a message for each file which failed to import
+     * @throws IOException if interrupted while waiting for the downloads
+     */
+    public final List<String> importFilesFor(Graph g, Collection<FileType> types) throws IOException {
+        ImportPipeline pipeline = stageFilesFor(types);
+        pipeline.applyTo(g);
+        return pipeline.getErrors();
+    }
+    
+    /**
+     * Downloads and parses several of the files this links to at once,
+     * without adding them to a Graph yet, so the slow part can happen off
+     * the Swing thread.
+     * 
+     * If the node coordinates, connections, and labels are all wanted, and
+     * this links to a binary graph file, that file is read first, in place
+     * of the three csv files. If it cannot be downloaded or parsed, the csv
+     * files are read instead.
+     * 
+     * @param types the types of file to download. Types this has no URL for are skipped.
+     * @return the parsed files, ready to be applied to a Graph
+     * @throws IOException if interrupted while waiting for the downloads
+     * @see #importFilesFor(nodemanager.model.Graph, java.util.Collection) 
+     */
+    public final ImportPipeline stageFilesFor(Collection<FileType> types) throws IOException {
+        StorageBackend from = getStorageBackend();
+        HashSet<FileType> toStage = new HashSet<>(types);
+        AbstractWayfindingFileHelper binaryFile = null;
+        Graph binary = null;
+        if(toStage.containsAll(BINARY_GRAPH_CONTENTS) && containsUrlFor(FileType.BINARY_GRAPH)){
+            toStage.remove(FileType.BINARY_GRAPH);
+            if(attachedFiles.containsKey(FileType.BINARY_GRAPH)){
+                // already imported everything in the csv files
+                toStage.removeAll(BINARY_GRAPH_CONTENTS);
+            } else if(BINARY_GRAPH_CONTENTS.stream().noneMatch(attachedFiles::containsKey)){
+                binaryFile = AbstractWayfindingFileHelper.fromType("manifestFile", FileType.BINARY_GRAPH);
+                binary = readBinaryGraph(from, binaryFile);
+                if(binary != null){
+                    toStage.removeAll(BINARY_GRAPH_CONTENTS);
+                }
+            }
+        }
+        
+        ImportPipeline pipeline = new ImportPipeline();
+        LinkedHashMap<FileType, AbstractWayfindingFileHelper> added = new LinkedHashMap<>();
+        AbstractWayfindingFileHelper file;
+        for(FileType fileType : FileType.values()){
+            if(fileType == FileType.BINARY_GRAPH && binary != null){
+                pipeline.add(fileType.getTitle(), binary);
+                added.put(fileType, binaryFile);
+            } else if(toStage.contains(fileType) && containsUrlFor(fileType) && !attachedFiles.containsKey(fileType)){
+                file = AbstractWayfindingFileHelper.fromType("manifestFile", fileType);
+                String id = urls.get(fileType).replace(DOWNLOAD_URL_PREFIX, "");
+                pipeline.add(file, fileType.getTitle(), ()->from.download(id));
+                added.put(fileType, file);
+            }
+        }
+        
+        try {
+            pipeline.stage();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while downloading", ex);
+        }
+        
+        // cache the files, so only the ones which failed are downloaded again
+        int i = 0;
+        for(Map.Entry<FileType, AbstractWayfindingFileHelper> entry : added.entrySet()){
+            if(pipeline.wasStaged(i)){
+                attachedFiles.put(entry.getKey(), entry.getValue());
+            }
+            i++;
+        }
+        return pipeline;
+    }
+    
+    /**
+     * Downloads and parses the binary graph file this links to
+     * 
+     * @return its contents, or null if it couldn't be downloaded or parsed
+     */
+    private Graph readBinaryGraph(StorageBackend from, AbstractWayfindingFileHelper file){
+        Graph ret = null;
+        String id = urls.get(FileType.BINARY_GRAPH).replace(DOWNLOAD_URL_PREFIX, "");
+        try(InputStream in = from.download(id)){
+            Graph parsed = new Graph();
+            file.readGraphDataFromFile(parsed, in);
+            ret = parsed;
+        } catch (IOException | RuntimeException ex) {
+            // the csv files hold the same things
+            ex.printStackTrace();
+        }
+        return ret;
+    }
+    
+    /**
+     * Reads the URLs from a manifest file, without downloading the files
+     * they link to.
+     * 
+     * @param in the contents of the manifest file
+     * @throws IOException if the manifest cannot be read
+     */
+    public final void readUrls(InputStream in) throws IOException {
         attachedFiles.clear();
         urls.clear();
+        hashes.clear();
         
-        String contents = StreamReaderUtil.readStream(in);
-        String[] lines = contents.split("\\n");
-        
-        String[] line;
-        FileType type;
-        String url;
-        for(int i = 1; i < lines.length; i++){
-            line = lines[i].split(",");
-            type = FileType.fromTitle(line[0].trim());
-            url = line[1].trim();
-            urls.put(type, url);
+        try(CsvReader csv = new CsvReader(in)){
+            String[] line = csv.nextRow(); //skip header
+            FileType type;
+            String url;
+            while((line = csv.nextRow()) != null){
+                type = FileType.fromTitle(line[0]);
+                url = line[1];
+                urls.put(type, url);
+                // older manifests don't have hashes
+                if(line.length >= 3 && !line[2].isEmpty()){
+                    hashes.put(type, line[2]);
+                }
+            }
         }
+    }
+
+    @Override
+    public void readGraphDataFromFile(Graph g, InputStream in) throws IOException {
+        readUrls(in);
         
         // download the files
-        urls.forEach((fileType, fileUrl)->{
-            importFileFor(fileType, g);
-        });
+        List<String> errors = importFilesFor(g, urls.keySet());
+        if(!errors.isEmpty()){
+            throw new IOException(String.join("\n", errors));
+        }
     }
 
     @Override
     public void writeGraphDataToFile(Graph g, OutputStream out) throws IOException {
-        StringBuilder sb = new StringBuilder("Data, URL");
-        urls.entrySet().forEach((entry) -> {
-            sb
-                .append(NEWLINE)
-                .append(entry.getKey().getTitle())
-                .append(", ")
-                .append(entry.getValue());
-        });
-        out.write(sb.toString().getBytes());
-    }
-    
-    public final com.google.api.services.drive.model.File uploadToDrive(String folderId, Graph g) throws IOException, NoPermissionException{
-        // create a subfolder for this
-        File newFolder = GoogleDriveUploader.createSubfolder(folderId, title);
-        
+        try(RowWriter writer = new RowWriter(out)){
+            writer.write("Data, URL, SHA-256");
+            for(Map.Entry<FileType, String> entry : urls.entrySet()){
+                writer
+                    .write(NEWLINE)
+                    .write(entry.getKey().getTitle())
+                    .write(", ")
+                    .write(entry.getValue())
+                    .write(", ")
+                    .write(hashes.getOrDefault(entry.getKey(), ""));
+            }
+        }
+    }
+    
+    /**
+     * Uploads the Graph's files to a new folder, then uploads this, which
+     * links to them.
+     * 
+     * @param backend where to upload the files to
+     * @param folderId the id of the folder to create the new folder in
+     * @param g the Graph to upload
+     * @return the id of the uploaded manifest
+     * @throws IOException if the folder or manifest cannot be uploaded, or
+     * the upload is interrupted
+     * @throws NoPermissionException if the user cannot access the folder
+     * @see #upload(nodemanager.io.StorageBackend, java.lang.String, nodemanager.model.Graph, nodemanager.files.ExportProgress) 
+     */
+    public final String upload(StorageBackend backend, String folderId, Graph g) throws IOException, NoPermissionException{
+        try {
+            return upload(backend, folderId, g, new ExportProgress());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while uploading", ex);
+        }
+    }
+    
+    /**
+     * Uploads the Graph's files to a new folder, then uploads this, which
+     * links to them, reporting each stage to the given ExportProgress.
+     * 
+     * Each file is written to a temporary file, then hashed. Then the
+     * uploads, and publishing each file, run concurrently on up to
+     * MAX_CONCURRENT_UPLOADS threads, so an export takes about as long as its
+     * slowest upload, rather than all of them added together. Each file is
+     * published as soon as it is uploaded, so the upload and publish stages
+     * overlap. The manifest is only uploaded once every other file is done.
+     * Files which fail to upload are left out of the manifest, and listed by
+     * getUploadErrors().
+     * 
+     * If a previous export has been set, files with the same SHA-256 hash as
+     * the previous export's are not uploaded. Instead, the manifest links to
+     * the previous export's copy.
+     * 
+     * @param backend where to upload the files to
+     * @param folderId the id of the folder to create the new folder in
+     * @param g the Graph to upload
+     * @param progress notified as each stage progresses
+     * @return the id of the uploaded manifest
+     * @throws IOException if the folder or manifest cannot be uploaded
+     * @throws NoPermissionException if the user cannot access the folder
+     * @throws InterruptedException if the upload is cancelled by
+     * interrupting this thread. Any uploads in progress are interrupted too.
+     */
+    public final String upload(StorageBackend backend, String folderId, Graph g, ExportProgress progress) throws IOException, NoPermissionException, InterruptedException{
         // try and upload the different files for the Graph
         attachedFiles.clear();
         urls.clear();
+        hashes.clear();
+        uploadErrors.clear();
+        bytesSkipped = 0;
+        createdFolderId = null;
         
         NodeCoordFileHelper coords = new NodeCoordFileHelper(title);
         attachedFiles.put(FileType.NODE_COORD, coords);
@@ -130,24 +400,138 @@ public class WayfindingManifest extends AbstractWayfindingFileHelper {
         NodeConnFileHelper conn = new NodeConnFileHelper(title);
         attachedFiles.put(FileType.NODE_CONN, conn);
         
+        if(includeContractionHierarchy){
+            ContractionHierarchyFileHelper shortcuts = new ContractionHierarchyFileHelper(title);
+            attachedFiles.put(FileType.CONTRACTION_HIERARCHY, shortcuts);
+        }
+        
         NodeLabelFileHelper labels = new NodeLabelFileHelper(title);
         attachedFiles.put(FileType.LABEL, labels);
         
+        if(includeBinaryGraph){
+            BinaryGraphFileHelper binary = new BinaryGraphFileHelper(title);
+            attachedFiles.put(FileType.BINARY_GRAPH, binary);
+        }
+        
         MapFileHelper map = new MapFileHelper(title);
         attachedFiles.put(FileType.MAP_IMAGE, map);
         
-        attachedFiles.forEach((type, file)->{
+        // write each file on this thread, so the Graph is only read from one thread
+        LinkedHashMap<FileType, File> written = new LinkedHashMap<>();
+        progress.startStage(Stage.SERIALIZE, attachedFiles.size());
+        for(Map.Entry<FileType, AbstractWayfindingFileHelper> entry : attachedFiles.entrySet()){
             try {
-                File f = GoogleDriveUploader.uploadFile(g, file, newFolder.getId());
-                urls.put(type, DOWNLOAD_URL_PREFIX + f.getId());
+                written.put(entry.getKey(), entry.getValue().writeToTempFile(g));
             } catch (IOException ex) {
                 ex.printStackTrace();
-            } catch (NoPermissionException ex) {
+                uploadErrors.put(entry.getKey(), ex.getMessage());
+            }
+            progress.step(Stage.SERIALIZE);
+        }
+        progress.finishStage(Stage.SERIALIZE);
+        
+        LinkedHashMap<FileType, File> localFiles = new LinkedHashMap<>();
+        progress.startStage(Stage.HASH, written.size());
+        for(Map.Entry<FileType, File> entry : written.entrySet()){
+            FileType type = entry.getKey();
+            File local = entry.getValue();
+            try {
+                String hash = HashUtil.sha256Of(local);
+                hashes.put(type, hash);
+                if(previousExport != null && hash.equals(previousExport.hashes.get(type)) && previousExport.containsUrlFor(type)){
+                    // unchanged, so link to the old one
+                    urls.put(type, previousExport.urls.get(type));
+                    bytesSkipped += local.length();
+                } else {
+                    localFiles.put(type, local);
+                }
+            } catch (IOException ex) {
                 ex.printStackTrace();
-            } 
-        });
+                uploadErrors.put(type, ex.getMessage());
+            }
+            progress.step(Stage.HASH);
+        }
+        progress.finishStage(Stage.HASH);
         
-        // lastly, upload this to the Drive.
-        return GoogleDriveUploader.uploadFile(g, this, newFolder.getId());
+        // create a subfolder for this
+        progress.startStage(Stage.UPLOAD, localFiles.size());
+        String newFolderId = backend.createFolder(folderId, title);
+        createdFolderId = newFolderId;
+        
+        if(!localFiles.isEmpty()){
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(MAX_CONCURRENT_UPLOADS, localFiles.size()));
+            try {
+                LinkedHashMap<FileType, Future<String>> uploads = new LinkedHashMap<>();
+                localFiles.forEach((type, local)->{
+                    AbstractWayfindingFileHelper file = attachedFiles.get(type);
+                    uploads.put(type, pool.submit(()->{
+                        String id = backend.upload(local, file.getFileName(), type.getMimeType(), newFolderId);
+                        progress.step(Stage.UPLOAD);
+                        progress.startStage(Stage.PUBLISH, localFiles.size());
+                        backend.publish(id);
+                        progress.step(Stage.PUBLISH);
+                        return id;
+                    }));
+                });
+                
+                // wait for all of them before uploading the manifest
+                for(Map.Entry<FileType, Future<String>> upload : uploads.entrySet()){
+                    try {
+                        urls.put(upload.getKey(), DOWNLOAD_URL_PREFIX + upload.getValue().get());
+                    } catch (ExecutionException ex) {
+                        ex.getCause().printStackTrace();
+                        hashes.remove(upload.getKey());
+                        uploadErrors.put(upload.getKey(), ex.getCause().getMessage());
+                    }
+                }
+            } finally {
+                pool.shutdownNow();
+                waitForUploads(pool);
+            }
+        }
+        progress.finishStage(Stage.UPLOAD);
+        progress.finishStage(Stage.PUBLISH);
+        
+        // lastly, upload this.
+        progress.startStage(Stage.MANIFEST, 1);
+        String id = backend.upload(writeToTempFile(g), getFileName(), getType().getMimeType(), newFolderId);
+        backend.publish(id);
+        progress.step(Stage.MANIFEST);
+        progress.finishStage(Stage.MANIFEST);
+        return id;
+    }
+    
+    /**
+     * Waits for interrupted uploads to stop, so that nothing more is uploaded
+     * once upload has returned or thrown. Keeps this thread's interrupted
+     * status, rather than letting it cut the wait short.
+     */
+    private static void waitForUploads(ExecutorService pool){
+        boolean interrupted = Thread.interrupted();
+        try {
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ex) {
+            interrupted = true;
+        } finally {
+            if(interrupted){
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    /**
+     * @return the id of the folder the last call to upload created, or null
+     * if it failed or was cancelled before creating one
+     */
+    public final String getCreatedFolderId(){
+        return createdFolderId;
+    }
+    
+    /**
+     * @return the reason each file failed to upload during the last call to
+     * upload, by file type. Empty if they all succeeded.
+     */
+    public final Map<FileType, String> getUploadErrors(){
+        return uploadErrors;
     }
 }
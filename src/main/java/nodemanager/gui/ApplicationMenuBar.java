@@ -17,7 +17,10 @@ import nodemanager.gui.exportData.ExportMenu;
 import nodemanager.gui.importData.ImportMenu;
 import nodemanager.model.Graph;
 import nodemanager.model.Node;
+import nodemanager.model.TiledImage;
 import nodemanager.modes.ModeNewNode;
+import nodemanager.routing.Route;
+import nodemanager.routing.RouteEngine;
 
 /**
  *
@@ -141,6 +144,40 @@ public class ApplicationMenuBar extends JMenuBar {
         }
     }
     
+    /**
+     * @param idOrLabel either the id or a label of a node
+     * @return the node with that id or label, or null if there isn't one
+     */
+    private Node findNode(Graph g, String idOrLabel){
+        Node find;
+        try {
+            find = g.getNodeById(Integer.parseInt(idOrLabel.trim()));
+        } catch(NumberFormatException ex){
+            find = g.getNodeByLabel(idOrLabel.trim());
+        }
+        return find;
+    }
+    
+    private void tryFindRoute(String from, String to){
+        Graph g = NodeManager.getInstance().getGraph();
+        Node start = findNode(g, from);
+        Node end = findNode(g, to);
+        if(start == null){
+            InputConsole.getInstance().warn("Couldn't find a node with an id or label of " + from);
+        } else if(end == null){
+            InputConsole.getInstance().warn("Couldn't find a node with an id or label of " + to);
+        } else {
+            long startTime = System.nanoTime();
+            Route r = new RouteEngine(g).findRoute(start.getId(), end.getId());
+            long elapsed = System.nanoTime() - startTime;
+            if(r.exists()){
+                InputConsole.getInstance().writeMessage(String.format("%s (found in %d ms)", r.toString(), elapsed / 1000000));
+            } else {
+                InputConsole.getInstance().warn(String.format("There is no route from node %d to node %d", start.getId(), end.getId()));
+            }
+        }
+    }
+    
     private JMenu createSelectMenu(){
         JMenu m = new JMenu("Find a node");
         
@@ -162,6 +199,20 @@ public class ApplicationMenuBar extends JMenuBar {
         });
         m.add(byLabel);
         
+        JMenuItem route = new JMenuItem("...route between two nodes");
+        route.addActionListener((e) -> {
+            String[] from = new String[1];
+            InputConsole.getInstance().askString(
+                "Enter the id or label of the node to start from: ",
+                (String start)->from[0] = start
+            );
+            InputConsole.getInstance().askString(
+                "Enter the id or label of the node to go to: ",
+                (String to)->tryFindRoute(from[0], to)
+            );
+        });
+        m.add(route);
+        
         return m;
     }
 
@@ -191,6 +242,17 @@ public class ApplicationMenuBar extends JMenuBar {
             parent.getBody().repaint();
         });
         m.add(hideAllConn);
+        
+        JMenuItem mapStats = new JMenuItem("Show map image stats");
+        mapStats.addActionListener((e) -> {
+            TiledImage map = NodeManager.getInstance().getGraph().getMapTiles();
+            if(map == null){
+                InputConsole.getInstance().warn("There is no map image");
+            } else {
+                InputConsole.getInstance().writeMessage(map.getStats());
+            }
+        });
+        m.add(mapStats);
 
         return m;
     }
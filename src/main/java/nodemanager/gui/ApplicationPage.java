@@ -1,6 +1,13 @@
 package nodemanager.gui;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import nodemanager.io.GoogleDriveUploader;
+import nodemanager.io.GoogleDriveUploader.AuthState;
 
 /**
  *
@@ -9,6 +16,16 @@ import javax.swing.JPanel;
 public class ApplicationPage extends JPanel {
     private final ApplicationBody parent;
     
+    /*
+    Runs every page's background tasks. The threads are daemons, so a task
+    stuck waiting on the network doesn't stop the program from closing.
+    */
+    private static final ExecutorService BACKGROUND = Executors.newCachedThreadPool((r)->{
+        Thread t = new Thread(r, "ApplicationPage background task");
+        t.setDaemon(true);
+        return t;
+    });
+    
     public ApplicationPage(ApplicationBody parent){
         super();
         this.parent = parent;
@@ -17,4 +34,32 @@ public class ApplicationPage extends JPanel {
     public final ApplicationBody getApplicationBody(){
         return parent;
     }
+    
+    /**
+     * Runs something which uses the storage backend on a separate thread, so
+     * the Swing thread doesn't freeze while it waits on the network, or for
+     * the user to sign in to the Google Drive. The task should use
+     * SwingUtilities.invokeLater to update the GUI.
+     * 
+     * This is static, so parts of the GUI which aren't pages, such as the
+     * menus, can use it too.
+     * 
+     * @param showStatus called on the Swing thread with a message each time
+     * signing in to the Google Drive makes progress while the task runs
+     * @param task the task to run
+     * @return the running task. Cancelling it interrupts the task's thread.
+     */
+    public static Future<?> runInBackground(Consumer<String> showStatus, Runnable task){
+        Consumer<AuthState> listener = (state)->{
+            SwingUtilities.invokeLater(()->showStatus.accept(state.getMessage()));
+        };
+        return BACKGROUND.submit(()->{
+            GoogleDriveUploader.addAuthStateListener(listener);
+            try {
+                task.run();
+            } finally {
+                GoogleDriveUploader.removeAuthStateListener(listener);
+            }
+        });
+    }
 }
@@ -0,0 +1,154 @@
+package nodemanager.gui.editPage.mapComponents;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Line2D;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import nodemanager.model.Graph;
+
+/**
+ * The ConnectionLayer draws the connections between the NodeIcons on a
+ * MapImage.
+ *
+ * Graph stores each connection in both directions, but each is only drawn
+ * once: by the node with the lower id, if both of its nodes are drawing
+ * their connections. Lines entirely off screen are skipped. The rest are
+ * gathered by colour, then each colour's lines are drawn together, so the
+ * colour and Stroke are only set once per colour, and the Stroke is only
+ * created again when the size of NodeIcons changes.
+ *
+ * Note that the lines are drawn one by one, rather than as one Path2D per
+ * colour: Java2D fills a stroked path with many lines far slower than it
+ * draws the same lines separately.
+ *
+ * <hr>
+ * {@code
+ *  layer.begin(x1, y1, x2, y2);
+ *  icons.forEach(layer::addLinksOf);
+ *  layer.end(g2d);
+ * }
+ *
+ * @author Matt Crow
+ */
+final class ConnectionLayer {
+    /**
+     * The lines of one colour in a frame
+     */
+    private static final class Lines {
+        private int[] coords = new int[256]; // x1, y1, x2, y2 of each line
+        private int count = 0;
+    }
+
+    private final MapImage host;
+    private final LinkedHashMap<Color, Lines> lines; // reused between frames
+    private final Line2D.Float line;
+
+    private BasicStroke stroke;
+    private int strokeIconSize; // the NodeIcon size stroke was made for
+
+    private int minX; // the visible part of the image, padded by the width of a line
+    private int minY;
+    private int maxX;
+    private int maxY;
+
+    ConnectionLayer(MapImage host){
+        this.host = host;
+        lines = new LinkedHashMap<>();
+        line = new Line2D.Float();
+        stroke = null;
+        strokeIconSize = -1;
+    }
+
+    /**
+     * Starts drawing a frame
+     *
+     * @param x1 the left edge of the visible part of the image
+     * @param y1 the top edge of the visible part of the image
+     * @param x2 the right edge of the visible part of the image
+     * @param y2 the bottom edge of the visible part of the image
+     */
+    void begin(int x1, int y1, int x2, int y2){
+        int size = NodeIcon.getSize();
+        if(stroke == null || strokeIconSize != size){
+            stroke = new BasicStroke(size / 2);
+            strokeIconSize = size;
+        }
+        minX = x1 - size;
+        minY = y1 - size;
+        maxX = x2 + size;
+        maxY = y2 + size;
+        for(Lines ofColor : lines.values()){
+            ofColor.count = 0;
+        }
+    }
+
+    /**
+     * Adds the connections of the given icon's node to the frame, if the
+     * icon should show them. Every node within the longest connection's
+     * length of the visible part of the image should be added, so lines
+     * crossing it are found from at least one end.
+     *
+     * @param icon the icon whose connections to draw
+     */
+    void addLinksOf(NodeIcon icon){
+        boolean drawAll = host.getDrawAllConnections();
+        if(!drawAll && !icon.isDrawingLinks()){
+            return;
+        }
+        Graph graph = host.getGraph();
+        int id = icon.getNode().getId();
+        graph.forEachConnection(id, (otherId)->{
+            NodeIcon other = host.getIcon(otherId);
+            if(other == null){
+                return; // not on the map
+            }
+            if(otherId < id && (drawAll || other.isDrawingLinks())){
+                return; // the other node draws it
+            }
+            addLine(icon.getColor(), icon.getX(), icon.getY(), other.getX(), other.getY());
+        });
+    }
+
+    private void addLine(Color color, int x1, int y1, int x2, int y2){
+        if(Math.max(x1, x2) < minX || Math.min(x1, x2) > maxX || Math.max(y1, y2) < minY || Math.min(y1, y2) > maxY){
+            return; // off screen
+        }
+        Lines ofColor = lines.get(color);
+        if(ofColor == null){
+            ofColor = new Lines();
+            lines.put(color, ofColor);
+        }
+        int i = ofColor.count * 4;
+        if(ofColor.coords.length < i + 4){
+            ofColor.coords = Arrays.copyOf(ofColor.coords, ofColor.coords.length * 2);
+        }
+        int[] coords = ofColor.coords;
+        coords[i] = x1;
+        coords[i + 1] = y1;
+        coords[i + 2] = x2;
+        coords[i + 3] = y2;
+        ofColor.count++;
+    }
+
+    /**
+     * Draws the lines added since begin was called
+     *
+     * @param g the graphics context to draw on, in the image's coordinates
+     */
+    void end(Graphics2D g){
+        g.setStroke(stroke);
+        lines.forEach((color, ofColor)->{
+            if(ofColor.count == 0){
+                return; // none this frame
+            }
+            int[] coords = ofColor.coords;
+            g.setColor(color);
+            for(int i = 0; i < ofColor.count * 4; i += 4){
+                line.setLine(coords[i], coords[i + 1], coords[i + 2], coords[i + 3]);
+                g.draw(line);
+            }
+        });
+    }
+}
@@ -5,9 +5,12 @@ import javax.swing.*;
 import java.awt.image.BufferedImage;
 import java.awt.event.*;
 import java.util.*;
+import java.util.function.Consumer;
 import nodemanager.model.Node;
 import nodemanager.*;
+import nodemanager.gui.InputConsole;
 import nodemanager.model.Graph;
+import nodemanager.model.TiledImage;
 
 /**
  * @author Matt Crow (greengrappler12@gmail.com)
@@ -23,9 +26,22 @@ import nodemanager.model.Graph;
 public class MapImage extends JLabel implements MouseListener {
     private Graph representedGraph;
     
-    private BufferedImage buff;
+    private TiledImage image;
+    private boolean reportedLevels; // whether the stats of image's pyramid have been shown
+    
+    /*
+    A copy of the part of image around the screen, already scaled to the zoom,
+    so repainting while panning only copies it, rather than scaling image.
+    It is rebuilt when the zoom or image changes, or the screen moves out of
+    it.
+    */
+    private BufferedImage scaledBuff;
+    private Rectangle scaledBounds; // the part of the scaled image scaledBuff holds
+    private double scaledZoom;
+    
     private final Scale scaler;
     private final HashMap<Integer, NodeIcon> nodeIcons; // the node icons this is displaying
+    private final ConnectionLayer connectionLayer;
 
     /*
     these are the dimensions of the clip
@@ -45,6 +61,11 @@ public class MapImage extends JLabel implements MouseListener {
         setVisible(true);
         scaler = new Scale();
         nodeIcons = new HashMap<>();
+        connectionLayer = new ConnectionLayer(this);
+        
+        scaledBuff = null;
+        scaledBounds = null;
+        scaledZoom = 0;
 
         zoom = 1.0;
 
@@ -78,7 +99,7 @@ public class MapImage extends JLabel implements MouseListener {
     public final void renderGraph(Graph g){
         representedGraph = g;
         removeAllNodes();
-        setImage(g.getMapImage());
+        setImage(g.getMapTiles());
         scaleTo(
             g.getNodeById(-1).getX(), 
             g.getNodeById(-1).getY(), 
@@ -206,8 +227,8 @@ public class MapImage extends JLabel implements MouseListener {
      */
     public final void resize() {
         zoom = 1.0;
-        if(buff != null){
-            scaler.setMapSize(buff.getWidth(), buff.getHeight());
+        if(image != null){
+            scaler.setMapSize(image.getWidth(), image.getHeight());
         }
         resizeNodeIcons();
     }
@@ -219,7 +240,19 @@ public class MapImage extends JLabel implements MouseListener {
      * @param bi the image to display
      */
     public void setImage(BufferedImage bi) {
-        buff = bi;
+        setImage((bi == null) ? null : new TiledImage(bi));
+    }
+    
+    /**
+     * Changes the image displayed by this component, resetting the clip info in
+     * the process
+     *
+     * @param ti the image to display, which may be too large to keep in memory
+     */
+    public void setImage(TiledImage ti) {
+        image = ti;
+        reportedLevels = false;
+        scaledBuff = null;
         clipX = 0;
         clipY = 0;
         resize();
@@ -239,47 +272,218 @@ public class MapImage extends JLabel implements MouseListener {
 
     /**
      * 
-     * @return the current image this is displaying
+     * @return the current image this is displaying, or null if it is too
+     * large to keep in memory
      */
     public final BufferedImage getImage(){
-        return buff;
+        return (image == null) ? null : image.getImage();
     }
     
     
     /**
-     * @throws NullPointerException if the mouse isn't over a node.
-     * @return the NodeIcon the mouse is over
+     * Runs the given action on each NodeIcon within the given rectangle of
+     * the image, plus some padding, by asking the graph's spatial index for
+     * the nodes there, rather than checking every icon. Icons just outside
+     * the rectangle may be included too.
+     * 
+     * @param x1 the left edge of the rectangle, on the image
+     * @param y1 the top edge of the rectangle, on the image
+     * @param x2 the right edge of the rectangle, on the image
+     * @param y2 the bottom edge of the rectangle, on the image
+     * @param nodePadding how far outside the rectangle to look, in node coordinates
+     * @param action what to do with each icon
      */
-    public final NodeIcon hoveredNodeIcon(int mouseX, int mouseY) throws NullPointerException {
+    private void forEachIconIn(int x1, int y1, int x2, int y2, double nodePadding, Consumer<NodeIcon> action){
+        // the icons are positioned in map space, but the index is in node space
+        double nx1 = scaler.mapXToNodeX(x1);
+        double ny1 = scaler.mapYToNodeY(y1);
+        double nx2 = scaler.mapXToNodeX(x2);
+        double ny2 = scaler.mapYToNodeY(y2);
+        
+        if(representedGraph == null || !Double.isFinite(nx1 + ny1 + nx2 + ny2 + nodePadding)){
+            // no scale to convert with, so check every icon
+            nodeIcons.values().forEach(action);
+            return;
+        }
+        
+        representedGraph.getSpatialIndex().forEachInRect(
+            // pad by a unit, as icon positions are rounded
+            (int)Math.max(Integer.MIN_VALUE, Math.floor(Math.min(nx1, nx2) - nodePadding) - 1),
+            (int)Math.max(Integer.MIN_VALUE, Math.floor(Math.min(ny1, ny2) - nodePadding) - 1),
+            (int)Math.min(Integer.MAX_VALUE, Math.ceil(Math.max(nx1, nx2) + nodePadding) + 1),
+            (int)Math.min(Integer.MAX_VALUE, Math.ceil(Math.max(ny1, ny2) + nodePadding) + 1),
+            (id)->{
+                NodeIcon icon = nodeIcons.get(id);
+                if(icon != null){
+                    action.accept(icon);
+                }
+            }
+        );
+    }
+    
+    /**
+     * Finds the NodeIcon under the mouse, using the graph's spatial index.
+     * If the mouse is over more than one icon, returns the closest one.
+     * 
+     * @param mouseX the x coordinate of the mouse on this component
+     * @param mouseY the y coordinate of the mouse on this component
+     * @return the NodeIcon the mouse is over, or null if it isn't over one
+     */
+    public final NodeIcon hoveredNodeIcon(int mouseX, int mouseY) {
         int x = translateClickX(mouseX);
         int y = translateClickY(mouseY);
-        return nodeIcons.values().stream().filter(icon -> {
-            return icon.isIn(x, y);
-        }).findFirst().orElse(null);
+        int r = NodeIcon.getSize() / 2;
+        
+        NodeIcon[] closest = new NodeIcon[1];
+        forEachIconIn(x - r, y - r, x + r, y + r, 0, (icon)->{
+            if(icon.isIn(x, y) && (closest[0] == null || icon.distanceSquaredTo(x, y) < closest[0].distanceSquaredTo(x, y))){
+                closest[0] = icon;
+            }
+        });
+        return closest[0];
+    }
+    
+    /**
+     * Draws the part of the image on screen, from the scaled copy of it.
+     * After panning out of the copy, the new copy covers the screen plus
+     * half of it again on each side, so panning a little further doesn't
+     * need to rebuild it.
+     * 
+     * @param g the graphics context to draw on, translated by the clip, but
+     * not scaled
+     * @param visible the part of this component to draw
+     */
+    private void drawScaledImage(Graphics g, Rectangle visible){
+        Rectangle imageBounds = new Rectangle(
+            0, 
+            0, 
+            (int)Math.ceil(image.getWidth() * zoom), 
+            (int)Math.ceil(image.getHeight() * zoom)
+        );
+        Rectangle onScreen = imageBounds.intersection(new Rectangle(
+            visible.x + clipX, 
+            visible.y + clipY, 
+            visible.width, 
+            visible.height
+        ));
+        if(onScreen.isEmpty()){
+            return;
+        }
+        
+        if(scaledBuff == null || scaledZoom != zoom || !scaledBounds.contains(onScreen)){
+            Rectangle around = new Rectangle(onScreen);
+            if(scaledBuff != null && scaledZoom == zoom){
+                // panning, so leave room to pan further
+                around.grow(Math.max(getWidth(), visible.width) / 2, Math.max(getHeight(), visible.height) / 2);
+                around = around.intersection(imageBounds);
+            } // else the zoom is likely to change again soon, so only scale what is on screen
+            
+            int transparency = image.getTransparency();
+            if(scaledBuff == null || scaledBuff.getWidth() != around.width || scaledBuff.getHeight() != around.height){
+                GraphicsConfiguration config = getGraphicsConfiguration();
+                if(config == null){
+                    // not on screen yet
+                    scaledBuff = new BufferedImage(
+                        around.width, 
+                        around.height, 
+                        (transparency == Transparency.OPAQUE) ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB
+                    );
+                } else {
+                    scaledBuff = config.createCompatibleImage(around.width, around.height, transparency);
+                }
+            }
+            
+            Graphics2D scaledG = scaledBuff.createGraphics();
+            if(transparency != Transparency.OPAQUE){
+                // clear what was left from last time
+                scaledG.setComposite(AlphaComposite.Clear);
+                scaledG.fillRect(0, 0, around.width, around.height);
+                scaledG.setComposite(AlphaComposite.SrcOver);
+            }
+            scaledG.translate(-around.x, -around.y);
+            scaledG.scale(zoom, zoom);
+            int x = (int)Math.floor(around.x / zoom);
+            int y = (int)Math.floor(around.y / zoom);
+            image.draw(
+                scaledG, 
+                zoom, 
+                new Rectangle(x, y, (int)Math.ceil((around.x + around.width) / zoom) - x, (int)Math.ceil((around.y + around.height) / zoom) - y), 
+                this::tilesDecoded
+            );
+            scaledG.dispose();
+            
+            scaledBounds = around;
+            scaledZoom = zoom;
+        }
+        
+        g.drawImage(scaledBuff, scaledBounds.x, scaledBounds.y, this);
+    }
+    
+    /**
+     * Called once tiles or the pyramid of the image which weren't ready when
+     * it was last drawn have been built, so the scaled copy is drawn again
+     * with them. Once the pyramid is built, how long it took is shown.
+     */
+    private void tilesDecoded(){
+        SwingUtilities.invokeLater(()->{
+            if(image != null && image.hasLevels() && !reportedLevels){
+                reportedLevels = true;
+                InputConsole.getInstance().writeMessage(image.getStats());
+            }
+            scaledBuff = null;
+            repaint();
+        });
     }
     
     @Override
     /**
      * Renders a clip of the image. Note that this means the displayed image
      * isn't the actual component
+     * 
+     * The image is drawn from a copy of it scaled to the current zoom, so
+     * panning doesn't scale the whole image again on every frame.
+     * 
+     * Only the icons and connections which can be seen are drawn: the part of
+     * the image on screen is worked out from the clip and zoom, and the icons
+     * in it are found with the graph's spatial index, so panning around a
+     * large graph only costs as much as what is on screen. Connections are
+     * drawn for every node within the longest connection's length of the
+     * screen, so lines crossing it are drawn even if both their ends are off
+     * screen.
      *
      * @param g
      */
     public void paintComponent(Graphics g) {
         super.paintComponent(g);
+        
+        Rectangle visible = g.getClipBounds();
+        if(visible == null){
+            visible = new Rectangle(0, 0, getWidth(), getHeight());
+        }
 
         g.translate(-clipX, -clipY);
         Graphics2D g2d = (Graphics2D) g.create();
         g2d.scale(zoom, zoom);
 
-        if(buff == null){
+        if(image == null){
             g2d.drawString("Import an image to show it here", getWidth() / 2, getHeight() / 2);
         } else {
-            g2d.drawImage(buff, 0, 0, this);
+            drawScaledImage(g, visible);
         }
+        
+        // the visible part of the image, padded so icons partly on screen are drawn
+        int pad = NodeIcon.getSize();
+        int x1 = (int)Math.floor((visible.x + clipX) / zoom) - pad;
+        int y1 = (int)Math.floor((visible.y + clipY) / zoom) - pad;
+        int x2 = (int)Math.ceil((visible.x + visible.width + clipX) / zoom) + pad;
+        int y2 = (int)Math.ceil((visible.y + visible.height + clipY) / zoom) + pad;
+        double longestConnection = (representedGraph == null) ? 0 : representedGraph.getLongestConnectionLength();
+        
         // draw icons above the connections
-        nodeIcons.values().stream().forEach((icon) -> icon.drawAllLinks(g2d));
-        nodeIcons.values().stream().forEach((icon) -> icon.draw(g2d));
+        connectionLayer.begin(x1, y1, x2, y2);
+        forEachIconIn(x1, y1, x2, y2, longestConnection, connectionLayer::addLinksOf);
+        connectionLayer.end(g2d);
+        forEachIconIn(x1, y1, x2, y2, 0, (icon) -> icon.draw(g2d));
     }
 
     @Override
@@ -1,8 +1,6 @@
 package nodemanager.gui.editPage.mapComponents;
 
 import java.awt.*;
-import java.util.Arrays;
-import nodemanager.model.Graph;
 import nodemanager.model.Node;
 
 /**
@@ -146,7 +144,18 @@ public class NodeIcon{
      * @return whether or not this was clicked on
      */
     public boolean isIn(int xc, int yc){
-        return Math.sqrt(Math.pow(x - xc, 2) + Math.pow(y - yc, 2)) <= size / 2;
+        return distanceSquaredTo(xc, yc) <= (size / 2) * (size / 2);
+    }
+    
+    /**
+     * @param xc the x-coordinate of a point on the map image
+     * @param yc the y-coordinate of a point on the map image
+     * @return the square of the distance between this' center and the given point
+     */
+    public long distanceSquaredTo(int xc, int yc){
+        long dx = x - xc;
+        long dy = y - yc;
+        return dx * dx + dy * dy;
     }
     
     /**
@@ -158,42 +167,30 @@ public class NodeIcon{
     }
     
     /**
-     * Draws this on a Graphics object
-     * @param g the graphics context to draw on
+     * @return whether or not this should draw its links, even if the map
+     * isn't drawing every connection
      */
-    public void draw(Graphics g){
-        g.setColor(color);
-        g.fillOval(x - size / 2, y - size / 2, size, size);
-        
-        g.setColor(Color.black);
-        g.drawString(Integer.toString(id), x, y);
+    public boolean isDrawingLinks(){
+        return drawLinks;
     }
     
-    
     /**
-     * Graphically display all the connections between this icon's Nodes and its adjacent Nodes
-     * @param g the Graphics context to draw on
+     * @return the color this and its links are drawn in
      */
-    public void drawAllLinks(Graphics g){
-        if(drawLinks || onImage.getDrawAllConnections()){
-            Graph graph = onImage.getGraph();
-            Arrays.stream(graph.getConnectionsById(id)).forEach((int id) -> drawLink(g, id));
-        }
+    public Color getColor(){
+        return color;
     }
     
-    
     /**
-     * Draw a link between this NodeIcon and another Node's icon
+     * Draws this on a Graphics object. Its links are drawn by the
+     * ConnectionLayer of the MapImage it is on.
+     * @param g the graphics context to draw on
      */
-    private void drawLink(Graphics g, int otherId){
-        Graphics2D g2d = (Graphics2D)g;
-        g2d.setColor(color);
-        g2d.setStroke(new BasicStroke(size / 2));
-        NodeIcon other = this.getHost().getIcon(otherId);
-        if(other == null){
-            System.err.printf("Couldn't find node icon for Node#%d in NodeIcon::drawLink", otherId);
-        } else {
-            g2d.drawLine(getX(), getY(), other.getX(), other.getY());
-        }
+    public void draw(Graphics g){
+        g.setColor(color);
+        g.fillOval(x - size / 2, y - size / 2, size, size);
+        
+        g.setColor(Color.black);
+        g.drawString(Integer.toString(id), x, y);
     }
 }
@@ -1,13 +1,16 @@
 package nodemanager.gui.exportData;
 
-import com.google.api.services.drive.model.File;
 import nodemanager.gui.InputConsole;
 import nodemanager.files.VersionLog;
 import nodemanager.files.WayfindingManifest;
+import nodemanager.files.ExportPipeline;
+import nodemanager.files.ExportProgress;
 import java.awt.*;
 import java.awt.event.ItemEvent;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import javax.swing.*;
 import nodemanager.NodeManager;
 import nodemanager.exceptions.NoPermissionException;
@@ -15,7 +18,6 @@ import nodemanager.exceptions.VersionLogAccessException;
 import nodemanager.gui.ApplicationBody;
 import nodemanager.io.*;
 import nodemanager.gui.ApplicationPage;
-import static nodemanager.io.GoogleDriveUploader.DOWNLOAD_URL_PREFIX;
 
 /**
  * Acts as the body of the export dialog whenever the user clicks the export to drive button.
@@ -28,16 +30,22 @@ public final class ExportBody extends ApplicationPage {
     private final JTextField name;
     private final JTextField folder;
     private final JComboBox<String> selectType;
+    private final JCheckBox includeShortcuts;
+    private final JCheckBox includeBinary;
     private final JButton exportButton;
     private final JTextArea msg;
     private final VersionLog v;
     private volatile boolean updating;
+    private Future<?> export; // the running export, or null. Only used on the Swing thread
+    private int exportCount;
     
     public ExportBody(ApplicationBody parent) {
         super(parent);
         updating = false;
+        export = null;
+        exportCount = 0;
         
-        setLayout(new GridLayout(4, 2));
+        setLayout(new GridLayout(6, 2));
         name = new JTextField("Enter the name for this export");
         
         folder = new JTextField(GoogleDriveUploader.DEFAULT_FOLDER_ID);
@@ -64,6 +72,9 @@ public final class ExportBody extends ApplicationPage {
             }
         });
         
+        includeShortcuts = new JCheckBox("Include route shortcuts (slower export, faster routing)");
+        includeBinary = new JCheckBox("Include binary graph (smaller, faster to load)");
+        
         msg = new JTextArea("please wait while I download the version log...");
         msg.setEditable(false);
         msg.setLineWrap(true);
@@ -79,6 +90,10 @@ public final class ExportBody extends ApplicationPage {
         add(folder);
         add(new JLabel("Select version"));
         add(selectType);
+        add(new JLabel("Preprocess routes"));
+        add(includeShortcuts);
+        add(new JLabel("Binary format"));
+        add(includeBinary);
         add(scroll);
         add(exportButton);
         
@@ -87,75 +102,167 @@ public final class ExportBody extends ApplicationPage {
     }
     
     private void tryDownloadVersionLog(){
-        try {
-            InputStream stream = GoogleDriveUploader.download(VersionLog.DEFAULT_VERSION_LOG_ID);
-            v.readGraphDataFromFile(null, stream);
-            for(String option : v.getTypes()){
-                selectType.addItem(option);
+        exportButton.setEnabled(false);
+        runInBackground(msg::setText, ()->{
+            try(InputStream stream = NodeManager.getInstance().getStorageBackend().download(VersionLog.DEFAULT_VERSION_LOG_ID)) {
+                v.readGraphDataFromFile(null, stream);
+                SwingUtilities.invokeLater(()->{
+                    for(String option : v.getTypes()){
+                        selectType.addItem(option);
+                    }
+                    selectType.addItem(NEW_TYPE);
+                    selectType.setSelectedIndex(0);
+                    msg.setText("Ready to export!");
+                    exportButton.setEnabled(true);
+                });
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                SwingUtilities.invokeLater(()->msg.setText("Couldn't download the version log: " + ex.getMessage()));
             }
-            selectType.addItem(NEW_TYPE);
-            selectType.setSelectedIndex(0);
-            msg.setText("Ready to export!");
-        } catch (IOException ex) {
-            ex.printStackTrace();
-        }
+        });
     }
     
     /**
-     * Called by the export button
+     * Called by the export button once the folder has been checked. Starts
+     * the export in the background, showing how far along each stage is.
      */
     private void upload(){
+        WayfindingManifest newMan = new WayfindingManifest(name.getText());
+        newMan.setIncludeContractionHierarchy(includeShortcuts.isSelected());
+        newMan.setIncludeBinaryGraph(includeBinary.isSelected());
+        ExportPipeline pipeline = new ExportPipeline(
+            newMan, 
+            NodeManager.getInstance().getStorageBackend(), 
+            folder.getText(), 
+            v, 
+            (String)selectType.getSelectedItem()
+        );
+        int exportNumber = ++exportCount;
+        
+        // only show progress for the export which is still running
+        Consumer<Runnable> ifCurrent = (update)->{
+            if(export != null && exportNumber == exportCount){
+                update.run();
+            }
+        };
+        pipeline.getProgress().addListener((status)->{
+            SwingUtilities.invokeLater(()->ifCurrent.accept(()->showProgress(pipeline.getProgress(), null)));
+        });
+        
         msg.setText("Beginning upload...");
-        revalidate();
-        repaint();
-        Thread t = new Thread(){
-            @Override
-            public void run(){
-                try {
-                    WayfindingManifest newMan = new WayfindingManifest(name.getText());
-                    File f = newMan.uploadToDrive(folder.getText(), NodeManager.getInstance().getGraph());
-                    msg.setText("Upload complete!");
-                    NodeManager.getInstance().getLog().clear();
-                    v.addExport((String)selectType.getSelectedItem(), DOWNLOAD_URL_PREFIX + f.getId());
-                    try {
-                        GoogleDriveUploader.revise(v);
-                        getApplicationBody().switchToPage(ApplicationBody.EDIT);
-                    } catch (VersionLogAccessException ex) {
-                        msg.setText(ex.getMessage());
-                        ex.printStackTrace();
-                    }
-                } catch (IOException ex) {
-                    msg.setText(ex.getMessage());
-                    ex.printStackTrace();
-                } catch (NoPermissionException ex) {
+        exportButton.setText("Cancel");
+        export = runInBackground((authMessage)->ifCurrent.accept(()->showProgress(pipeline.getProgress(), authMessage)), ()->{
+            try {
+                pipeline.run(NodeManager.getInstance().getGraph());
+                SwingUtilities.invokeLater(()->ifCurrent.accept(()->exportFinished(pipeline)));
+            } catch (InterruptedException ex) {
+                // cancelled, which the GUI already shows
+                warnIfAbandoned(pipeline);
+            } catch (IOException | NoPermissionException | VersionLogAccessException ex) {
+                ex.printStackTrace();
+                warnIfAbandoned(pipeline);
+                SwingUtilities.invokeLater(()->ifCurrent.accept(()->{
+                    stopExport();
                     msg.setText(ex.getMessage());
-                    ex.printStackTrace();
-                }
+                }));
             }
-        };
-        t.start();
+        });
+    }
+    
+    /**
+     * Tells the user about the folder a failed or cancelled export left
+     * behind, if any, so they can delete it themself
+     * 
+     * @param pipeline the export which stopped
+     */
+    private void warnIfAbandoned(ExportPipeline pipeline){
+        String folderId = pipeline.getAbandonedFolderId();
+        if(folderId != null){
+            SwingUtilities.invokeLater(()->InputConsole.getInstance().warn(String.format(
+                "Couldn't delete the folder of the unfinished export, %s, so it will need to be deleted by hand.", 
+                folderId
+            )));
+        }
+    }
+    
+    /**
+     * Lists each stage of the export which has started
+     * 
+     * @param progress the export's progress
+     * @param message something else to show, or null
+     */
+    private void showProgress(ExportProgress progress, String message){
+        StringBuilder text = new StringBuilder();
+        progress.getStatuses().forEach((status)->text.append(status).append("\n"));
+        if(message != null){
+            text.append(message);
+        }
+        msg.setText(text.toString());
+    }
+    
+    private void exportFinished(ExportPipeline pipeline){
+        stopExport();
+        WayfindingManifest newMan = pipeline.getManifest();
+        InputConsole.getInstance().writeMessage(String.format("Export complete! Skipped %d bytes which were unchanged since the last export.", newMan.getBytesSkipped()));
+        pipeline.getProgress().getStatuses().forEach((status)->{
+            InputConsole.getInstance().writeMessage(status.toString());
+        });
+        newMan.getUploadErrors().forEach((type, error)->{
+            InputConsole.getInstance().warn(String.format("Failed to upload %s: %s", type.getTitle(), error));
+        });
+        NodeManager.getInstance().getLog().clear();
+        getApplicationBody().switchToPage(ApplicationBody.EDIT);
+    }
+    
+    /**
+     * Cancels the running export. Any uploads in progress are interrupted,
+     * but files which have already been uploaded are left where they are.
+     */
+    private void cancelExport(){
+        export.cancel(true);
+        stopExport();
+        msg.setText("Export cancelled.");
+    }
+    
+    private void stopExport(){
+        export = null;
+        exportButton.setText("Export");
     }
     
     private JButton createExportButton(){
         JButton ret = new JButton("Export");
         
         ret.addActionListener((ae)->{
+            if(export != null){
+                cancelExport();
+                return;
+            }
             msg.setText("Verifying this upload will work...");
+            ret.setEnabled(false);
             revalidate();
             repaint();
             
-            try {
-                // Second, make sure the user is trying to upload to a folder
-                boolean isFolder = GoogleDriveUploader.isFolder(folder.getText());
-                if(isFolder){
-                    msg.setText("Looks like that's a folder! uploading...");
-                    upload(); //uploads here
-                } else {
-                    msg.setText("Nope, not a folder.");
+            String folderId = folder.getText();
+            runInBackground(msg::setText, ()->{
+                try {
+                    // Second, make sure the user is trying to upload to a folder
+                    boolean isFolder = NodeManager.getInstance().getStorageBackend().getMetadata(folderId).isFolder();
+                    SwingUtilities.invokeLater(()->{
+                        ret.setEnabled(true);
+                        if(isFolder){
+                            msg.setText("Looks like that's a folder! uploading...");
+                            upload(); //uploads here
+                        } else {
+                            msg.setText("Nope, not a folder.");
+                        }
+                    });
+                } catch (IOException ex) {
+                    SwingUtilities.invokeLater(()->{
+                        ret.setEnabled(true);
+                        msg.setText("Hmm... looks like that file doesn't exist. Could you double check to make sure you have access?");
+                    });
                 }
-            } catch (IOException ex) {
-                msg.setText("Hmm... looks like that file doesn't exist. Could you double check to make sure you have access?");
-            }
+            });
         });
         
         return ret;
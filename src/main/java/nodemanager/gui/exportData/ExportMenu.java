@@ -7,13 +7,21 @@ import java.awt.event.ActionEvent;
 import java.io.File;
 import javax.swing.*;
 import nodemanager.gui.FileSelector;
+import nodemanager.files.BinaryGraphFileHelper;
 import nodemanager.files.MapFileHelper;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import nodemanager.NodeManager;
 import nodemanager.gui.ApplicationBody;
+import nodemanager.gui.ApplicationPage;
 import nodemanager.gui.ApplicationMenuBar;
 import nodemanager.gui.InputConsole;
 import nodemanager.model.Graph;
+import nodemanager.model.Node;
+import nodemanager.routing.RouteMatrix;
+import nodemanager.routing.RoutingGraph;
 
 
 /**
@@ -32,6 +40,7 @@ public class ExportMenu extends JMenu{
         this.parent = parent;
         
         add(saveLocal());
+        add(saveRouteMatrix());
         //add(exportManifest());
     }
     
@@ -75,6 +84,13 @@ public class ExportMenu extends JMenu{
             ex.printStackTrace();
         }
         
+        BinaryGraphFileHelper binary = new BinaryGraphFileHelper(exportName);
+        try {
+            binary.writeToFileUnderParent(g, parentDir);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+        
         MapFileHelper map = new MapFileHelper(exportName);
         try {
             map.writeToFileUnderParent(g, parentDir);
@@ -85,6 +101,84 @@ public class ExportMenu extends JMenu{
         NodeManager.getInstance().getLog().clear();
     }
     
+    private JMenuItem saveRouteMatrix(){
+        return new FileSelector(
+            "Save a route matrix to this computer",
+            FileSelector.DIR,
+            (File f)->{
+                InputConsole.getInstance().askString(
+                    "Enter the labels of the entrances, separated by commas:", 
+                    (String entrances)->{
+                        saveRouteMatrix(entrances.split(","), new File(f.getAbsoluteFile() + File.separator + "RouteMatrix"));
+                    }
+                );
+            }
+        );
+    }
+    
+    /**
+     * Writes the distance from each entrance to every labeled node, both as
+     * a csv file, for people to read, and in RouteMatrix's binary form, for
+     * programs to load. The search runs in the background, as it can take a
+     * while on large graphs.
+     * 
+     * @param entranceLabels the labels of the entrance nodes
+     * @param saveTo the path to write the matrix to, without an extension
+     */
+    private void saveRouteMatrix(String[] entranceLabels, File saveTo){
+        Graph g = NodeManager.getInstance().getGraph();
+        ArrayList<String> rowNames = new ArrayList<>();
+        ArrayList<Integer> rowIds = new ArrayList<>();
+        Node n;
+        for(String label : entranceLabels){
+            n = g.getNodeByLabel(label.trim());
+            if(n == null){
+                InputConsole.getInstance().warn("Couldn't find a node with a label of " + label.trim());
+            } else {
+                rowNames.add(label.trim().toUpperCase());
+                rowIds.add(n.getId());
+            }
+        }
+        ArrayList<String> columnNames = new ArrayList<>();
+        ArrayList<Integer> columnIds = new ArrayList<>();
+        for(String label : g.getAllLabel()){
+            n = g.getNodeByLabel(label);
+            if(n != null){
+                columnNames.add(label);
+                columnIds.add(n.getId());
+            }
+        }
+        
+        // take the snapshot here, so the graph isn't read while it's being edited
+        RoutingGraph rg = RoutingGraph.fromGraph(g);
+        File csv = new File(saveTo.getPath() + ".csv");
+        File binary = new File(saveTo.getPath() + ".bin");
+        InputConsole.getInstance().writeMessage(String.format("Computing routes from %d entrances to %d labels...", rowIds.size(), columnIds.size()));
+        ApplicationPage.runInBackground(InputConsole.getInstance()::writeMessage, ()->{
+            long startTime = System.nanoTime();
+            try {
+                RouteMatrix matrix = RouteMatrix.compute(
+                    rg, 
+                    rowIds.stream().mapToInt(Integer::intValue).toArray(), 
+                    columnIds.stream().mapToInt(Integer::intValue).toArray()
+                );
+                try (OutputStream out = new FileOutputStream(csv)) {
+                    matrix.writeCsv(out, rowNames.toArray(new String[rowNames.size()]), columnNames.toArray(new String[columnNames.size()]));
+                }
+                try (OutputStream out = new FileOutputStream(binary)) {
+                    matrix.writeBinary(out);
+                }
+                String message = String.format("Saved route matrix to %s and %s in %d ms", csv.getAbsolutePath(), binary.getName(), (System.nanoTime() - startTime) / 1000000);
+                SwingUtilities.invokeLater(()->InputConsole.getInstance().writeMessage(message));
+            } catch (Exception ex) {
+                // compute wraps the exceptions thrown by its worker threads
+                ex.printStackTrace();
+                Throwable cause = (ex.getCause() == null) ? ex : ex.getCause();
+                SwingUtilities.invokeLater(()->InputConsole.getInstance().warn("Failed to save route matrix: " + cause));
+            }
+        });
+    }
+    
     private JMenuItem exportManifest(){
         JMenuItem j = new JMenuItem("Export To The Drive");
         j.addActionListener((ActionEvent e) -> {
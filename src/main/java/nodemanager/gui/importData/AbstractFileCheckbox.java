@@ -2,7 +2,6 @@ package nodemanager.gui.importData;
 
 import java.awt.GridLayout;
 import java.io.File;
-import java.io.FileInputStream;
 import javax.swing.*;
 import nodemanager.files.AbstractWayfindingFileHelper;
 import nodemanager.files.FileType;
@@ -54,6 +53,24 @@ public abstract class AbstractFileCheckbox extends JComponent{
         selectedFile = f;
     }
     
+    /**
+     * @return the file chosen for this, or null if none has been chosen yet
+     */
+    public final File getSelectedFile(){
+        return selectedFile;
+    }
+    
+    public final AbstractWayfindingFileHelper getFileHelper(){
+        return fileHelper;
+    }
+    
+    /**
+     * @return whether or not a file has been chosen, and the user wants it imported
+     */
+    public final boolean shouldImport(){
+        return selectedFile != null && include.isSelected();
+    }
+    
     public final boolean isSelected(){
         return include.isSelected();
     }
@@ -61,7 +78,7 @@ public abstract class AbstractFileCheckbox extends JComponent{
     public final void importIfSelected(Graph g){
         if(selectedFile != null && include.isSelected()){
             try {
-                this.fileHelper.readGraphDataFromFile(g, new FileInputStream(selectedFile));
+                this.fileHelper.readGraphDataFromFile(g, selectedFile);
             } catch (Exception ex) {
                 ex.printStackTrace();
             }
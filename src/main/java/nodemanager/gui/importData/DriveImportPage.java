@@ -9,19 +9,24 @@ import java.awt.GridLayout;
 import java.util.ArrayList;
 import javax.swing.*;
 import nodemanager.files.FileType;
+import nodemanager.files.ImportPipeline;
 import nodemanager.files.VersionLog;
 import nodemanager.files.WayfindingManifest;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 import nodemanager.NodeManager;
 import nodemanager.files.MapFileHelper;
 import nodemanager.files.NodeConnFileHelper;
 import nodemanager.files.NodeCoordFileHelper;
 import nodemanager.files.NodeLabelFileHelper;
 import nodemanager.gui.ApplicationBody;
-import nodemanager.io.GoogleDriveUploader;
 import nodemanager.gui.ApplicationPage;
 import nodemanager.model.Graph;
 
@@ -40,6 +45,8 @@ public class DriveImportPage extends ApplicationPage {
     private VersionLog v;
     
     private final HashMap<String, String> nameToUrl;
+    private int exportSelectorRequest; // only touched on the Swing thread
+    private Future<?> exportSelectorTask;
     
     private final JButton importButton;
     private final JTextArea msg;
@@ -86,30 +93,27 @@ public class DriveImportPage extends ApplicationPage {
         importButton = new JButton("Import");
         importButton.addActionListener((e)->{            
             msg.setText("Beginning download...");
-            WayfindingManifest man = new WayfindingManifest();
-            try {
-                InputStream s = GoogleDriveUploader.download(nameToUrl.get((String)exportSelector.getSelectedItem()));
-                // problem: doesn't have URLs yet
-                importManifest(man, NodeManager.getInstance().getGraph());
-                msg.setText("Done!");
-            } catch(Exception err){
-                msg.setText(err.getMessage());
-            }
+            importButton.setEnabled(false);
+            String manifestUrl = nameToUrl.get((String)exportSelector.getSelectedItem());
+            List<FileType> types = cbs.stream().filter((cb)->cb.isSelected()).map((cb)->cb.getFileType()).collect(Collectors.toList());
+            runInBackground(msg::setText, ()->{
+                importManifest(manifestUrl, types);
+            });
         });
         add(importButton);
         
         v = new VersionLog();
-        try {
-            InputStream stream  = GoogleDriveUploader.download(VersionLog.DEFAULT_VERSION_LOG_ID);
-            v.readGraphDataFromFile(null, stream);
-            importVersionLog(v);
-            msg.setText("Ready to import!");
-        } catch (IOException ex) {
-            ex.printStackTrace();
-            msg.setText("an error occurred while downloading the version log");
-        }
-        
-        updateExportSelector();
+        runInBackground(msg::setText, ()->{
+            try(InputStream stream  = NodeManager.getInstance().getStorageBackend().download(VersionLog.DEFAULT_VERSION_LOG_ID)) {
+                v.readGraphDataFromFile(null, stream);
+                SwingUtilities.invokeLater(()->{
+                    importVersionLog(v); // says when it's ready
+                });
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                SwingUtilities.invokeLater(()->msg.setText("an error occurred while downloading the version log"));
+            }
+        });
     }
     
     private void importVersionLog(VersionLog v){
@@ -123,41 +127,98 @@ public class DriveImportPage extends ApplicationPage {
         for(String type : types){
             wayfindingTypeSelector.addItem(type);
         }
-        wayfindingTypeSelector.setSelectedIndex(0);
+        if(types.length > 0){
+            wayfindingTypeSelector.setSelectedIndex(0);
+        }
         
         updateExportSelector();
     }
     
+    /**
+     * Looks up the names of the exports for the selected type in the
+     * background, listing them from newest to oldest as they arrive
+     */
     private void updateExportSelector(){
+        if(exportSelectorTask != null){
+            exportSelectorTask.cancel(true);
+        }
         exportSelector.removeAllItems();
         nameToUrl.clear();
         
         String selectedType = (String)wayfindingTypeSelector.getSelectedItem();
-        String[] exportUrls = v.getExportsFor(selectedType);
-        final LinkedList<String> exportNames = new LinkedList<>();
-        String fileName;
-        for(String url : exportUrls){
-            try {
-                fileName = GoogleDriveUploader.getFileName(url);
-                nameToUrl.put(fileName, url);
-                exportNames.addFirst(fileName); //orders from newest to oldest
-            } catch (IOException ex) {
-                ex.printStackTrace();
-            }
+        List<String> exportUrls = Arrays.asList(v.getExportsFor(selectedType));
+        Collections.reverse(exportUrls); //orders from newest to oldest
+        if(exportUrls.isEmpty()){
+            msg.setText("Ready to import!");
+            return;
+        }
+        HashMap<String, Integer> positions = new HashMap<>();
+        for(int i = 0; i < exportUrls.size(); i++){
+            positions.put(exportUrls.get(i), i);
         }
+        TreeSet<Integer> listed = new TreeSet<>(); // positions of the exports in the selector
         
-        exportNames.forEach((name)->{
-            exportSelector.addItem(name);
+        int request = ++exportSelectorRequest;
+        msg.setText(String.format("Looking up %d exports...", exportUrls.size()));
+        exportSelectorTask = runInBackground(msg::setText, ()->{
+            try {
+                List<String> failed = NodeManager.getInstance().getFileNameCache().resolve(
+                    NodeManager.getInstance().getStorageBackend(), 
+                    exportUrls, 
+                    (names)->SwingUtilities.invokeLater(()->{
+                        if(request != exportSelectorRequest){
+                            return; // a different type has been selected since
+                        }
+                        names.forEach((url, name)->{
+                            int position = positions.get(url);
+                            int index = listed.headSet(position).size();
+                            boolean showingNewest = exportSelector.getSelectedIndex() <= 0;
+                            listed.add(position);
+                            nameToUrl.put(name, url);
+                            exportSelector.insertItemAt(name, index);
+                            if(index == 0 && showingNewest){
+                                exportSelector.setSelectedIndex(0);
+                            }
+                        });
+                        revalidate();
+                        repaint();
+                    })
+                );
+                SwingUtilities.invokeLater(()->{
+                    if(request == exportSelectorRequest){
+                        msg.setText((failed.isEmpty()) ? "Ready to import!" : String.format("Couldn't find %d of the exports.", failed.size()));
+                    }
+                });
+            } catch (InterruptedException ex) {
+                // a different type was selected
+            }
         });
-        
-        revalidate();
-        repaint();
     }
     
-    private void importManifest(WayfindingManifest man, Graph g) {
-        cbs.stream().filter((cb)->cb.isSelected()).filter((cb)->man.containsUrlFor(cb.getFileType())).forEach((cb)->{
-            man.importFileFor(cb.getFileType(), g);
-        });
-        this.getApplicationBody().switchToPage(ApplicationBody.EDIT);
+    /**
+     * Downloads the given export. Call this off of the Swing thread.
+     */
+    private void importManifest(String manifestUrl, List<FileType> types) {
+        WayfindingManifest man = new WayfindingManifest();
+        man.setStorageBackend(NodeManager.getInstance().getStorageBackend());
+        try(InputStream s = NodeManager.getInstance().getStorageBackend().download(manifestUrl)) {
+            man.readUrls(s);
+            // downloads them all at once
+            ImportPipeline pipeline = man.stageFilesFor(types);
+            SwingUtilities.invokeLater(()->{
+                Graph g = NodeManager.getInstance().getGraph();
+                pipeline.applyTo(g);
+                List<String> errors = pipeline.getErrors();
+                msg.setText((errors.isEmpty()) ? "Done!" : String.join("\n", errors));
+                importButton.setEnabled(true);
+                this.getApplicationBody().switchToPage(ApplicationBody.EDIT);
+            });
+        } catch(Exception err){
+            err.printStackTrace();
+            SwingUtilities.invokeLater(()->{
+                msg.setText(err.getMessage());
+                importButton.setEnabled(true);
+            });
+        }
     }
 }
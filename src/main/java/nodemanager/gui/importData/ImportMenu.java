@@ -53,7 +53,11 @@ public class ImportMenu extends JMenu{
     private JMenuItem resizeMapMenu(){
         JMenuItem resize = new JMenuItem("Resize map image");
         resize.addActionListener((ActionEvent e) -> {
-            NodeManager.getInstance().setMode(new ModeRescaleUpperLeft());
+            if(NodeManager.getInstance().getMap().getImage() == null){
+                InputConsole.getInstance().warn("The map image is too large to resize");
+            } else {
+                NodeManager.getInstance().setMode(new ModeRescaleUpperLeft());
+            }
         });
         return resize;
     }
@@ -9,12 +9,15 @@ import javax.swing.*;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import nodemanager.NodeManager;
+import nodemanager.files.BinaryGraphFileHelper;
+import nodemanager.files.ImportPipeline;
 import nodemanager.files.MapFileHelper;
 import nodemanager.files.NodeConnFileHelper;
 import nodemanager.files.NodeCoordFileHelper;
 import nodemanager.files.NodeLabelFileHelper;
 import nodemanager.gui.ApplicationBody;
 import nodemanager.gui.FileSelector;
+import nodemanager.gui.InputConsole;
 import nodemanager.gui.ApplicationPage;
 import nodemanager.model.Graph;
 
@@ -62,6 +65,11 @@ public class LocalImportPage extends ApplicationPage implements ActionListener{
                 new NodeLabelFileHelper()
             )
         );
+        fileCheckBoxes.add(new FileCheckBox(
+                FileType.BINARY_GRAPH,
+                new BinaryGraphFileHelper()
+            )
+        );
         fileCheckBoxes.add(new FileCheckBox(
                 FileType.MAP_IMAGE,
                 new MapFileHelper()
@@ -70,18 +78,49 @@ public class LocalImportPage extends ApplicationPage implements ActionListener{
         fileCheckBoxes.forEach((box)->inner.add(box));
         JButton importAll = new JButton("Import the selected files");
         importAll.addActionListener((e)->{
-            Graph g = NodeManager.getInstance().getGraph();
-            for(FileCheckBox b : fileCheckBoxes){
-                //don't do lambda. Needs to do in order.
-                b.importIfSelected(g);
-            }
-            this.getApplicationBody().switchToPage(ApplicationBody.EDIT);
+            importSelected(importAll);
         });
         inner.add(importAll);
         
         this.add(inner);
     }
 
+    /**
+     * Parses the selected files at the same time on a separate thread, then
+     * merges them into the Graph on the Swing thread, in the order of the
+     * check boxes: nodes, connections, labels, then the map image.
+     */
+    private void importSelected(JButton importAll){
+        ImportPipeline pipeline = new ImportPipeline();
+        for(FileCheckBox b : fileCheckBoxes){
+            //order matters, as this is the order they are merged in
+            if(b.shouldImport()){
+                pipeline.add(b.getFileHelper(), b.getSelectedFile());
+            }
+        }
+        
+        importAll.setEnabled(false);
+        runInBackground(InputConsole.getInstance()::writeMessage, ()->{
+            try {
+                pipeline.stage();
+            } catch (InterruptedException ex) {
+                // some files may not have been parsed, so don't import any of them
+                SwingUtilities.invokeLater(()->{
+                    InputConsole.getInstance().warn("The import was interrupted, so nothing was imported");
+                    importAll.setEnabled(true);
+                });
+                return;
+            }
+            SwingUtilities.invokeLater(()->{
+                Graph g = NodeManager.getInstance().getGraph();
+                pipeline.applyTo(g);
+                pipeline.getErrors().forEach((error)->InputConsole.getInstance().warn(error));
+                importAll.setEnabled(true);
+                getApplicationBody().switchToPage(ApplicationBody.EDIT);
+            });
+        });
+    }
+
     @Override
     public void actionPerformed(ActionEvent ae) {
         new FileSelector(
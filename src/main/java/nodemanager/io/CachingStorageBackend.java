@@ -0,0 +1,88 @@
+package nodemanager.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import nodemanager.exceptions.NoPermissionException;
+
+/**
+ * Wraps another StorageBackend, keeping the files it downloads in a
+ * DownloadCache, so unchanged files are only downloaded once. Everything
+ * other than downloading goes straight to the wrapped backend.
+ * 
+ * Each download still asks the wrapped backend for the file's metadata, to
+ * check its version, which is a much smaller request than downloading it.
+ * The version isn't remembered between downloads, as some files, such as
+ * the version log, are changed in place. If the metadata can't be retrieved,
+ * such as when offline, the latest version of the file in the cache is used.
+ * 
+ * @author Matt Crow
+ */
+public class CachingStorageBackend implements StorageBackend {
+    private final StorageBackend backend;
+    private final DownloadCache cache;
+    
+    /**
+     * @param backend the backend to download from when a file isn't cached
+     * @param cache where to store downloaded files
+     */
+    public CachingStorageBackend(StorageBackend backend, DownloadCache cache){
+        this.backend = backend;
+        this.cache = cache;
+    }
+    
+    public final DownloadCache getCache(){
+        return cache;
+    }
+    
+    @Override
+    public InputStream download(String fileId) throws IOException {
+        String version;
+        try {
+            version = backend.getMetadata(fileId).getVersion();
+        } catch (IOException ex) {
+            version = cache.getLatestVersion(fileId);
+            if(version == null){
+                throw ex;
+            }
+        }
+        return cache.open(backend, fileId, version);
+    }
+    
+    @Override
+    public FileMetadata getMetadata(String fileId) throws IOException {
+        return backend.getMetadata(fileId);
+    }
+    
+    @Override
+    public Map<String, FileMetadata> getMetadata(List<String> fileIds) throws IOException {
+        return backend.getMetadata(fileIds);
+    }
+
+    @Override
+    public String createFolder(String parentId, String name) throws IOException {
+        return backend.createFolder(parentId, name);
+    }
+
+    @Override
+    public String upload(File local, String name, String mimeType, String folderId) throws IOException, NoPermissionException {
+        return backend.upload(local, name, mimeType, folderId);
+    }
+
+    @Override
+    public void update(String fileId, File local, String mimeType) throws IOException, NoPermissionException {
+        backend.update(fileId, local, mimeType);
+    }
+
+    @Override
+    public void publish(String fileId) throws IOException {
+        backend.publish(fileId);
+    }
+
+    @Override
+    public void delete(String fileId) throws IOException {
+        backend.delete(fileId);
+    }
+}
@@ -0,0 +1,103 @@
+package nodemanager.io;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * The CsvReader reads the comma separated files used by Wayfinding one row at
+ * a time, so only the current row is ever held in memory.
+ *
+ * Fields are trimmed, and blank lines are skipped. Since the files never
+ * quote their fields, neither does this.
+ *
+ * Unlike StreamReaderUtil.readStream used to, this reads until the end of the
+ * stream, rather than stopping as soon as no more input is ready, so slow
+ * network streams are not cut short.
+ *
+ * <hr>
+ * {@code
+ *  try(CsvReader csv = new CsvReader(in)){
+ *      csv.nextRow(); // skip header
+ *      String[] row;
+ *      while((row = csv.nextRow()) != null){
+ *          do stuff with row
+ *      }
+ *  }
+ * }
+ *
+ * @author Matt Crow
+ */
+public class CsvReader implements Closeable {
+    private final BufferedReader reader;
+    private String[] fields;
+    private int lineNumber;
+
+    public CsvReader(Reader r){
+        reader = (r instanceof BufferedReader) ? (BufferedReader)r : new BufferedReader(r);
+        fields = new String[4];
+        lineNumber = 0;
+    }
+
+    public CsvReader(InputStream in){
+        this(new InputStreamReader(in));
+    }
+
+    /**
+     * Reads the next non-blank row.
+     *
+     * @return the trimmed fields of the next row, or null if the end of the
+     * stream has been reached. The array is reused by the next call, so copy
+     * it if it needs to be kept.
+     * @throws IOException if the stream cannot be read
+     */
+    public final String[] nextRow() throws IOException {
+        String line;
+        do {
+            line = reader.readLine();
+            if(line == null){
+                return null;
+            }
+            lineNumber++;
+        } while(line.trim().isEmpty());
+        return split(line);
+    }
+
+    private String[] split(String line){
+        int numFields = 0;
+        int start = 0;
+        int comma;
+        do {
+            comma = line.indexOf(',', start);
+            if(numFields == fields.length){
+                fields = Arrays.copyOf(fields, numFields * 2);
+            }
+            fields[numFields] = line.substring(start, (comma == -1) ? line.length() : comma).trim();
+            numFields++;
+            start = comma + 1;
+        } while(comma != -1);
+
+        if(numFields != fields.length){
+            // only allocate a new array when the row width changes
+            fields = Arrays.copyOf(fields, numFields);
+        }
+        return fields;
+    }
+
+    /**
+     * @return the line number of the last row read, starting from 1.
+     * Useful for error messages.
+     */
+    public final int getLineNumber(){
+        return lineNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,424 @@
+package nodemanager.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import static nodemanager.io.StreamReaderUtil.NEWLINE;
+
+/**
+ * The DownloadCache keeps copies of downloaded files on this computer, so
+ * files which haven't changed since they were last downloaded don't need to
+ * be downloaded again.
+ *
+ * Each download is identified by the id of the file and its version, such as
+ * its MD5 checksum or when it was last modified, so a new version is never
+ * mistaken for an old one. Contents are stored under their SHA-256 hash, so
+ * several downloads of identical files, such as a map image which is the same
+ * in several exports, only take up space once. The first time each file is
+ * used in a run of the program, it is checked against its hash, and
+ * corrupted files are downloaded again. Files downloaded during this run are
+ * already known to be intact.
+ *
+ * Once the cache holds more than its maximum size, the least recently used
+ * downloads are deleted. The list of downloads is saved in the cache folder
+ * each time a file is downloaded, and when save is called, so the cache
+ * persists between runs of the program. Files in the folder which aren't on
+ * the list, such as ones Windows wouldn't let go of while they were open,
+ * are deleted the next time the cache is opened.
+ *
+ * @author Matt Crow
+ */
+public class DownloadCache {
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+    public static final File DEFAULT_DIRECTORY = new File(System.getProperty("user.home"), ".store/wayfindingNodeManagerCache");
+
+    private static final String INDEX_FILE_NAME = "index.csv";
+    private static final String INDEX_HEADER = "key (URL encoded), sha256, size"; // ids and versions may contain commas
+
+    private final File directory;
+    private final long maxBytes;
+    private final LinkedHashMap<String, String> hashes; // key to hash, least recently used first
+    private final HashMap<String, Long> sizes; // hash to size
+    private final HashMap<String, Integer> references; // hash to how many keys have it
+    private final HashSet<String> verified; // hashes of files known to be intact
+    private long totalBytes;
+    private boolean indexChanged; // whether the index has changed since it was last saved
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long corruptCount;
+
+    /**
+     * Opens the cache in the given folder, creating it if it doesn't exist.
+     *
+     * @param directory the folder to store downloads in
+     * @param maxBytes how large the downloads can get before some are deleted
+     */
+    public DownloadCache(File directory, long maxBytes){
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        hashes = new LinkedHashMap<>(16, 0.75f, true);
+        sizes = new HashMap<>();
+        references = new HashMap<>();
+        verified = new HashSet<>();
+        totalBytes = 0;
+        indexChanged = false;
+        hitCount = 0;
+        missCount = 0;
+        evictionCount = 0;
+        corruptCount = 0;
+
+        directory.mkdirs();
+        try {
+            readIndex();
+        } catch (IOException ex) {
+            // start over with an empty cache
+            ex.printStackTrace();
+            hashes.clear();
+            sizes.clear();
+            references.clear();
+            totalBytes = 0;
+        }
+        deleteUnlisted();
+    }
+
+    public DownloadCache(){
+        this(DEFAULT_DIRECTORY, DEFAULT_MAX_BYTES);
+    }
+
+    private static String keyFor(String fileId, String version){
+        return fileId + "@" + version;
+    }
+
+    private File fileFor(String hash){
+        return new File(directory, hash);
+    }
+
+    /**
+     * @return whether or not the given file is a download this might have
+     * stored in its folder
+     */
+    private static boolean isDownload(File f){
+        String name = f.getName();
+        return (name.length() == 64 && name.matches("[0-9a-f]+")) || (name.startsWith("download") && name.endsWith(".tmp"));
+    }
+
+    /**
+     * Opens a file, either from the cache, or by downloading it and adding
+     * it to the cache. The download happens outside of any locks, so several
+     * files can be downloaded at once.
+     *
+     * @param from where to download the file from, if it isn't cached
+     * @param fileId the id of the file
+     * @param version the version of the file, such as its MD5 checksum. If
+     * this is null, the file is downloaded without caching it.
+     * @return the contents of the file
+     * @throws IOException if the file isn't cached, and cannot be downloaded
+     */
+    public final InputStream open(StorageBackend from, String fileId, String version) throws IOException {
+        if(version == null){
+            return from.download(fileId);
+        }
+        String key = keyFor(fileId, version);
+        InputStream cached = openCached(key);
+        if(cached != null){
+            return cached;
+        }
+
+        // download it into a temporary file, hashing it along the way
+        File temp = File.createTempFile("download", ".tmp", directory);
+        MessageDigest digest = HashUtil.newSha256();
+        long size = 0;
+        try(InputStream in = from.download(fileId); OutputStream out = new FileOutputStream(temp)){
+            byte[] buffer = new byte[1 << 16];
+            int numRead;
+            while((numRead = in.read(buffer)) != -1){
+                digest.update(buffer, 0, numRead);
+                out.write(buffer, 0, numRead);
+                size += numRead;
+            }
+        } catch (IOException ex) {
+            temp.delete();
+            throw ex;
+        }
+        String hash = HashUtil.toHex(digest.digest());
+
+        synchronized(this){
+            missCount++;
+            if(hashes.containsKey(key)){
+                // another thread downloaded it at the same time
+                temp.delete();
+                hash = hashes.get(key);
+            } else {
+                if(verified.contains(hash)){
+                    // the same contents are already cached, and may be open
+                    temp.delete();
+                } else {
+                    // replaces any corrupt copy of the same contents
+                    Files.move(temp.toPath(), fileFor(hash).toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                if(!sizes.containsKey(hash)){
+                    sizes.put(hash, size);
+                    totalBytes += size;
+                }
+                hashes.put(key, hash);
+                references.merge(hash, 1, Integer::sum);
+                verified.add(hash);
+                evict();
+            }
+            writeIndex();
+            return new FileInputStream(fileFor(hash));
+        }
+    }
+
+    /**
+     * Opens a cached file. The file is opened while locked, so it can't be
+     * evicted before it is open. If it hasn't been used yet during this run,
+     * the open file is then checked against its hash, outside of the lock.
+     *
+     * @param key the file's key
+     * @return the contents of the file, or null if it isn't cached, or is
+     * corrupt, in which case it is removed from the cache
+     */
+    private InputStream openCached(String key) throws IOException {
+        String hash;
+        FileInputStream in;
+        synchronized(this){
+            hash = hashes.get(key);
+            if(hash == null){
+                return null;
+            }
+            try {
+                in = new FileInputStream(fileFor(hash));
+            } catch (FileNotFoundException ex) {
+                // deleted since it was cached
+                corruptCount++;
+                remove(key);
+                return null;
+            }
+            if(verified.contains(hash)){
+                hitCount++;
+                indexChanged = true; // the order changed
+                return in;
+            }
+        }
+
+        boolean intact;
+        try {
+            intact = hash.equals(HashUtil.sha256Of(in.getChannel()));
+        } catch (IOException ex) {
+            intact = false;
+        }
+        synchronized(this){
+            if(intact){
+                if(sizes.containsKey(hash)){
+                    verified.add(hash);
+                }
+                hitCount++;
+                indexChanged = true;
+                return in;
+            }
+            corruptCount++;
+            if(hash.equals(hashes.get(key))){
+                remove(key);
+            }
+        }
+        in.close();
+        return null;
+    }
+
+    /**
+     * @param fileId the id of a file
+     * @return the version of the file which was most recently downloaded or
+     * read from this, or null if none of its versions are cached
+     */
+    public final synchronized String getLatestVersion(String fileId){
+        String prefix = fileId + "@";
+        String latest = null;
+        // least recently used first, so the last match is the latest
+        for(String key : hashes.keySet()){
+            if(key.startsWith(prefix)){
+                latest = key.substring(prefix.length());
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Deletes the least recently used downloads until the cache fits in its
+     * maximum size. Always keeps the most recent download, even if it is too
+     * large on its own.
+     */
+    private void evict(){
+        Iterator<Map.Entry<String, String>> it = hashes.entrySet().iterator();
+        while(totalBytes > maxBytes && hashes.size() > 1 && it.hasNext()){
+            String hash = it.next().getValue();
+            it.remove();
+            release(hash);
+            evictionCount++;
+            indexChanged = true;
+        }
+    }
+
+    private void remove(String key){
+        String hash = hashes.remove(key);
+        if(hash != null){
+            release(hash);
+            indexChanged = true;
+        }
+    }
+
+    /**
+     * Removes one reference to the file with the given hash, deleting it if
+     * nothing else refers to it.
+     */
+    private void release(String hash){
+        int refs = references.merge(hash, -1, Integer::sum);
+        if(refs <= 0){
+            references.remove(hash);
+            verified.remove(hash);
+            totalBytes -= sizes.remove(hash);
+            fileFor(hash).delete(); // if it's open on Windows, this fails, so it's deleted next time
+        }
+    }
+
+    /*
+    Index
+    */
+
+    private void readIndex() throws IOException {
+        File index = new File(directory, INDEX_FILE_NAME);
+        if(!index.isFile()){
+            return;
+        }
+        try(CsvReader csv = new CsvReader(new FileInputStream(index))){
+            String[] row = csv.nextRow();
+            if(row == null || !INDEX_HEADER.equals(String.join(", ", row))){
+                // written by an older version of the program, so start over
+                return;
+            }
+            File f;
+            while((row = csv.nextRow()) != null){
+                if(row.length < 3){
+                    continue; // a damaged line, so download that file again
+                }
+                f = fileFor(row[1]);
+                // skip anything deleted since the index was written
+                if(f.isFile() && f.length() == Long.parseLong(row[2])){
+                    hashes.put(URLDecoder.decode(row[0], "UTF-8"), row[1]);
+                    if(!sizes.containsKey(row[1])){
+                        sizes.put(row[1], f.length());
+                        totalBytes += f.length();
+                    }
+                    references.merge(row[1], 1, Integer::sum);
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("Corrupt cache index", ex);
+        }
+    }
+
+    /**
+     * Deletes downloads in the folder which aren't in the index
+     */
+    private void deleteUnlisted(){
+        File[] files = directory.listFiles();
+        if(files == null){
+            return;
+        }
+        for(File f : files){
+            if(isDownload(f) && !sizes.containsKey(f.getName())){
+                f.delete();
+            }
+        }
+    }
+
+    /**
+     * Saves the order the downloads were last used in, if it has changed
+     * since it was last saved. Using a cached file doesn't save the index
+     * by itself, so call this before the program closes.
+     */
+    public final synchronized void save(){
+        if(indexChanged){
+            writeIndex();
+        }
+    }
+
+    private void writeIndex(){
+        File temp = new File(directory, INDEX_FILE_NAME + ".tmp");
+        try {
+            try(OutputStream out = new FileOutputStream(temp); RowWriter writer = new RowWriter(out)){
+                writer.write(INDEX_HEADER);
+                for(Map.Entry<String, String> entry : hashes.entrySet()){
+                    writer
+                        .write(NEWLINE)
+                        .write(URLEncoder.encode(entry.getKey(), "UTF-8"))
+                        .write(", ")
+                        .write(entry.getValue())
+                        .write(", ")
+                        .write(Long.toString(sizes.get(entry.getValue())));
+                }
+            }
+            Files.move(temp.toPath(), new File(directory, INDEX_FILE_NAME).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            indexChanged = false;
+        } catch (IOException ex) {
+            // the cache still works, it just won't remember this next time
+            ex.printStackTrace();
+        }
+    }
+
+    /*
+    Counters
+    */
+
+    /**
+     * @return how many files have been read from the cache
+     */
+    public final synchronized long getHitCount(){
+        return hitCount;
+    }
+
+    /**
+     * @return how many files have been downloaded, including corrupt ones
+     * which were downloaded again
+     */
+    public final synchronized long getMissCount(){
+        return missCount;
+    }
+
+    /**
+     * @return how many downloads have been deleted to make room for others
+     */
+    public final synchronized long getEvictionCount(){
+        return evictionCount;
+    }
+
+    /**
+     * @return how many cached files failed the integrity check
+     */
+    public final synchronized long getCorruptCount(){
+        return corruptCount;
+    }
+
+    /**
+     * @return how many bytes of files are stored in the cache
+     */
+    public final synchronized long getSize(){
+        return totalBytes;
+    }
+}
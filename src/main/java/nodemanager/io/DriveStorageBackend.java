@@ -0,0 +1,77 @@
+package nodemanager.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import nodemanager.exceptions.NoPermissionException;
+
+/**
+ * Stores files on the Google Drive, through the GoogleDriveUploader.
+ * 
+ * @author Matt Crow
+ */
+public class DriveStorageBackend implements StorageBackend {
+    private static final String FOLDER_MIME_TYPE = "application/vnd.google-apps.folder";
+    
+    @Override
+    public InputStream download(String fileId) throws IOException {
+        return GoogleDriveUploader.download(fileId);
+    }
+    
+    /**
+     * The version of a Drive file is its MD5 checksum, or when it was last
+     * modified for files which don't have one, such as Google Docs.
+     */
+    @Override
+    public FileMetadata getMetadata(String fileId) throws IOException {
+        return metadataOf(GoogleDriveUploader.getFile(fileId));
+    }
+    
+    /**
+     * Looks up the files in batch requests, rather than one at a time
+     */
+    @Override
+    public Map<String, FileMetadata> getMetadata(List<String> fileIds) throws IOException {
+        LinkedHashMap<String, FileMetadata> ret = new LinkedHashMap<>();
+        GoogleDriveUploader.getFiles(fileIds).forEach((id, f)->ret.put(id, metadataOf(f)));
+        return ret;
+    }
+    
+    private static FileMetadata metadataOf(com.google.api.services.drive.model.File f){
+        String version = null;
+        if(f.getMd5Checksum() != null){
+            version = f.getMd5Checksum();
+        } else if(f.getModifiedTime() != null){
+            version = f.getModifiedTime().toStringRfc3339();
+        }
+        return new FileMetadata(f.getId(), f.getName(), FOLDER_MIME_TYPE.equals(f.getMimeType()), version);
+    }
+    
+    @Override
+    public String createFolder(String parentId, String name) throws IOException {
+        return GoogleDriveUploader.createSubfolder(parentId, name).getId();
+    }
+
+    @Override
+    public String upload(File local, String name, String mimeType, String folderId) throws IOException, NoPermissionException {
+        return GoogleDriveUploader.uploadLocalFile(local, name, mimeType, folderId).getId();
+    }
+
+    @Override
+    public void update(String fileId, File local, String mimeType) throws IOException, NoPermissionException {
+        GoogleDriveUploader.updateFile(fileId, local, mimeType);
+    }
+
+    @Override
+    public void publish(String fileId) throws IOException {
+        GoogleDriveUploader.publishToWeb(fileId);
+    }
+
+    @Override
+    public void delete(String fileId) throws IOException {
+        GoogleDriveUploader.delete(fileId);
+    }
+}
@@ -0,0 +1,49 @@
+package nodemanager.io;
+
+/**
+ * Information about a file or folder in a StorageBackend.
+ * 
+ * @author Matt Crow
+ */
+public class FileMetadata {
+    private final String id;
+    private final String name;
+    private final boolean isFolder;
+    private final String version;
+    
+    /**
+     * @param id the id of the file
+     * @param name the name of the file, including its extension
+     * @param isFolder whether or not the file is a folder
+     * @param version something which changes whenever the contents of the
+     * file do, such as its checksum, or null if there is no way to tell
+     */
+    public FileMetadata(String id, String name, boolean isFolder, String version){
+        this.id = id;
+        this.name = name;
+        this.isFolder = isFolder;
+        this.version = version;
+    }
+    
+    public final String getId(){
+        return id;
+    }
+    
+    public final String getName(){
+        return name;
+    }
+    
+    public final boolean isFolder(){
+        return isFolder;
+    }
+    
+    /**
+     * Used to tell if a cached download is out of date.
+     * 
+     * @return something which changes whenever the contents of the file do,
+     * or null if there is no way to tell
+     */
+    public final String getVersion(){
+        return version;
+    }
+}
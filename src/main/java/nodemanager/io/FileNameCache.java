@@ -0,0 +1,252 @@
+package nodemanager.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import static nodemanager.io.StreamReaderUtil.NEWLINE;
+
+/**
+ * The FileNameCache remembers the names of stored files, so listing every
+ * export in the version log doesn't need to ask the storage for each name
+ * every time.
+ *
+ * Names which aren't cached yet are looked up in batches, several batches at
+ * a time, and handed back as each batch arrives, so a list of names can be
+ * filled in bit by bit rather than all at the end. Only the most recently
+ * used names are kept, and they are saved alongside the DownloadCache, so
+ * they persist between runs of the program.
+ *
+ * Exports are never renamed by this program, so a cached name is assumed to
+ * still be correct. The worst a stale name can do is mislabel an export in a
+ * list.
+ *
+ * @author Matt Crow
+ */
+public class FileNameCache {
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+    public static final File DEFAULT_FILE = new File(DownloadCache.DEFAULT_DIRECTORY, "names.csv");
+
+    /*
+    How many names to look up per request, and how many requests can run at
+    once. The Drive allows up to 100 requests per batch, but smaller batches
+    let the first names show up sooner.
+    */
+    private static final int BATCH_SIZE = 25;
+    private static final int MAX_CONCURRENT_BATCHES = 4;
+
+    private static final String HEADER = "id, name"; // both are URL encoded, as they may contain commas
+
+    private final File file;
+    private final int maxEntries;
+    private final LinkedHashMap<String, String> names; // id to name, least recently used first
+
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * Opens the cache saved in the given file, if it exists.
+     *
+     * @param file where to save the names
+     * @param maxEntries how many names to remember
+     */
+    public FileNameCache(File file, int maxEntries){
+        this.file = file;
+        this.maxEntries = maxEntries;
+        names = new LinkedHashMap<>(16, 0.75f, true);
+        hitCount = 0;
+        missCount = 0;
+
+        try {
+            read();
+        } catch (IOException ex) {
+            // start over with an empty cache
+            ex.printStackTrace();
+            names.clear();
+        }
+    }
+
+    public FileNameCache(){
+        this(DEFAULT_FILE, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Ids may be URLs, as that is how the VersionLog stores them, so only
+     * the part after "id=" is used, so both share a cache entry.
+     */
+    private static String keyFor(String fileId){
+        return (fileId.contains("id=")) ? fileId.split("id=")[1] : fileId;
+    }
+
+    /**
+     * Looks up the names of the given files. Cached names are handed back
+     * right away, then the rest are looked up from the given storage, and
+     * handed back as each batch of them arrives.
+     *
+     * This can take a while, so don't call it from the Swing thread.
+     *
+     * @param from where to look up names which aren't cached
+     * @param fileIds the ids of the files to name
+     * @param onNames called on this thread with the names of some of the
+     * files, by the id given for them, each time some are found
+     * @return the ids of any files whose names couldn't be found
+     * @throws InterruptedException if interrupted while waiting for the
+     * lookups, which are cancelled
+     */
+    public final List<String> resolve(StorageBackend from, List<String> fileIds, Consumer<Map<String, String>> onNames) throws InterruptedException {
+        LinkedHashMap<String, String> cached = new LinkedHashMap<>();
+        ArrayList<String> missing = new ArrayList<>();
+        synchronized(this){
+            String name;
+            for(String id : fileIds){
+                name = names.get(keyFor(id));
+                if(name == null){
+                    missing.add(id);
+                } else {
+                    cached.put(id, name);
+                }
+            }
+            hitCount += cached.size();
+            missCount += missing.size();
+        }
+        if(!cached.isEmpty()){
+            onNames.accept(cached);
+        }
+        if(missing.isEmpty()){
+            return Collections.emptyList();
+        }
+
+        ArrayList<List<String>> batches = new ArrayList<>();
+        for(int i = 0; i < missing.size(); i += BATCH_SIZE){
+            batches.add(missing.subList(i, Math.min(i + BATCH_SIZE, missing.size())));
+        }
+
+        ArrayList<String> failed = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(MAX_CONCURRENT_BATCHES, batches.size()));
+        try {
+            CompletionService<Map<String, FileMetadata>> lookups = new ExecutorCompletionService<>(pool);
+            HashMap<Future<Map<String, FileMetadata>>, List<String>> batchOf = new HashMap<>();
+            for(List<String> batch : batches){
+                batchOf.put(lookups.submit(()->from.getMetadata(batch)), batch);
+            }
+
+            // hand back each batch as soon as it's done, in any order
+            for(int i = 0; i < batches.size(); i++){
+                Future<Map<String, FileMetadata>> done = lookups.take();
+                LinkedHashMap<String, String> found = new LinkedHashMap<>();
+                try {
+                    done.get().forEach((id, metadata)->found.put(id, metadata.getName()));
+                } catch (ExecutionException ex) {
+                    ex.getCause().printStackTrace();
+                }
+                for(String id : batchOf.get(done)){
+                    if(!found.containsKey(id)){
+                        failed.add(id);
+                    }
+                }
+                if(!found.isEmpty()){
+                    synchronized(this){
+                        found.forEach((id, name)->names.put(keyFor(id), name));
+                        evict();
+                    }
+                    onNames.accept(found);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+            save();
+        }
+        return failed;
+    }
+
+    private void evict(){
+        while(names.size() > maxEntries){
+            names.remove(names.keySet().iterator().next());
+        }
+    }
+
+    /*
+    Saving
+    */
+
+    private void read() throws IOException {
+        if(!file.isFile()){
+            return;
+        }
+        try(CsvReader csv = new CsvReader(new FileInputStream(file))){
+            String[] row = csv.nextRow(); //skip header
+            while((row = csv.nextRow()) != null){
+                if(row.length >= 2){
+                    names.put(URLDecoder.decode(row[0], "UTF-8"), URLDecoder.decode(row[1], "UTF-8"));
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("Corrupt name cache", ex);
+        }
+        evict();
+    }
+
+    private synchronized void save(){
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            file.getAbsoluteFile().getParentFile().mkdirs();
+            try(OutputStream out = new FileOutputStream(temp); RowWriter writer = new RowWriter(out)){
+                writer.write(HEADER);
+                for(Map.Entry<String, String> entry : names.entrySet()){
+                    writer
+                        .write(NEWLINE)
+                        .write(URLEncoder.encode(entry.getKey(), "UTF-8"))
+                        .write(", ")
+                        .write(URLEncoder.encode(entry.getValue(), "UTF-8"));
+                }
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            // the cache still works, it just won't remember this next time
+            ex.printStackTrace();
+        }
+    }
+
+    /*
+    Counters
+    */
+
+    /**
+     * @return how many names have been found in the cache
+     */
+    public final synchronized long getHitCount(){
+        return hitCount;
+    }
+
+    /**
+     * @return how many names have had to be looked up
+     */
+    public final synchronized long getMissCount(){
+        return missCount;
+    }
+
+    /**
+     * @return how many names are cached
+     */
+    public final synchronized int getSize(){
+        return names.size();
+    }
+}
@@ -1,15 +1,19 @@
 package nodemanager.io;
 
-import nodemanager.files.VersionLog;
 import nodemanager.files.AbstractWayfindingFileHelper;
 import com.google.api.client.auth.oauth2.Credential;
 import com.google.api.client.extensions.java6.auth.oauth2.AuthorizationCodeInstalledApp;
 import com.google.api.client.extensions.jetty.auth.oauth2.LocalServerReceiver;
 import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeFlow;
 import com.google.api.client.googleapis.auth.oauth2.GoogleClientSecrets;
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
 import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
+import com.google.api.client.googleapis.json.GoogleJsonError;
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
 import com.google.api.client.http.FileContent;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpHeaders;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.api.client.util.store.FileDataStoreFactory;
@@ -23,9 +27,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 import nodemanager.NodeManager;
 import nodemanager.exceptions.NoPermissionException;
-import nodemanager.exceptions.VersionLogAccessException;
 import nodemanager.model.Graph;
 
 /**
@@ -33,45 +39,105 @@ import nodemanager.model.Graph;
  * We will replace this with database stuff once
  * we actually get one.
  * 
+ * Nothing connects to the drive until the first time a file is uploaded,
+ * downloaded, or looked up, at which point the user is asked to sign in.
+ * Since that waits on the network and the user's web browser, never call
+ * these methods from the Swing thread. Listen for AuthStates to show the
+ * user how signing in is going.
+ * 
  * @author Matt Crow
  */
 public class GoogleDriveUploader{
     public static final String DOWNLOAD_URL_PREFIX = "https://drive.google.com/uc?export=download&id=";
     public static final String DEFAULT_FOLDER_ID = "1-HZrReHNM6szXfmZ1rNoG2HXf2ejal1o"; //the 'Matt, Implement These' folder
     
-    //used to make it easier to reference files
-    private static final HashMap<String, String> ID_TO_NAME = new HashMap<>();
+    /*
+    Batch requests must go to the Drive's own batch endpoint, as the global
+    one older versions of the client library default to has been shut down.
+    */
+    private static final String BATCH_URL = "https://www.googleapis.com/batch/drive/v3";
+    private static final int MAX_BATCH_SIZE = 100;
+    private static final String FILE_FIELDS = "id, name, mimeType, md5Checksum, modifiedTime";
+    
+    private static final java.io.File STORE_DIRECTORY = new java.io.File(
+        System.getProperty("user.home"), 
+        ".store/wayfindingNodeManager"
+    );
     
     private static JacksonFactory JSON;
     private static HttpTransport HTTP;
     private static FileDataStoreFactory STORE;
     private static Drive drive; //note that this is not a given drive, it is the drive service provider
     
-    
-    static{
-        JSON = JacksonFactory.getDefaultInstance();
-        try {
-            HTTP = GoogleNetHttpTransport.newTrustedTransport();
-        } catch (Exception ex){
-            ex.printStackTrace();
-        }
+    /**
+     * How signing in to the drive is going
+     */
+    public static enum AuthState {
+        NOT_SIGNED_IN("Not signed in to the Google Drive yet."),
+        SIGNING_IN("Signing in to the Google Drive. Please check your web browser..."),
+        SIGNED_IN("Signed in to the Google Drive."),
+        FAILED("Couldn't sign in to the Google Drive. Check your internet connection and try again.");
+        
+        private final String message;
         
-        try {
-            STORE = new FileDataStoreFactory(
-                    new java.io.File(
-                            System.getProperty("user.home"), 
-                            ".store/wayfindingNodeManager"
-                    )
-            );
-        } catch (IOException ex) {
-            ex.printStackTrace();
+        private AuthState(String message){
+            this.message = message;
         }
         
-        try {
-            drive = new Drive.Builder(HTTP, JSON, authorize()).build();
-        } catch(Exception ex){
-            ex.printStackTrace();
+        public final String getMessage(){
+            return message;
+        }
+    }
+    
+    private static volatile AuthState authState = AuthState.NOT_SIGNED_IN;
+    private static final List<Consumer<AuthState>> AUTH_LISTENERS = new CopyOnWriteArrayList<>();
+    
+    /**
+     * @return how signing in to the drive is going
+     */
+    public static final AuthState getAuthState(){
+        return authState;
+    }
+    
+    /**
+     * @param listener notified whenever the AuthState changes. Note that it
+     * is not called on the Swing thread.
+     */
+    public static final void addAuthStateListener(Consumer<AuthState> listener){
+        AUTH_LISTENERS.add(listener);
+    }
+    
+    public static final void removeAuthStateListener(Consumer<AuthState> listener){
+        AUTH_LISTENERS.remove(listener);
+    }
+    
+    private static void setAuthState(AuthState state){
+        authState = state;
+        AUTH_LISTENERS.forEach((listener)->listener.accept(state));
+    }
+    
+    /**
+     * Connects to the drive and signs in, if that hasn't been done yet.
+     * Other threads wait until this is done, so the user only signs in once.
+     * 
+     * @return the drive service provider
+     * @throws IOException if this fails to sign in
+     */
+    private static synchronized Drive getDrive() throws IOException{
+        if(drive == null){
+            setAuthState(AuthState.SIGNING_IN);
+            try {
+                JSON = JacksonFactory.getDefaultInstance();
+                HTTP = GoogleNetHttpTransport.newTrustedTransport();
+                STORE = new FileDataStoreFactory(STORE_DIRECTORY);
+                drive = new Drive.Builder(HTTP, JSON, authorize()).build();
+            } catch(Exception ex){
+                setAuthState(AuthState.FAILED);
+                throw new IOException(AuthState.FAILED.getMessage(), ex);
+            }
+            setAuthState(AuthState.SIGNED_IN);
         }
+        return drive;
     }
     
     /**
@@ -83,8 +149,7 @@ public class GoogleDriveUploader{
         if(id.contains("id=")){
             id = id.split("id=")[1];
         }
-        //ID_TO_NAME.put(id, drive.files().get(id).execute().getName());
-        return drive.files().get(id).executeMediaAsInputStream();
+        return getDrive().files().get(id).executeMediaAsInputStream();
     }
     
     /**
@@ -94,26 +159,39 @@ public class GoogleDriveUploader{
      * @return the newly uploaded file
      */
     public static File uploadFile(Graph g, AbstractWayfindingFileHelper f, String folderId) throws IOException, NoPermissionException{
+        java.io.File localFileToUpload = f.writeToTempFile(g);
+        File googleFile = uploadLocalFile(localFileToUpload, f.getFileName(), f.getType().getMimeType(), folderId);
+        publishToWeb(googleFile.getId());
+        return googleFile;
+    }
+    
+    /**
+     * Synchronously uploads a file on this computer to the google drive,
+     * without publishing it.
+     * 
+     * @param localFileToUpload the file to upload
+     * @param name what to name the file on the drive
+     * @param mimeType the MIME type of the file
+     * @param folderId the id of the folder to upload to
+     * @return the newly uploaded file
+     * @throws IOException if the upload fails
+     * @throws NoPermissionException if the user cannot access the folder
+     */
+    public static File uploadLocalFile(java.io.File localFileToUpload, String name, String mimeType, String folderId) throws IOException, NoPermissionException{
         File googleFile = null;
         try{
-            java.io.File localFileToUpload = f.writeToTempFile(g);
-
             googleFile = new File();
-            FileContent content = new FileContent(f.getType().getMimeType(), localFileToUpload);
+            FileContent content = new FileContent(mimeType, localFileToUpload);
 
             ArrayList<String> parents = new ArrayList<>();
             parents.add(folderId);
             googleFile.setParents(parents);
 
-            Drive.Files.Create insert = drive.files().create(googleFile, content);
+            Drive.Files.Create insert = getDrive().files().create(googleFile, content);
 
-            googleFile.setName(f.getFileName());
+            googleFile.setName(name);
 
-            //since all of this google stuff is blocking code (O...K...)
-            //it will execute in whatever order we put it in.
-            //no need to worry about them executing out of order
             googleFile = insert.execute();
-            publishToWeb(googleFile);
         } catch(GoogleJsonResponseException gex){
             int code = gex.getDetails().getCode();
             if(code == 403 || code == 404){
@@ -126,24 +204,30 @@ public class GoogleDriveUploader{
         return googleFile;
     }
     
-    public static final File revise(VersionLog vl) throws IOException, VersionLogAccessException{
-        File ret = null;
+    /**
+     * Synchronously replaces the contents of a file on the google drive
+     * 
+     * @param id either the id of a file, or a url to that file
+     * @param localFileToUpload the file on this computer to replace it with
+     * @param mimeType the MIME type of the file
+     * @return the updated file
+     * @throws IOException if the upload fails
+     * @throws NoPermissionException if the user cannot edit the file
+     */
+    public static final File updateFile(String id, java.io.File localFileToUpload, String mimeType) throws IOException, NoPermissionException{
+        if(id.contains("id=")){
+            id = id.split("id=")[1];
+        }
         try{
-            ret = drive.files().get(VersionLog.DEFAULT_VERSION_LOG_ID).execute();
-            java.io.File localFileToUpdate = vl.writeToTempFile(null);
-            drive.files().update(ret.getId(), new File(), new FileContent("text/csv", localFileToUpdate)).execute();
-        } catch(IOException e){
-            if(e instanceof GoogleJsonResponseException){
-                int code = ((GoogleJsonResponseException) e).getDetails().getCode();
-                if(code == 403 || code == 404){
-                    throw new VersionLogAccessException();
-                } else {
-                    throw e;
-                }
+            return getDrive().files().update(id, new File(), new FileContent(mimeType, localFileToUpload)).execute();
+        } catch(GoogleJsonResponseException gex){
+            int code = gex.getDetails().getCode();
+            if(code == 403 || code == 404){
+                throw new NoPermissionException(id);
+            } else {
+                throw gex;
             }
         }
-
-        return ret;
     }
     
     /**
@@ -159,25 +243,70 @@ public class GoogleDriveUploader{
         ArrayList<String> parents = new ArrayList<>();
         parents.add(id);
         folder.setParents(parents);
-        folder = drive.files().create(folder).setFields("id").execute();
+        folder = getDrive().files().create(folder).setFields("id").execute();
         return folder;
     }
     
-    private static void publishToWeb(File f) throws IOException{
+    /**
+     * Lets anyone download the file with the given id
+     * @param fileId the id of the file to publish
+     * @throws IOException if this fails to update the file's permissions
+     */
+    public static void publishToWeb(String fileId) throws IOException{
         Permission p = new Permission();
         p.setType("anyone");
         p.setAllowFileDiscovery(true);
         p.setRole("reader");
-        drive.permissions().create(f.getId(), p).execute();
+        getDrive().permissions().create(fileId, p).execute();
+    }
+    
+    /**
+     * Permanently deletes a file, or a folder and everything in it, skipping
+     * the trash
+     * @param id the id of the file to delete
+     * @throws IOException if the file cannot be deleted
+     */
+    public static void delete(String id) throws IOException{
+        getDrive().files().delete(id).execute();
     }
     
     public static final com.google.api.services.drive.model.File getFile(String id) throws IOException{
-        com.google.api.services.drive.model.File ret = null;
         if(id.contains("id=")){
             id = id.split("id=")[1];
         }
-        ret = drive.files().get(id).execute();
-        
+        return getDrive().files().get(id).setFields(FILE_FIELDS).execute();
+    }
+    
+    /**
+     * Looks up several files in one batch request per hundred files, rather
+     * than one request each.
+     * 
+     * @param ids the ids of files, or urls to them
+     * @return the files, by the id or url given for them. Files which cannot
+     * be retrieved are left out.
+     * @throws IOException if the batch request fails
+     */
+    public static final Map<String, File> getFiles(List<String> ids) throws IOException{
+        Map<String, File> ret = new ConcurrentHashMap<>();
+        for(int start = 0; start < ids.size(); start += MAX_BATCH_SIZE){
+            BatchRequest batch = getDrive().batch();
+            batch.setBatchUrl(new GenericUrl(BATCH_URL));
+            for(String given : ids.subList(start, Math.min(start + MAX_BATCH_SIZE, ids.size()))){
+                String id = (given.contains("id=")) ? given.split("id=")[1] : given;
+                getDrive().files().get(id).setFields(FILE_FIELDS).queue(batch, new JsonBatchCallback<File>(){
+                    @Override
+                    public void onSuccess(File f, HttpHeaders headers){
+                        ret.put(given, f);
+                    }
+                    
+                    @Override
+                    public void onFailure(GoogleJsonError error, HttpHeaders headers){
+                        System.err.printf("Couldn't look up %s: %s%n", id, error.getMessage());
+                    }
+                });
+            }
+            batch.execute();
+        }
         return ret;
     }
     
@@ -188,37 +317,7 @@ public class GoogleDriveUploader{
      * @throws java.io.IOException of this fails to retrieve the folder
      */
     public static final boolean isFolder(String id) throws IOException{
-        if(id.contains("id=")){
-            id = id.split("id=")[1];
-        }
-        
-        File f = getFile(id);
-        ID_TO_NAME.put(id, f.getName());
-        return f.getMimeType().equals("application/vnd.google-apps.folder");
-    }
-    
-    /**
-     * Synchronously retrieves the name of the Google Drive file with the given
-     * ID. Note: this method is blocking.
-     * 
-     * @param id
-     * @return 
-     * @throws java.io.IOException if this fails to retrieve the file
-     */
-    public static final String getFileName(String id) throws IOException{
-        String fileName;
-        
-        if(id.contains("id=")){
-            id = id.split("id=")[1];
-        }
-        if(ID_TO_NAME.containsKey(id)){
-            fileName = ID_TO_NAME.get(id);
-        } else {
-            fileName = getFile(id).getName();
-            ID_TO_NAME.put(id, fileName);
-        }
-        
-        return fileName;
+        return getFile(id).getMimeType().equals("application/vnd.google-apps.folder");
     }
     
     /**
@@ -228,7 +327,12 @@ public class GoogleDriveUploader{
      * account.
      */
     public static void deleteFileStore(){
-        deleteDir(STORE.getDataDirectory());
+        deleteDir(STORE_DIRECTORY);
+        synchronized(GoogleDriveUploader.class){
+            // sign in again next time
+            drive = null;
+            setAuthState(AuthState.NOT_SIGNED_IN);
+        }
     }
     private static void deleteDir(java.io.File f){
         java.io.File[] contents = f.listFiles();
@@ -0,0 +1,84 @@
+package nodemanager.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Used to compute the SHA-256 hashes which identify the contents of files,
+ * so files with the same contents can be recognized without comparing them
+ * byte by byte.
+ * 
+ * @author Matt Crow
+ */
+public class HashUtil {
+    
+    /**
+     * @return a new SHA-256 digest
+     */
+    public static MessageDigest newSha256(){
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            // every Java platform is required to support SHA-256
+            throw new RuntimeException(ex);
+        }
+    }
+    
+    /**
+     * @param f the file to hash
+     * @return the SHA-256 hash of the file's contents, in hexadecimal
+     * @throws IOException if the file cannot be read
+     */
+    public static String sha256Of(File f) throws IOException {
+        MessageDigest digest = newSha256();
+        try(InputStream in = new FileInputStream(f)){
+            byte[] buffer = new byte[1 << 16];
+            int numRead;
+            while((numRead = in.read(buffer)) != -1){
+                digest.update(buffer, 0, numRead);
+            }
+        }
+        return toHex(digest.digest());
+    }
+    
+    /**
+     * Hashes an open file, without moving its position, so it can still be
+     * read from the start afterwards.
+     * 
+     * @param channel the file to hash
+     * @return the SHA-256 hash of the file's contents, in hexadecimal
+     * @throws IOException if the file cannot be read
+     */
+    public static String sha256Of(FileChannel channel) throws IOException {
+        MessageDigest digest = newSha256();
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        long position = 0;
+        int numRead;
+        while((numRead = channel.read(buffer, position)) != -1){
+            buffer.flip();
+            digest.update(buffer);
+            buffer.clear();
+            position += numRead;
+        }
+        return toHex(digest.digest());
+    }
+    
+    /**
+     * @param bytes the bytes to convert, such as a digest
+     * @return the bytes in lowercase hexadecimal
+     */
+    public static String toHex(byte[] bytes){
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for(byte b : bytes){
+            sb.append(Character.forDigit((b >>> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
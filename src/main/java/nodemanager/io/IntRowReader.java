@@ -0,0 +1,231 @@
+package nodemanager.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * The IntRowReader reads csv files made up entirely of integers, such as the
+ * node coordinate and connection files, without allocating anything per row.
+ *
+ * Bytes are read into one reusable buffer, or straight out of a memory
+ * mapped file, and each number is parsed right out of it, so there are no
+ * Strings, split arrays, or trimmed copies. Spaces, tabs, carriage returns,
+ * and blank lines are skipped.
+ *
+ * <hr>
+ * {@code
+ *  try(IntRowReader reader = new IntRowReader(in)){
+ *      reader.skipLine(); // header
+ *      int[] row = new int[2];
+ *      while(reader.nextRow(row) != -1){
+ *          do stuff with row
+ *      }
+ *  }
+ * }
+ *
+ * @author Matt Crow
+ */
+public class IntRowReader implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final InputStream in; // null when reading from a mapped file
+    private final MappedWindows windows; // null when reading from a stream
+    private final byte[] buffer;
+    private ByteBuffer current;
+    private int lineNumber;
+    private int rowLineNumber;
+
+    private IntRowReader(MappedWindows windows) throws IOException {
+        in = null;
+        this.windows = windows;
+        buffer = null;
+        current = windows.nextWindow();
+        if(current == null){
+            current = ByteBuffer.allocate(0); // empty file
+        }
+        lineNumber = 1;
+        rowLineNumber = 0;
+    }
+
+    public IntRowReader(InputStream in){
+        this.in = in;
+        windows = null;
+        buffer = new byte[BUFFER_SIZE];
+        current = ByteBuffer.wrap(buffer, 0, 0);
+        lineNumber = 1;
+        rowLineNumber = 0;
+    }
+
+    /**
+     * Opens a local file for reading. Large regular files are mapped into
+     * memory with FileChannel.map, so rows are parsed straight out of the
+     * mapped pages, without copying them into the heap first. Anything else,
+     * such as a small file or a pipe, is read as a stream.
+     *
+     * @param f the file to read
+     * @return a reader for the given file
+     * @throws IOException if the file cannot be opened
+     */
+    public static IntRowReader open(File f) throws IOException {
+        MappedWindows windows = MappedWindows.open(f.toPath());
+        return (windows == null)
+            ? new IntRowReader(new FileInputStream(f))
+            : new IntRowReader(windows);
+    }
+
+    /**
+     * @return the next byte, or -1 at the end of the input
+     */
+    private int read() throws IOException {
+        if(!current.hasRemaining() && !refill()){
+            return -1;
+        }
+        return current.get() & 0xff;
+    }
+
+    /**
+     * @return whether or not there was more input
+     */
+    private boolean refill() throws IOException {
+        if(windows != null){
+            ByteBuffer next;
+            do {
+                next = windows.nextWindow();
+            } while(next != null && !next.hasRemaining());
+            if(next == null){
+                return false;
+            }
+            current = next;
+            return true;
+        }
+        int numRead = in.read(buffer, 0, buffer.length);
+        if(numRead <= 0){
+            return false;
+        }
+        current.clear();
+        current.limit(numRead);
+        return true;
+    }
+
+    private static boolean isSpace(int c){
+        return c == ' ' || c == '\t' || c == '\r';
+    }
+
+    /**
+     * Skips the rest of the current line. Use this to skip headers.
+     *
+     * @throws IOException if the stream cannot be read
+     */
+    public final void skipLine() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while(c != '\n' && c != -1);
+        if(c == '\n'){
+            lineNumber++;
+        }
+    }
+
+    /**
+     * Parses the next non-blank row into the given array. If the row has more
+     * fields than the array can hold, the extra fields are skipped.
+     *
+     * @param fields the array to store the row in
+     * @return the number of fields stored, or -1 if the end of the stream has
+     * been reached
+     * @throws IOException if the stream cannot be read, or the row contains
+     * something other than an integer
+     */
+    public final int nextRow(int[] fields) throws IOException {
+        int c = read();
+        // skip blank lines
+        while(c == '\n' || isSpace(c)){
+            if(c == '\n'){
+                lineNumber++;
+            }
+            c = read();
+        }
+        if(c == -1){
+            return -1;
+        }
+        rowLineNumber = lineNumber;
+
+        int count = 0;
+        boolean negative;
+        long value;
+        int digits;
+        while(true){
+            negative = c == '-';
+            if(negative || c == '+'){
+                c = read();
+            }
+            value = 0;
+            digits = 0;
+            while(c >= '0' && c <= '9'){
+                value = value * 10 + (c - '0');
+                if(value > 1L + Integer.MAX_VALUE){
+                    throw new IOException(String.format("Line %d: number is too large", lineNumber));
+                }
+                digits++;
+                c = read();
+            }
+            if(negative){
+                value = -value;
+            }
+            if(digits == 0 || value > Integer.MAX_VALUE){
+                throw new IOException(String.format("Line %d: expected an integer", lineNumber));
+            }
+            if(count < fields.length){
+                fields[count] = (int)value;
+            }
+            count++;
+
+            while(isSpace(c)){
+                c = read();
+            }
+            if(c == ','){
+                c = read();
+                while(isSpace(c)){
+                    c = read();
+                }
+                if(c == '\n' || c == -1){
+                    // trailing comma
+                    if(c == '\n'){
+                        lineNumber++;
+                    }
+                    break;
+                }
+            } else if(c == '\n'){
+                lineNumber++;
+                break;
+            } else if(c == -1){
+                break;
+            } else {
+                throw new IOException(String.format("Line %d: unexpected character '%c'", lineNumber, (char)c));
+            }
+        }
+        return Math.min(count, fields.length);
+    }
+
+    /**
+     * @return the line number of the last row read, starting from 1.
+     * Useful for error messages.
+     */
+    public final int getLineNumber(){
+        return rowLineNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(windows == null){
+            in.close();
+        } else {
+            current = ByteBuffer.allocate(0); // the window is about to be unmapped
+            windows.close();
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package nodemanager.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Stores files in a folder on this computer, in place of the Google Drive.
+ * Ids are paths relative to that folder, so "" is the folder itself.
+ *
+ * Every call waits for a set amount of time before doing anything, to stand
+ * in for a network round trip, and uploads and downloads can be slowed to a
+ * set number of bytes per second. Each transfer gets the whole bandwidth to
+ * itself, much like separate connections to the Drive. This makes it
+ * possible to measure how long an export or import takes over a slow
+ * connection without needing one.
+ *
+ * Like the Drive, an upload which fails part way through leaves nothing
+ * behind: each file is copied to a temporary file next to it, then moved
+ * into place once it is complete.
+ *
+ * @author Matt Crow
+ */
+public class LocalStorageBackend implements StorageBackend {
+    private final Path root;
+    private final long latencyMillis;
+    private final long bytesPerSecond;
+    private final Set<String> published;
+
+    /**
+     * @param root the folder to store everything in
+     * @param latencyMillis how long each call waits before running
+     * @param bytesPerSecond how fast each upload or download can go, or 0
+     * for no limit
+     */
+    public LocalStorageBackend(File root, long latencyMillis, long bytesPerSecond){
+        this.root = root.toPath().toAbsolutePath().normalize();
+        this.latencyMillis = latencyMillis;
+        this.bytesPerSecond = bytesPerSecond;
+        published = Collections.synchronizedSet(new HashSet<>());
+    }
+
+    public LocalStorageBackend(File root, long latencyMillis){
+        this(root, latencyMillis, 0);
+    }
+
+    public LocalStorageBackend(File root){
+        this(root, 0, 0);
+    }
+
+    /**
+     * Sleeps, to stand in for a network round trip
+     *
+     * @param millis how long to wait
+     * @throws IOException if interrupted while waiting, as a real request would be aborted
+     */
+    protected void simulateLatency(long millis) throws IOException {
+        if(millis <= 0){
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the simulated network", ex);
+        }
+    }
+
+    /**
+     * Slows a stream down to the bandwidth of this
+     */
+    private InputStream throttle(InputStream in){
+        if(bytesPerSecond <= 0){
+            return in;
+        }
+        return new FilterInputStream(in){
+            private final long start = System.nanoTime();
+            private long bytesRead = 0;
+
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if(b != -1){
+                    waitFor(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) throws IOException {
+                // read in small chunks, so the transfer is smooth, rather than in bursts
+                int numRead = super.read(bytes, offset, (int)Math.min(length, Math.max(1, bytesPerSecond / 20)));
+                if(numRead > 0){
+                    waitFor(numRead);
+                }
+                return numRead;
+            }
+
+            /**
+             * Waits until the given number of bytes more would have arrived
+             */
+            private void waitFor(int numBytes) throws IOException {
+                bytesRead += numBytes;
+                long due = bytesRead * 1000 / bytesPerSecond;
+                long elapsed = (System.nanoTime() - start) / 1000000;
+                simulateLatency(due - elapsed);
+            }
+        };
+    }
+
+    private Path resolve(String id) throws IOException {
+        if(id.contains("id=")){
+            id = id.split("id=")[1];
+        }
+        Path p = root.resolve(id).normalize();
+        if(!p.startsWith(root)){
+            throw new IOException("Not in the storage folder: " + id);
+        }
+        return p;
+    }
+
+    /**
+     * @param folder a folder in storage
+     * @param name the name of a file or folder to put in it
+     * @return where the file or folder goes
+     * @throws IOException if the name would put it anywhere other than
+     * directly inside the given folder, such as "../x"
+     */
+    private Path resolveChild(Path folder, String name) throws IOException {
+        Path p = folder.resolve(name).normalize();
+        if(!p.startsWith(root) || !folder.equals(p.getParent())){
+            throw new IOException("Not a name in folder " + idOf(folder) + ": " + name);
+        }
+        return p;
+    }
+
+    private String idOf(Path p){
+        return root.relativize(p).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * @param fileId the id of a file stored here
+     * @return the file on this computer with the given id
+     * @throws IOException if the id is outside of the storage folder
+     */
+    public final File getLocalFile(String fileId) throws IOException {
+        return resolve(fileId).toFile();
+    }
+
+    /**
+     * @param fileId the id of a file stored here
+     * @return whether or not publish has been called for the file
+     */
+    public final boolean isPublished(String fileId){
+        return published.contains(fileId);
+    }
+
+    @Override
+    public InputStream download(String fileId) throws IOException {
+        simulateLatency(latencyMillis);
+        return throttle(new FileInputStream(getLocalFile(fileId)));
+    }
+
+    /**
+     * The version of a local file is when it was last modified, and its size.
+     */
+    @Override
+    public FileMetadata getMetadata(String fileId) throws IOException {
+        simulateLatency(latencyMillis);
+        Path p = resolve(fileId);
+        if(!Files.exists(p)){
+            throw new IOException("No such file: " + fileId);
+        }
+        return metadataOf(p);
+    }
+    
+    private FileMetadata metadataOf(Path p){
+        File f = p.toFile();
+        boolean isFolder = f.isDirectory();
+        return new FileMetadata(idOf(p), f.getName(), isFolder, (isFolder) ? null : f.lastModified() + "-" + f.length());
+    }
+
+    /**
+     * Looks up several files for the price of one call, as a batch request
+     * to the Drive would.
+     */
+    @Override
+    public Map<String, FileMetadata> getMetadata(List<String> fileIds) throws IOException {
+        simulateLatency(latencyMillis);
+        LinkedHashMap<String, FileMetadata> ret = new LinkedHashMap<>();
+        Path p;
+        for(String fileId : fileIds){
+            try {
+                p = resolve(fileId);
+                if(Files.exists(p)){
+                    ret.put(fileId, metadataOf(p));
+                }
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+        return ret;
+    }
+    
+    @Override
+    public String createFolder(String parentId, String name) throws IOException {
+        simulateLatency(latencyMillis);
+        Path folder = resolveChild(resolve(parentId), name);
+        Files.createDirectories(folder);
+        return idOf(folder);
+    }
+
+    @Override
+    public String upload(File local, String name, String mimeType, String folderId) throws IOException {
+        simulateLatency(latencyMillis);
+        Path folder = resolve(folderId);
+        if(!Files.isDirectory(folder)){
+            throw new IOException("No such folder: " + folderId);
+        }
+        Path dest = resolveChild(folder, name);
+        copy(local, dest);
+        return idOf(dest);
+    }
+
+    /**
+     * Unlike the Drive, this creates the file if it doesn't exist yet, so a
+     * new storage folder can be given a version log.
+     */
+    @Override
+    public void update(String fileId, File local, String mimeType) throws IOException {
+        simulateLatency(latencyMillis);
+        Path dest = resolve(fileId);
+        Files.createDirectories(dest.getParent());
+        copy(local, dest);
+    }
+
+    /**
+     * Copies a file on this computer into storage, at the speed of this
+     */
+    private void copy(File local, Path dest) throws IOException {
+        Path part = Files.createTempFile(dest.getParent(), dest.getFileName().toString(), ".part");
+        try {
+            try(InputStream in = throttle(new FileInputStream(local))){
+                Files.copy(in, part, StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.move(part, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(part);
+        }
+    }
+
+    @Override
+    public void publish(String fileId) throws IOException {
+        simulateLatency(latencyMillis);
+        if(!Files.exists(resolve(fileId))){
+            throw new IOException("No such file: " + fileId);
+        }
+        published.add(fileId);
+    }
+
+    @Override
+    public void delete(String fileId) throws IOException {
+        simulateLatency(latencyMillis);
+        Path p = resolve(fileId);
+        if(p.equals(root)){
+            throw new IOException("Cannot delete the storage folder");
+        }
+        if(!Files.exists(p)){
+            throw new IOException("No such file: " + fileId);
+        }
+        // delete what is in a folder before the folder itself
+        try(Stream<Path> paths = Files.walk(p)){
+            for(Path inside : (Iterable<Path>)paths.sorted((a, b)->b.compareTo(a))::iterator){
+                Files.delete(inside);
+                published.remove(idOf(inside));
+            }
+        }
+    }
+}
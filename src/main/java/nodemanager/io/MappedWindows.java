@@ -0,0 +1,121 @@
+package nodemanager.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Maps a file into memory one window at a time. A MappedByteBuffer can hold
+ * at most 2GB, so larger files are read as a series of windows.
+ *
+ * Java only unmaps a MappedByteBuffer once it is garbage collected, and
+ * Windows won't let anything write to or delete a mapped file until then.
+ * So each window is unmapped as soon as the next one is mapped, and the last
+ * when this is closed. Don't use a window after that.
+ *
+ * Mapping a small file costs more than reading it, so only files of at least
+ * MIN_MAPPED_SIZE are mapped.
+ *
+ * @author Matt Crow
+ */
+final class MappedWindows implements Closeable {
+    static final long MIN_MAPPED_SIZE = 1L << 24; // 16MB
+    private static final long WINDOW_SIZE = 1L << 28; // 256MB
+
+    private final FileChannel channel;
+    private final long size;
+    private long nextWindowStart;
+    private MappedByteBuffer window;
+
+    private MappedWindows(FileChannel channel, long size){
+        this.channel = channel;
+        this.size = size;
+        nextWindowStart = 0;
+        window = null;
+    }
+
+    /**
+     * @param path the file to map
+     * @return windows over the given file, or null if it is too small to be
+     * worth mapping, or isn't a regular file, such as a pipe or device, and
+     * so cannot be mapped
+     * @throws IOException if the file cannot be opened
+     */
+    static MappedWindows open(Path path) throws IOException {
+        if(!Files.isRegularFile(path)){
+            return null;
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        long size = channel.size();
+        if(size < MIN_MAPPED_SIZE){
+            channel.close();
+            return null;
+        }
+        return new MappedWindows(channel, size);
+    }
+
+    /**
+     * Unmaps the previous window, then maps the next one.
+     *
+     * @return the next window of the file, or null if the whole file has
+     * been mapped
+     * @throws IOException if the file cannot be mapped
+     */
+    final MappedByteBuffer nextWindow() throws IOException {
+        unmap();
+        if(nextWindowStart >= size){
+            return null;
+        }
+        long length = Math.min(WINDOW_SIZE, size - nextWindowStart);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, nextWindowStart, length);
+        nextWindowStart += length;
+        return window;
+    }
+
+    private void unmap(){
+        if(window != null){
+            unmap(window);
+            window = null;
+        }
+    }
+
+    /**
+     * Unmaps the given buffer right away. There is no public way to do this,
+     * so it goes through Unsafe.invokeCleaner on Java 9 and later, or the
+     * buffer's Cleaner on Java 8. If neither works, the buffer is left for
+     * the garbage collector.
+     */
+    private static void unmap(MappedByteBuffer buffer){
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafeClass.getMethod("invokeCleaner", java.nio.ByteBuffer.class).invoke(theUnsafe.get(null), buffer);
+            return;
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            // not Java 9 or later
+        }
+        try {
+            Method getCleaner = buffer.getClass().getMethod("cleaner");
+            getCleaner.setAccessible(true);
+            Object cleaner = getCleaner.invoke(buffer);
+            if(cleaner != null){
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            // leave it for the garbage collector
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        unmap();
+        channel.close();
+    }
+}
@@ -0,0 +1,146 @@
+package nodemanager.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The RowWriter is used by the file helpers to write csv rows quickly.
+ *
+ * Everything is written into a byte buffer, which is only handed to the
+ * OutputStream once it fills up, so a raw FileOutputStream gets one large
+ * write per 64KB instead of one per row. Integers are converted to ASCII by
+ * hand, rather than through String.format. Strings are encoded using the
+ * default charset, just like String.getBytes().
+ *
+ * Buffers are pooled per thread, so writing many files in a row doesn't
+ * allocate a new buffer for each one. Closing a RowWriter flushes it and
+ * returns its buffer to the pool, but does not close the OutputStream, as
+ * that belongs to whoever created it.
+ *
+ * @author Matt Crow
+ */
+public class RowWriter implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final ThreadLocal<byte[]> POOL = new ThreadLocal<>();
+
+    private final OutputStream out;
+    private byte[] buffer;
+    private int size;
+
+    public RowWriter(OutputStream out){
+        this.out = out;
+        buffer = POOL.get();
+        if(buffer == null){
+            buffer = new byte[BUFFER_SIZE];
+        } else {
+            // taken out of the pool until this is closed
+            POOL.set(null);
+        }
+        size = 0;
+    }
+
+    /**
+     * Makes sure there is room for the given number of bytes in the buffer,
+     * writing its contents to the stream if there isn't.
+     */
+    private void ensureRoom(int numBytes) throws IOException {
+        if(size + numBytes > buffer.length){
+            out.write(buffer, 0, size);
+            size = 0;
+        }
+    }
+
+    /**
+     * Writes a single ASCII character, such as a comma or NEWLINE
+     *
+     * @param c the character to write
+     * @return this, for chaining purposes
+     * @throws IOException if the stream cannot be written to
+     */
+    public final RowWriter write(char c) throws IOException {
+        if(c >= 0x80){
+            return write(String.valueOf(c));
+        }
+        ensureRoom(1);
+        buffer[size] = (byte)c;
+        size++;
+        return this;
+    }
+
+    /**
+     * @param s the String to write, encoded in the default charset
+     * @return this, for chaining purposes
+     * @throws IOException if the stream cannot be written to
+     */
+    public final RowWriter write(String s) throws IOException {
+        byte[] bytes = s.getBytes();
+        if(bytes.length > buffer.length){
+            ensureRoom(buffer.length);
+            out.write(bytes);
+        } else {
+            ensureRoom(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+        return this;
+    }
+
+    /**
+     * Writes an integer in base 10, the same as String.valueOf would.
+     *
+     * @param i the integer to write
+     * @return this, for chaining purposes
+     * @throws IOException if the stream cannot be written to
+     */
+    public final RowWriter write(int i) throws IOException {
+        ensureRoom(11); // "-2147483648"
+        // work with the negative value, so MIN_VALUE doesn't overflow
+        int negative = (i < 0) ? i : -i;
+        if(i < 0){
+            buffer[size] = '-';
+            size++;
+        }
+        int numDigits = 1;
+        for(int rest = negative / 10; rest != 0; rest /= 10){
+            numDigits++;
+        }
+        int pos = size + numDigits - 1;
+        do {
+            buffer[pos] = (byte)('0' - (negative % 10));
+            negative /= 10;
+            pos--;
+        } while(negative != 0);
+        size += numDigits;
+        return this;
+    }
+
+    /**
+     * Writes everything in the buffer to the stream, then flushes the stream.
+     *
+     * @throws IOException if the stream cannot be written to
+     */
+    public final void flush() throws IOException {
+        out.write(buffer, 0, size);
+        size = 0;
+        out.flush();
+    }
+
+    /**
+     * Flushes this, and returns its buffer to the pool. Does not close the
+     * underlying OutputStream.
+     *
+     * @throws IOException if the stream cannot be written to
+     */
+    @Override
+    public void close() throws IOException {
+        if(buffer != null){
+            try {
+                flush();
+            } finally {
+                POOL.set(buffer);
+                buffer = null;
+            }
+        }
+    }
+}
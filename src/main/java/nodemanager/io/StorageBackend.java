@@ -0,0 +1,113 @@
+package nodemanager.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import nodemanager.exceptions.NoPermissionException;
+
+/**
+ * A StorageBackend is somewhere exports are uploaded to and downloaded
+ * from, such as the Google Drive, or a folder on this computer. The one the
+ * program uses is chosen when it starts. See NodeManager.
+ * 
+ * Ids may be given either as the id of a file, or as a download URL ending
+ * in "id=" followed by the id, as that is how the VersionLog stores them.
+ * 
+ * Implementations must be safe to call from several threads at once, as
+ * files are uploaded and downloaded concurrently.
+ * 
+ * @author Matt Crow
+ */
+public interface StorageBackend {
+    /**
+     * Opens a stored file for reading
+     * 
+     * @param fileId the id of the file to read
+     * @return a stream of the file's contents
+     * @throws IOException if the file cannot be downloaded
+     */
+    public InputStream download(String fileId) throws IOException;
+    
+    /**
+     * @param fileId the id of a file or folder
+     * @return information about it
+     * @throws IOException if the file doesn't exist, or its information
+     * cannot be retrieved
+     */
+    public FileMetadata getMetadata(String fileId) throws IOException;
+    
+    /**
+     * Gets information about several files at once. By default, this asks
+     * for each one in turn. Backends which can look up several files in one
+     * request should override this.
+     * 
+     * @param fileIds the ids of files or folders
+     * @return information about each file, by the id given for it. Files
+     * which don't exist, or whose information cannot be retrieved, are left out.
+     * @throws IOException if none of the files' information can be retrieved
+     */
+    public default Map<String, FileMetadata> getMetadata(List<String> fileIds) throws IOException {
+        LinkedHashMap<String, FileMetadata> ret = new LinkedHashMap<>();
+        for(String fileId : fileIds){
+            try {
+                ret.put(fileId, getMetadata(fileId));
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+        return ret;
+    }
+    
+    /**
+     * Creates a new folder
+     * 
+     * @param parentId the id of the folder to create the new folder in
+     * @param name the name of the new folder
+     * @return the id of the new folder
+     * @throws IOException if the folder cannot be created
+     */
+    public String createFolder(String parentId, String name) throws IOException;
+    
+    /**
+     * Uploads a file on this computer, without publishing it
+     * 
+     * @param local the file to upload
+     * @param name what to name the uploaded file
+     * @param mimeType the MIME type of the file
+     * @param folderId the id of the folder to upload to
+     * @return the id of the uploaded file
+     * @throws IOException if the upload fails
+     * @throws NoPermissionException if the user cannot access the folder
+     */
+    public String upload(File local, String name, String mimeType, String folderId) throws IOException, NoPermissionException;
+    
+    /**
+     * Replaces the contents of a stored file, keeping its id
+     * 
+     * @param fileId the id of the file to replace
+     * @param local the file on this computer to replace it with
+     * @param mimeType the MIME type of the file
+     * @throws IOException if the upload fails
+     * @throws NoPermissionException if the user cannot edit the file
+     */
+    public void update(String fileId, File local, String mimeType) throws IOException, NoPermissionException;
+    
+    /**
+     * Lets anyone download the file with the given id
+     * 
+     * @param fileId the id of an uploaded file
+     * @throws IOException if the file cannot be published
+     */
+    public void publish(String fileId) throws IOException;
+    
+    /**
+     * Deletes a stored file, or a folder and everything in it
+     * 
+     * @param fileId the id of the file or folder to delete
+     * @throws IOException if it cannot be deleted
+     */
+    public void delete(String fileId) throws IOException;
+}
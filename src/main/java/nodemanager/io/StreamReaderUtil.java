@@ -16,8 +16,10 @@ public class StreamReaderUtil {
         StringBuilder ret = new StringBuilder();
         InputStreamReader read = new InputStreamReader(in);
         try (BufferedReader buff = new BufferedReader(read)) {
-            while(buff.ready()){
-                ret.append(buff.readLine()).append(NEWLINE);
+            // don't use ready(), as it returns false whenever a network stream is waiting on more data
+            String line;
+            while((line = buff.readLine()) != null){
+                ret.append(line).append(NEWLINE);
             }
         } catch (IOException ex){
             ex.printStackTrace();
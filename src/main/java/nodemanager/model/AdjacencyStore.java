@@ -0,0 +1,304 @@
+package nodemanager.model;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * AdjacencyStore holds the connections for a Graph using only primitive int
+ * arrays, so no node id or edge is ever boxed.
+ *
+ * Each node id is given a slot through an open-addressing hash table. Every
+ * slot owns a contiguous region of one shared edge pool, laid out like a
+ * compressed sparse row (CSR) table. When a region fills up during editing, it
+ * is moved to the end of the pool (the overflow area) with room to grow. Once
+ * the abandoned regions take up more than half of the pool, the whole pool is
+ * compacted back into a tight CSR layout.
+ *
+ * Like the old HashMap&lt;Integer, HashSet&lt;Integer&gt;&gt;, once an id has
+ * a slot it keeps it, even if all of its connections are removed.
+ *
+ * @author Matt Crow
+ */
+final class AdjacencyStore {
+    private static final int INITIAL_TABLE_SIZE = 16;
+    private static final int INITIAL_SLOTS = 16;
+    private static final int MIN_REGION_SIZE = 4;
+    private static final int MIN_COMPACT_SIZE = 1024;
+
+    // id -> slot hash table. slotPlusOne is 0 for empty buckets
+    private int[] tableKeys;
+    private int[] tableSlotPlusOne;
+    private int tableMask;
+
+    // slot -> data
+    private int[] slotIds;
+    private int[] regionStart;
+    private int[] regionSize;
+    private int[] degree;
+    private int slotCount;
+
+    // the edge pool
+    private int[] pool;
+    private int poolUsed;
+    private int poolGarbage;
+
+    AdjacencyStore(){
+        tableKeys = new int[INITIAL_TABLE_SIZE];
+        tableSlotPlusOne = new int[INITIAL_TABLE_SIZE];
+        tableMask = INITIAL_TABLE_SIZE - 1;
+
+        slotIds = new int[INITIAL_SLOTS];
+        regionStart = new int[INITIAL_SLOTS];
+        regionSize = new int[INITIAL_SLOTS];
+        degree = new int[INITIAL_SLOTS];
+        slotCount = 0;
+
+        pool = new int[INITIAL_SLOTS * MIN_REGION_SIZE];
+        poolUsed = 0;
+        poolGarbage = 0;
+    }
+
+    /*
+    Id to slot lookup
+    */
+
+    private static int hash(int id){
+        // murmur3 finalizer, so sequential ids spread across the table
+        int h = id;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * @param id the node id to look for
+     * @return the slot for the given id, or -1 if it has no slot
+     */
+    final int slotOf(int id){
+        int bucket = hash(id) & tableMask;
+        while(tableSlotPlusOne[bucket] != 0){
+            if(tableKeys[bucket] == id){
+                return tableSlotPlusOne[bucket] - 1;
+            }
+            bucket = (bucket + 1) & tableMask;
+        }
+        return -1;
+    }
+
+    final boolean containsId(int id){
+        return slotOf(id) != -1;
+    }
+
+    /**
+     * Gives the given id a slot if it doesn't have one yet.
+     *
+     * @param id the node id to create a slot for
+     * @return the slot for the given id
+     */
+    final int getOrCreateSlot(int id){
+        int slot = slotOf(id);
+        if(slot == -1){
+            slot = createSlot(id);
+        }
+        return slot;
+    }
+
+    private int createSlot(int id){
+        if(slotCount == slotIds.length){
+            int newLength = slotIds.length * 2;
+            slotIds = Arrays.copyOf(slotIds, newLength);
+            regionStart = Arrays.copyOf(regionStart, newLength);
+            regionSize = Arrays.copyOf(regionSize, newLength);
+            degree = Arrays.copyOf(degree, newLength);
+        }
+        int slot = slotCount;
+        slotCount++;
+        slotIds[slot] = id;
+        regionStart[slot] = poolUsed;
+        regionSize[slot] = 0;
+        degree[slot] = 0;
+
+        // keep the load factor under 1/2
+        if(slotCount * 2 > tableKeys.length){
+            rehash(tableKeys.length * 2);
+        }
+        insertIntoTable(id, slot);
+        return slot;
+    }
+
+    private void insertIntoTable(int id, int slot){
+        int bucket = hash(id) & tableMask;
+        while(tableSlotPlusOne[bucket] != 0){
+            bucket = (bucket + 1) & tableMask;
+        }
+        tableKeys[bucket] = id;
+        tableSlotPlusOne[bucket] = slot + 1;
+    }
+
+    private void rehash(int newSize){
+        tableKeys = new int[newSize];
+        tableSlotPlusOne = new int[newSize];
+        tableMask = newSize - 1;
+        for(int slot = 0; slot < slotCount; slot++){
+            insertIntoTable(slotIds[slot], slot);
+        }
+    }
+
+    /*
+    Edge editing
+    */
+
+    private int indexOf(int slot, int toId){
+        int start = regionStart[slot];
+        int end = start + degree[slot];
+        for(int i = start; i < end; i++){
+            if(pool[i] == toId){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds toId to the connections of the given slot, if it isn't there yet.
+     *
+     * @param slot the slot to add the connection to
+     * @param toId the id of the node to connect to
+     * @return whether or not the connection was added
+     */
+    final boolean addToSlot(int slot, int toId){
+        if(indexOf(slot, toId) != -1){
+            return false;
+        }
+        if(degree[slot] == regionSize[slot]){
+            growRegion(slot);
+        }
+        pool[regionStart[slot] + degree[slot]] = toId;
+        degree[slot]++;
+        return true;
+    }
+
+    /**
+     * Removes toId from the connections of the given slot.
+     * Does not keep the order of the remaining connections.
+     *
+     * @param slot the slot to remove the connection from
+     * @param toId the id of the node to disconnect
+     * @return whether or not the connection existed
+     */
+    final boolean removeFromSlot(int slot, int toId){
+        int i = indexOf(slot, toId);
+        if(i == -1){
+            return false;
+        }
+        int last = regionStart[slot] + degree[slot] - 1;
+        pool[i] = pool[last];
+        degree[slot]--;
+        return true;
+    }
+
+    private void growRegion(int slot){
+        int oldSize = regionSize[slot];
+        int newSize = Math.max(MIN_REGION_SIZE, oldSize * 2);
+
+        if(regionStart[slot] + oldSize == poolUsed){
+            // already at the end of the pool, so it can grow in place
+            ensurePoolCapacity(regionStart[slot] + newSize);
+            poolUsed = regionStart[slot] + newSize;
+        } else {
+            if(poolGarbage + oldSize > MIN_COMPACT_SIZE && (poolGarbage + oldSize) * 2 > poolUsed){
+                compact();
+                // compacting may have left this slot at the end of the pool
+                if(regionStart[slot] + regionSize[slot] == poolUsed){
+                    ensurePoolCapacity(regionStart[slot] + newSize);
+                    poolUsed = regionStart[slot] + newSize;
+                    regionSize[slot] = newSize;
+                    return;
+                }
+            }
+            // move to the overflow area
+            ensurePoolCapacity(poolUsed + newSize);
+            System.arraycopy(pool, regionStart[slot], pool, poolUsed, degree[slot]);
+            poolGarbage += regionSize[slot];
+            regionStart[slot] = poolUsed;
+            poolUsed += newSize;
+        }
+        regionSize[slot] = newSize;
+    }
+
+    private void ensurePoolCapacity(int required){
+        if(required > pool.length){
+            pool = Arrays.copyOf(pool, Math.max(required, pool.length + (pool.length >> 1)));
+        }
+    }
+
+    /**
+     * Rewrites the edge pool as a tight CSR table, dropping any regions
+     * abandoned while editing.
+     */
+    final void compact(){
+        int total = 0;
+        for(int slot = 0; slot < slotCount; slot++){
+            total += degree[slot];
+        }
+        int[] newPool = new int[Math.max(total, INITIAL_SLOTS)];
+        int offset = 0;
+        for(int slot = 0; slot < slotCount; slot++){
+            System.arraycopy(pool, regionStart[slot], newPool, offset, degree[slot]);
+            regionStart[slot] = offset;
+            regionSize[slot] = degree[slot];
+            offset += degree[slot];
+        }
+        pool = newPool;
+        poolUsed = offset;
+        poolGarbage = 0;
+    }
+
+    /*
+    Reading
+    */
+
+    final int getSlotCount(){
+        return slotCount;
+    }
+
+    final int getIdAt(int slot){
+        return slotIds[slot];
+    }
+
+    final int getDegreeAt(int slot){
+        return degree[slot];
+    }
+
+    /**
+     * @param slot the slot to read from
+     * @param i which of the slot's connections to get. Must be less than getDegreeAt(slot)
+     * @return the id of the i'th node connected to the node in the given slot
+     */
+    final int getConnectionAt(int slot, int i){
+        return pool[regionStart[slot] + i];
+    }
+
+    final int[] copyConnections(int id){
+        int slot = slotOf(id);
+        if(slot == -1){
+            return new int[0];
+        }
+        int start = regionStart[slot];
+        return Arrays.copyOfRange(pool, start, start + degree[slot]);
+    }
+
+    final void forEachConnection(int id, IntConsumer action){
+        int slot = slotOf(id);
+        if(slot != -1){
+            int start = regionStart[slot];
+            int end = start + degree[slot];
+            for(int i = start; i < end; i++){
+                action.accept(pool[i]);
+            }
+        }
+    }
+}
@@ -3,9 +3,11 @@ package nodemanager.model;
 import java.awt.image.BufferedImage;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.function.IntConsumer;
 import java.util.stream.Collectors;
 
 /**
@@ -14,18 +16,26 @@ import java.util.stream.Collectors;
  * @author Matt Crow
  */
 public class Graph {
-    private BufferedImage mapImage;
-    private final HashMap<Integer, Node> nodes;
-    private final HashMap<Integer, HashSet<Integer>> connections;
-    private final HashMap<String, Integer> labels;
+    private TiledImage mapImage;
+    private final LinkedHashMap<Integer, Node> nodes; // linked, so nodes are listed in the order they were added
+    private final AdjacencyStore connections;
+    private final LinkedHashMap<String, Integer> labels;
+    private final HashMap<Integer, LinkedHashSet<String>> labelsById; // reverse of labels
+    private final SpatialIndex nodeIndex;
+    private double longestConnection; // an upper bound, in node coordinates
+    private boolean longestConnectionStale;
     
     private int nextNodeId;
     
     public Graph(){
         mapImage = null;
-        nodes = new HashMap<>();
-        connections = new HashMap<>();
-        labels = new HashMap<>();
+        nodes = new LinkedHashMap<>();
+        connections = new AdjacencyStore();
+        labels = new LinkedHashMap<>();
+        labelsById = new HashMap<>();
+        nodeIndex = new SpatialIndex();
+        longestConnection = 0;
+        longestConnectionStale = false;
         nextNodeId = 0;
     }
     
@@ -35,7 +45,14 @@ public class Graph {
         return n;
     }
     public final void addNode(Node n){
-        nodes.put(n.getId(), n);
+        Node replaced = nodes.put(n.getId(), n);
+        if(replaced != null){
+            nodeIndex.remove(replaced.getId(), replaced.getX(), replaced.getY());
+        }
+        nodeIndex.insert(n.getId(), n.getX(), n.getY());
+        if(connections.containsId(n.getId())){
+            longestConnectionStale = true;
+        }
         if(n.getId() >= nextNodeId){
             nextNodeId = n.getId() + 1;
         }
@@ -43,34 +60,103 @@ public class Graph {
     
     public final boolean addConnection(int fromId, int toId){
         boolean added = false;
-        if(!connections.containsKey(fromId)){
-            connections.put(fromId, new HashSet<>());
+        if(!connections.containsId(fromId)){
             added = true;
         }
-        if(!connections.containsKey(toId)){
-            connections.put(toId, new HashSet<>());
+        int fromSlot = connections.getOrCreateSlot(fromId);
+        if(!connections.containsId(toId)){
             added = true;
         }
-        connections.get(fromId).add(toId);
-        connections.get(toId).add(fromId);
+        int toSlot = connections.getOrCreateSlot(toId);
+        connections.addToSlot(fromSlot, toId);
+        connections.addToSlot(toSlot, fromId);
+        longestConnection = Math.max(longestConnection, lengthOf(fromId, toId));
         
         return added;
     }
     
     public final boolean addLabel(String label, int id){
-        boolean canAdd = !labels.containsKey(label.toUpperCase());
+        String key = label.toUpperCase();
+        boolean canAdd = !labels.containsKey(key);
         if(canAdd){
-            labels.put(label.toUpperCase(), id);
+            labels.put(key, id);
+            if(!labelsById.containsKey(id)){
+                labelsById.put(id, new LinkedHashSet<>());
+            }
+            labelsById.get(id).add(key);
         }
         return canAdd; // no duplicate labels
     }
     
+    /**
+     * Moves a node to new coordinates. Use this instead of Node.setX and
+     * Node.setY, so the Graph's spatial index stays up to date.
+     * 
+     * @param id the id of the node to move
+     * @param x the new x coordinate of the node
+     * @param y the new y coordinate of the node
+     * @return whether or not a node with the given id exists
+     */
+    public final boolean moveNode(int id, int x, int y){
+        Node n = nodes.get(id);
+        if(n != null){
+            nodeIndex.move(id, n.getX(), n.getY(), x, y);
+            n.setX(x);
+            n.setY(y);
+            connections.forEachConnection(id, (adj)->{
+                longestConnection = Math.max(longestConnection, lengthOf(id, adj));
+            });
+        }
+        return n != null;
+    }
+    
+    /**
+     * Adds everything in another Graph to this one: first its nodes, then its
+     * connections, then its labels, then its map image, if it has one.
+     * 
+     * The result is the same as if the files other was read from had been
+     * read straight into this, in the same order, so files can be parsed into
+     * separate Graphs at the same time, then merged.
+     * 
+     * @param other the Graph to copy from. Should not be changed while this runs.
+     */
+    public final void mergeFrom(Graph other){
+        other.nodes.values().forEach(this::addNode);
+        
+        // copy each adjacency list as-is, as other already stores both directions
+        int toSlot;
+        for(int slot = 0; slot < other.connections.getSlotCount(); slot++){
+            connections.getOrCreateSlot(other.connections.getIdAt(slot));
+        }
+        for(int slot = 0; slot < other.connections.getSlotCount(); slot++){
+            toSlot = connections.slotOf(other.connections.getIdAt(slot));
+            for(int i = 0; i < other.connections.getDegreeAt(slot); i++){
+                connections.addToSlot(toSlot, other.connections.getConnectionAt(slot, i));
+            }
+        }
+        
+        longestConnectionStale = true;
+        
+        other.labels.forEach(this::addLabel);
+        
+        if(other.mapImage != null){
+            setMapImage(other.mapImage);
+        }
+    }
+    
     public final void setMapImage(BufferedImage buff){
-        this.mapImage = buff;
+        setMapImage((buff == null) ? null : new TiledImage(buff));
+    }
+    
+    public final void setMapImage(TiledImage image){
+        this.mapImage = image;
     }
     
     public final void removeNode(int id){
-        this.nodes.remove(id);
+        Node removed = this.nodes.remove(id);
+        if(removed != null){
+            nodeIndex.remove(id, removed.getX(), removed.getY());
+        }
         Arrays.stream(getConnectionsById(id)).forEach((adj)->{
             this.removeConnection(id, adj);
         });
@@ -81,19 +167,34 @@ public class Graph {
     
     public final boolean removeConnection(int fromId, int toId){
         boolean removed = false;
-        if(connections.containsKey(fromId)){
+        int fromSlot = connections.slotOf(fromId);
+        if(fromSlot != -1){
             removed = true;
-            connections.get(fromId).remove(toId);
+            connections.removeFromSlot(fromSlot, toId);
         }
-        if(connections.containsKey(toId)){
+        int toSlot = connections.slotOf(toId);
+        if(toSlot != -1){
             removed = true;
-            connections.get(toId).remove(fromId);
+            connections.removeFromSlot(toSlot, fromId);
+        }
+        if(removed && lengthOf(fromId, toId) >= longestConnection){
+            // it might have been the longest
+            longestConnectionStale = true;
         }
         return removed;
     }
     
     public final boolean removeLabel(String label){
-        return this.labels.remove(label.toUpperCase()) != null;
+        String key = label.toUpperCase();
+        Integer id = this.labels.remove(key);
+        if(id != null && labelsById.containsKey(id)){
+            LinkedHashSet<String> nodeLabels = labelsById.get(id);
+            nodeLabels.remove(key);
+            if(nodeLabels.isEmpty()){
+                labelsById.remove(id);
+            }
+        }
+        return id != null;
     }
     
     public final List<Node> getAllNodes(){
@@ -102,11 +203,38 @@ public class Graph {
     
     public final List<Integer[]> getAllConnections(){
         LinkedList<Integer[]> pairs = new LinkedList<>();
-        connections.entrySet().forEach((entry)->{
-            entry.getValue().forEach((to) -> {
-                pairs.add(new Integer[]{entry.getKey(), to});
-            });
-        });
+        int from;
+        for(int slot = 0; slot < connections.getSlotCount(); slot++){
+            from = connections.getIdAt(slot);
+            for(int i = 0; i < connections.getDegreeAt(slot); i++){
+                pairs.add(new Integer[]{from, connections.getConnectionAt(slot, i)});
+            }
+        }
+        return pairs;
+    }
+    
+    /**
+     * Like getAllConnections, but without boxing anything.
+     * 
+     * @return every connection in the same order as getAllConnections, with
+     * connection i stored at [2 * i] and [2 * i + 1]
+     */
+    public final int[] copyConnectionPairs(){
+        int total = 0;
+        for(int slot = 0; slot < connections.getSlotCount(); slot++){
+            total += connections.getDegreeAt(slot);
+        }
+        int[] pairs = new int[total * 2];
+        int pos = 0;
+        int from;
+        for(int slot = 0; slot < connections.getSlotCount(); slot++){
+            from = connections.getIdAt(slot);
+            for(int i = 0; i < connections.getDegreeAt(slot); i++){
+                pairs[pos] = from;
+                pairs[pos + 1] = connections.getConnectionAt(slot, i);
+                pos += 2;
+            }
+        }
         return pairs;
     }
     
@@ -114,10 +242,68 @@ public class Graph {
         return labels.keySet().stream().collect(Collectors.toList());
     }
     
+    /**
+     * @return the map image, or null if there isn't one, or it is too large
+     * to keep in memory, in which case use getMapTiles
+     */
     public final BufferedImage getMapImage(){
+        return (mapImage == null) ? null : mapImage.getImage();
+    }
+    
+    /**
+     * @return the map image, which may not all be in memory, or null if
+     * there isn't one
+     */
+    public final TiledImage getMapTiles(){
         return mapImage;
     }
     
+    /**
+     * @return the spatial index over the coordinates of this' nodes
+     */
+    public final SpatialIndex getSpatialIndex(){
+        return nodeIndex;
+    }
+    
+    /**
+     * @return the distance between two nodes, or 0 if either doesn't exist
+     */
+    private double lengthOf(int fromId, int toId){
+        Node from = nodes.get(fromId);
+        Node to = nodes.get(toId);
+        if(from == null || to == null){
+            return 0;
+        }
+        return Math.hypot((double)from.getX() - to.getX(), (double)from.getY() - to.getY());
+    }
+    
+    /**
+     * Anything drawing the connections in some area can look up the nodes
+     * within this distance of that area in the spatial index, to find every
+     * connection which crosses it, even those whose nodes are both outside it.
+     * 
+     * This is only recalculated after a change which might have shortened
+     * it, so it is cheap to call often.
+     * 
+     * @return at least the length of the longest connection between two
+     * nodes, in node coordinates
+     */
+    public final double getLongestConnectionLength(){
+        if(longestConnectionStale){
+            double longest = 0;
+            int from;
+            for(int slot = 0; slot < connections.getSlotCount(); slot++){
+                from = connections.getIdAt(slot);
+                for(int i = 0; i < connections.getDegreeAt(slot); i++){
+                    longest = Math.max(longest, lengthOf(from, connections.getConnectionAt(slot, i)));
+                }
+            }
+            longestConnection = longest;
+            longestConnectionStale = false;
+        }
+        return longestConnection;
+    }
+    
     public final Node getNodeById(int id){
         return nodes.get(id);
     }
@@ -127,17 +313,39 @@ public class Graph {
     }
     
     public final int[] getConnectionsById(int id){
-        return connections.getOrDefault(id, new HashSet<>()).stream().mapToInt((integer)->{
-            return integer.intValue();
-        }).toArray();
+        return connections.copyConnections(id);
+    }
+    
+    /**
+     * Runs the given action on the id of each node connected to the node with
+     * the given id. Unlike getConnectionsById, this doesn't allocate anything.
+     * 
+     * @param id the id of the node whose connections to visit
+     * @param action what to do with each connected node's id
+     */
+    public final void forEachConnection(int id, IntConsumer action){
+        connections.forEachConnection(id, action);
     }
     
+    /**
+     * @param id the id of a node
+     * @return how many nodes the given node is connected to
+     */
+    public final int getConnectionCount(int id){
+        int slot = connections.slotOf(id);
+        return (slot == -1) ? 0 : connections.getDegreeAt(slot);
+    }
+    
+    /**
+     * Looks up the labels for a node using the reverse label index, so this
+     * only costs as much as the number of labels on the node.
+     * 
+     * @param id the id of the node to get the labels for
+     * @return the labels of the given node, in upper case
+     */
     public final String[] getLabelsById(int id){
-        return labels.entrySet().stream().filter((entry)->{
-            return entry.getValue() == id;
-        }).map((entry)->{
-            return entry.getKey();
-        }).toArray((size)->new String[size]);
+        LinkedHashSet<String> nodeLabels = labelsById.get(id);
+        return (nodeLabels == null) ? new String[0] : nodeLabels.toArray(new String[nodeLabels.size()]);
     }
     
     public final String getDescriptionForNode(int nodeId){
@@ -170,11 +378,11 @@ public class Graph {
             sb.append(String.format("\t%d => %s%n", id, node.toString()));
         });
         sb.append("* Connections:\n");
-        connections.forEach((from, conns)->{
-            conns.forEach((to)->{
-                sb.append(String.format("\t%d => %d%n", from.intValue(), to));
-            });
-        });
+        for(int slot = 0; slot < connections.getSlotCount(); slot++){
+            for(int i = 0; i < connections.getDegreeAt(slot); i++){
+                sb.append(String.format("\t%d => %d%n", connections.getIdAt(slot), connections.getConnectionAt(slot, i)));
+            }
+        }
         sb.append("* Labels:\n");
         labels.forEach((label, id)->{
             sb.append(String.format("\t%s => %d%n", label, id));
@@ -186,7 +394,7 @@ public class Graph {
         Graph ret = new Graph();
         ret.addNode(new Node(-1, 0, 0));
         ret.addNode(new Node(-2, 100, 100));
-        ret.mapImage = new BufferedImage(100, 100, BufferedImage.TYPE_INT_ARGB);
+        ret.mapImage = new TiledImage(new BufferedImage(100, 100, BufferedImage.TYPE_INT_ARGB));
         return ret;
     }
 }
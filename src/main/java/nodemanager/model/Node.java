@@ -27,10 +27,14 @@ public class Node {
         return id;
     }
     
-    public void setX(int x){
+    /*
+    Use Graph.moveNode instead of these, so the Graph's spatial index is
+    updated as well.
+    */
+    void setX(int x){
         this.x = x;
     }
-    public void setY(int y){
+    void setY(int y){
         this.y = y;
     }
     
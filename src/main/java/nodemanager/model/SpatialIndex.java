@@ -0,0 +1,413 @@
+package nodemanager.model;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.function.IntConsumer;
+
+/**
+ * A SpatialIndex is a point quadtree over the coordinates of the Nodes in a
+ * Graph. It answers rectangle, radius, and nearest neighbor queries without
+ * looking at every Node.
+ *
+ * Graph keeps this in sync as nodes are added, moved, and removed, so Nodes
+ * must be moved using Graph.moveNode instead of Node.setX and Node.setY.
+ *
+ * The tree grows to fit whatever coordinates it is given, so there is no need
+ * to know the bounds of the Graph ahead of time.
+ *
+ * @author Matt Crow
+ */
+public class SpatialIndex {
+    private static final int LEAF_CAPACITY = 8;
+
+    private Quad root;
+    private int size;
+
+    SpatialIndex(){
+        root = null;
+        size = 0;
+    }
+
+    /**
+     * One square cell of the tree. Leaves store points, other quads store
+     * four children, ordered upper-left, upper-right, lower-left, lower-right.
+     */
+    private static final class Quad {
+        private final long minX;
+        private final long minY;
+        private final long width;
+
+        private Quad[] children;
+        private int[] ids;
+        private int[] xs;
+        private int[] ys;
+        private int count; // number of points in this quad and all of its children
+
+        private Quad(long minX, long minY, long width){
+            this.minX = minX;
+            this.minY = minY;
+            this.width = width;
+            children = null;
+            ids = new int[LEAF_CAPACITY];
+            xs = new int[LEAF_CAPACITY];
+            ys = new int[LEAF_CAPACITY];
+            count = 0;
+        }
+
+        private boolean isLeaf(){
+            return children == null;
+        }
+
+        private boolean contains(long x, long y){
+            return x >= minX && y >= minY && x < minX + width && y < minY + width;
+        }
+
+        private int childIndexFor(long x, long y){
+            long half = width / 2;
+            int i = 0;
+            if(x >= minX + half){
+                i += 1;
+            }
+            if(y >= minY + half){
+                i += 2;
+            }
+            return i;
+        }
+
+        /**
+         * @return the squared distance from the given point to the closest
+         * point in this quad. 0 if the point is inside this.
+         */
+        private double distanceSquaredTo(long x, long y){
+            long dx = 0;
+            long dy = 0;
+            if(x < minX){
+                dx = minX - x;
+            } else if(x >= minX + width){
+                dx = x - (minX + width - 1);
+            }
+            if(y < minY){
+                dy = minY - y;
+            } else if(y >= minY + width){
+                dy = y - (minY + width - 1);
+            }
+            return (double)dx * dx + (double)dy * dy;
+        }
+
+        private boolean intersects(long x1, long y1, long x2, long y2){
+            return x1 < minX + width && x2 >= minX && y1 < minY + width && y2 >= minY;
+        }
+    }
+
+    /*
+    Editing
+    */
+
+    final void insert(int id, int x, int y){
+        if(root == null){
+            // start with a small cell around the first point
+            root = new Quad(x - 512L, y - 512L, 1024L);
+        }
+        while(!root.contains(x, y)){
+            growToward(x, y);
+        }
+        insertInto(root, id, x, y);
+        size++;
+    }
+
+    /**
+     * Doubles the size of the tree, keeping the old root as one of the
+     * quadrants of the new one.
+     */
+    private void growToward(long x, long y){
+        Quad old = root;
+        long newMinX = (x < old.minX) ? old.minX - old.width : old.minX;
+        long newMinY = (y < old.minY) ? old.minY - old.width : old.minY;
+        Quad newRoot = new Quad(newMinX, newMinY, old.width * 2);
+        newRoot.count = old.count;
+        newRoot.children = new Quad[4];
+        newRoot.ids = null;
+        newRoot.xs = null;
+        newRoot.ys = null;
+        long half = old.width;
+        long childX;
+        long childY;
+        for(int i = 0; i < 4; i++){
+            childX = newMinX + (((i & 1) == 0) ? 0 : half);
+            childY = newMinY + (((i & 2) == 0) ? 0 : half);
+            newRoot.children[i] = (childX == old.minX && childY == old.minY) ? old : new Quad(childX, childY, half);
+        }
+        root = newRoot;
+    }
+
+    private void insertInto(Quad q, int id, int x, int y){
+        q.count++;
+        while(!q.isLeaf()){
+            q = q.children[q.childIndexFor(x, y)];
+            q.count++;
+        }
+        int inLeaf = leafSize(q);
+        if(inLeaf == q.ids.length){
+            if(q.width > 1){
+                split(q);
+                q.count--; // insertInto counts this again
+                insertInto(q, id, x, y);
+                return;
+            }
+            // every point is in the same spot, so splitting won't help
+            q.ids = Arrays.copyOf(q.ids, inLeaf * 2);
+            q.xs = Arrays.copyOf(q.xs, inLeaf * 2);
+            q.ys = Arrays.copyOf(q.ys, inLeaf * 2);
+        }
+        q.ids[inLeaf] = id;
+        q.xs[inLeaf] = x;
+        q.ys[inLeaf] = y;
+    }
+
+    /**
+     * For a leaf, count already includes the point being inserted,
+     * so the number of stored points is one less
+     */
+    private static int leafSize(Quad leaf){
+        return leaf.count - 1;
+    }
+
+    private void split(Quad q){
+        long half = q.width / 2;
+        q.children = new Quad[]{
+            new Quad(q.minX,        q.minY,        half),
+            new Quad(q.minX + half, q.minY,        half),
+            new Quad(q.minX,        q.minY + half, half),
+            new Quad(q.minX + half, q.minY + half, half)
+        };
+        int stored = leafSize(q);
+        int[] ids = q.ids;
+        int[] xs = q.xs;
+        int[] ys = q.ys;
+        q.ids = null;
+        q.xs = null;
+        q.ys = null;
+        q.count = 1; // the point currently being inserted
+        for(int i = 0; i < stored; i++){
+            insertInto(q, ids[i], xs[i], ys[i]);
+        }
+    }
+
+    /**
+     * Removes a point from the index.
+     *
+     * @param id the id of the node to remove
+     * @param x the x coordinate the node was inserted at
+     * @param y the y coordinate the node was inserted at
+     * @return whether or not the point was found
+     */
+    final boolean remove(int id, int x, int y){
+        if(root == null || !root.contains(x, y) || !removeFrom(root, id, x, y)){
+            return false;
+        }
+        size--;
+        if(size == 0){
+            root = null;
+        }
+        return true;
+    }
+
+    private boolean removeFrom(Quad q, int id, int x, int y){
+        boolean removed = false;
+        if(q.isLeaf()){
+            for(int i = 0; i < q.count && !removed; i++){
+                if(q.ids[i] == id && q.xs[i] == x && q.ys[i] == y){
+                    int last = q.count - 1;
+                    q.ids[i] = q.ids[last];
+                    q.xs[i] = q.xs[last];
+                    q.ys[i] = q.ys[last];
+                    removed = true;
+                }
+            }
+        } else {
+            removed = removeFrom(q.children[q.childIndexFor(x, y)], id, x, y);
+        }
+        if(removed){
+            q.count--;
+            if(!q.isLeaf() && q.count <= LEAF_CAPACITY){
+                merge(q);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Turns a quad back into a leaf once its children are small enough
+     */
+    private void merge(Quad q){
+        int[] ids = new int[LEAF_CAPACITY];
+        int[] xs = new int[LEAF_CAPACITY];
+        int[] ys = new int[LEAF_CAPACITY];
+        int[] n = new int[1];
+        collect(q, ids, xs, ys, n);
+        q.children = null;
+        q.ids = ids;
+        q.xs = xs;
+        q.ys = ys;
+    }
+
+    private void collect(Quad q, int[] ids, int[] xs, int[] ys, int[] n){
+        if(q.isLeaf()){
+            System.arraycopy(q.ids, 0, ids, n[0], q.count);
+            System.arraycopy(q.xs, 0, xs, n[0], q.count);
+            System.arraycopy(q.ys, 0, ys, n[0], q.count);
+            n[0] += q.count;
+        } else {
+            for(Quad child : q.children){
+                collect(child, ids, xs, ys, n);
+            }
+        }
+    }
+
+    final void move(int id, int oldX, int oldY, int newX, int newY){
+        remove(id, oldX, oldY);
+        insert(id, newX, newY);
+    }
+
+    /*
+    Queries
+    */
+
+    /**
+     * @return the number of points in this index
+     */
+    public final int size(){
+        return size;
+    }
+
+    /**
+     * Runs the given action on the id of every node whose coordinates are
+     * within the given rectangle, edges included.
+     *
+     * @param x1 the left edge of the rectangle
+     * @param y1 the top edge of the rectangle
+     * @param x2 the right edge of the rectangle
+     * @param y2 the bottom edge of the rectangle
+     * @param action what to do with each node id
+     */
+    public final void forEachInRect(int x1, int y1, int x2, int y2, IntConsumer action){
+        if(root != null){
+            forEachInRect(root, Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2), action);
+        }
+    }
+
+    private void forEachInRect(Quad q, long x1, long y1, long x2, long y2, IntConsumer action){
+        if(q.count == 0 || !q.intersects(x1, y1, x2, y2)){
+            return;
+        }
+        if(q.isLeaf()){
+            for(int i = 0; i < q.count; i++){
+                if(q.xs[i] >= x1 && q.xs[i] <= x2 && q.ys[i] >= y1 && q.ys[i] <= y2){
+                    action.accept(q.ids[i]);
+                }
+            }
+        } else {
+            for(Quad child : q.children){
+                forEachInRect(child, x1, y1, x2, y2, action);
+            }
+        }
+    }
+
+    /**
+     * Runs the given action on the id of every node within the given
+     * distance of a point.
+     *
+     * @param x the x coordinate of the center of the circle
+     * @param y the y coordinate of the center of the circle
+     * @param radius the radius of the circle
+     * @param action what to do with each node id
+     */
+    public final void forEachInRadius(int x, int y, double radius, IntConsumer action){
+        if(root == null || radius < 0){
+            return;
+        }
+        long r = (long)Math.ceil(radius);
+        forEachInRadius(root, x, y, r, radius * radius, action);
+    }
+
+    private void forEachInRadius(Quad q, long x, long y, long r, double radiusSquared, IntConsumer action){
+        if(q.count == 0 || !q.intersects(x - r, y - r, x + r, y + r)){
+            return;
+        }
+        if(q.isLeaf()){
+            double dx;
+            double dy;
+            for(int i = 0; i < q.count; i++){
+                dx = q.xs[i] - x;
+                dy = q.ys[i] - y;
+                if(dx * dx + dy * dy <= radiusSquared){
+                    action.accept(q.ids[i]);
+                }
+            }
+        } else {
+            for(Quad child : q.children){
+                forEachInRadius(child, x, y, r, radiusSquared, action);
+            }
+        }
+    }
+
+    /**
+     * Finds the nodes closest to a point, using a best-first search of the
+     * tree.
+     *
+     * @param x the x coordinate to search around
+     * @param y the y coordinate to search around
+     * @param k the maximum number of nodes to find
+     * @return the ids of the up to k closest nodes, closest first
+     */
+    public final int[] getNearest(int x, int y, int k){
+        int[] found = new int[Math.max(0, Math.min(k, size))];
+        if(found.length == 0){
+            return found;
+        }
+        // entries are either quads or single points, ordered by distance
+        PriorityQueue<SearchEntry> queue = new PriorityQueue<>();
+        queue.add(new SearchEntry(root, 0, root.distanceSquaredTo(x, y)));
+        int numFound = 0;
+        SearchEntry next;
+        double dx;
+        double dy;
+        while(numFound < found.length && !queue.isEmpty()){
+            next = queue.poll();
+            if(next.quad == null){
+                found[numFound] = next.id;
+                numFound++;
+            } else if(next.quad.isLeaf()){
+                for(int i = 0; i < next.quad.count; i++){
+                    dx = next.quad.xs[i] - x;
+                    dy = next.quad.ys[i] - y;
+                    queue.add(new SearchEntry(null, next.quad.ids[i], dx * dx + dy * dy));
+                }
+            } else {
+                for(Quad child : next.quad.children){
+                    if(child.count > 0){
+                        queue.add(new SearchEntry(child, 0, child.distanceSquaredTo(x, y)));
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private static final class SearchEntry implements Comparable<SearchEntry> {
+        private final Quad quad;
+        private final int id;
+        private final double distanceSquared;
+
+        private SearchEntry(Quad quad, int id, double distanceSquared){
+            this.quad = quad;
+            this.id = id;
+            this.distanceSquared = distanceSquared;
+        }
+
+        @Override
+        public int compareTo(SearchEntry other){
+            return Double.compare(distanceSquared, other.distanceSquared);
+        }
+    }
+}
@@ -0,0 +1,652 @@
+package nodemanager.model;
+
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * A TiledImage is a map image, which may be too large to keep in memory.
+ *
+ * Images with few enough pixels are kept in memory, as a BufferedImage.
+ * Larger ones are left in their file, and only the tiles needed to draw what
+ * is on screen are decoded, using an ImageReader's source region, and its
+ * subsampling when zoomed out, so zoomed out views decode fewer pixels.
+ * Decoded tiles are kept in a cache of a fixed size, which drops the least
+ * recently used tiles first, so a large map is drawn within a fixed amount of
+ * memory, no matter how large it is.
+ *
+ * Tiles are decoded in the background. Until they are ready, a low resolution
+ * overview of the whole image, decoded when the file is opened, is drawn in
+ * their place. Tiles which fail to decode, such as when the file is briefly
+ * unreadable, are drawn from the overview for a few seconds, then tried
+ * again, waiting twice as long after each failure in a row.
+ *
+ * Images in memory get a pyramid of copies at 1/2, 1/4, 1/8... of their
+ * size, each pixel the average of four from the level above, built in the
+ * background the first time the image is drawn. Zoomed out views are drawn
+ * from the smallest level which still has a pixel for every pixel on
+ * screen, rather than from every pixel of the full image, which is both
+ * faster and less aliased.
+ *
+ * @author Matt Crow
+ */
+public class TiledImage {
+    public static final long DEFAULT_MAX_IN_MEMORY_PIXELS = 32L * 1024 * 1024;
+    public static final long DEFAULT_MAX_CACHE_BYTES = 64L * 1024 * 1024;
+    public static final int TILE_SIZE = 512;
+    private static final int OVERVIEW_SIZE = 2048; // the longest side of the overview is at most this
+    private static final int MIN_LEVEL_SIZE = 256; // the pyramid stops once the longest side is this small
+    private static final long MIN_RETRY_MILLIS = 2000; // how long to wait before decoding a tile which failed again
+    private static final long MAX_RETRY_MILLIS = 60000; // each failure in a row doubles the wait, up to this
+
+    private static final ScheduledExecutorService DECODER = Executors.newSingleThreadScheduledExecutor((r)->{
+        Thread t = new Thread(r, "TiledImage decoder");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * When to decode a tile which failed again
+     */
+    private static final class Retry {
+        private final long at;
+        private final long delay; // how long this waited since the failure
+
+        private Retry(long at, long delay){
+            this.at = at;
+            this.delay = delay;
+        }
+    }
+
+    private final BufferedImage image; // null if this is only in its file
+    private final File file;
+    private final String formatName;
+    private final int width;
+    private final int height;
+
+    private final BufferedImage overview;
+    private final int overviewSubsampling;
+
+    private final long maxCacheBytes;
+    private final LinkedHashMap<Long, BufferedImage> tiles; // least recently used first
+    private long cachedBytes;
+    private final HashSet<Long> pending; // tiles waiting to be decoded
+    private final HashMap<Long, Retry> failed; // tiles which couldn't be decoded
+    private Set<Long> wanted; // the tiles the last call to draw needed
+    private long decodeCount;
+
+    private volatile BufferedImage[] levels; // levels[i] is 1 / 2^i the size of image. null until built
+    private boolean levelsRequested;
+    private long levelBuildMillis;
+
+    /**
+     * Keeps the given image in memory.
+     *
+     * @param image the map image
+     */
+    public TiledImage(BufferedImage image){
+        this.image = image;
+        file = null;
+        formatName = null;
+        width = image.getWidth();
+        height = image.getHeight();
+        overview = null;
+        overviewSubsampling = 1;
+        maxCacheBytes = 0;
+        tiles = new LinkedHashMap<>();
+        cachedBytes = 0;
+        pending = new HashSet<>();
+        failed = new HashMap<>();
+        wanted = new HashSet<>();
+        decodeCount = 0;
+        levels = null;
+        levelsRequested = false;
+        levelBuildMillis = 0;
+    }
+
+    private TiledImage(File file, String formatName, int width, int height, long maxCacheBytes) throws IOException {
+        image = null;
+        this.file = file;
+        this.formatName = formatName;
+        this.width = width;
+        this.height = height;
+
+        int subsampling = 1;
+        while(Math.max(width, height) / subsampling > OVERVIEW_SIZE){
+            subsampling *= 2;
+        }
+        overviewSubsampling = subsampling;
+        overview = read(null, subsampling);
+
+        this.maxCacheBytes = maxCacheBytes;
+        tiles = new LinkedHashMap<>(16, 0.75f, true);
+        cachedBytes = 0;
+        pending = new HashSet<>();
+        failed = new HashMap<>();
+        wanted = new HashSet<>();
+        decodeCount = 0;
+        levels = null;
+        levelsRequested = false;
+        levelBuildMillis = 0;
+    }
+
+    /**
+     * Opens an image file. If the image has more than the given number of
+     * pixels, it is left in the file, which shouldn't be moved or deleted
+     * while this is in use.
+     *
+     * This decodes the whole image once, so don't call it from the Swing
+     * thread.
+     *
+     * @param f the image file to open
+     * @param maxInMemoryPixels how many pixels the image can have, and still
+     * be kept in memory
+     * @param maxCacheBytes how much memory decoded tiles can take up
+     * @return the opened image
+     * @throws IOException if f cannot be read, or isn't an image
+     */
+    public static TiledImage open(File f, long maxInMemoryPixels, long maxCacheBytes) throws IOException {
+        int w;
+        int h;
+        String format;
+        try(ImageInputStream in = ImageIO.createImageInputStream(f)){
+            ImageReader reader = readerFor(in, f);
+            try {
+                reader.setInput(in, true, true);
+                w = reader.getWidth(0);
+                h = reader.getHeight(0);
+                format = reader.getFormatName();
+            } finally {
+                reader.dispose();
+            }
+        }
+
+        TiledImage ret;
+        if((long)w * h <= maxInMemoryPixels){
+            BufferedImage buff = ImageIO.read(f);
+            if(buff == null){
+                throw new IOException(f.getName() + " is not an image");
+            }
+            ret = new TiledImage(buff);
+        } else {
+            ret = new TiledImage(f, format, w, h, maxCacheBytes);
+        }
+        return ret;
+    }
+
+    public static TiledImage open(File f) throws IOException {
+        return open(f, DEFAULT_MAX_IN_MEMORY_PIXELS, DEFAULT_MAX_CACHE_BYTES);
+    }
+
+    private static ImageReader readerFor(ImageInputStream in, File f) throws IOException {
+        if(in == null){
+            throw new IOException("Cannot read " + f.getName());
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if(!readers.hasNext()){
+            throw new IOException(f.getName() + " is not an image");
+        }
+        return readers.next();
+    }
+
+    /**
+     * Decodes part of the image file.
+     *
+     * @param source the part to decode, or null to decode all of it
+     * @param subsampling only every this many pixels across and down are decoded
+     * @return the decoded pixels
+     */
+    private BufferedImage read(Rectangle source, int subsampling) throws IOException {
+        try(ImageInputStream in = ImageIO.createImageInputStream(file)){
+            ImageReader reader = readerFor(in, file);
+            try {
+                reader.setInput(in, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                if(source != null){
+                    param.setSourceRegion(source);
+                    reader.addIIOReadUpdateListener(new StopAfterLastRow());
+                }
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Stops an ImageReader once it has decoded every pixel of the last row,
+     * as readers such as the PNG reader otherwise keep decoding the rest of
+     * the file, even when only reading part of it. Interlaced images are
+     * only ever updated a few pixels at a time, so are read to the end.
+     */
+    private static class StopAfterLastRow implements IIOReadUpdateListener {
+        @Override
+        public void passStarted(ImageReader source, BufferedImage theImage, int pass, int minPass, int maxPass, int minX, int minY, int periodX, int periodY, int[] bands){}
+
+        @Override
+        public void imageUpdate(ImageReader source, BufferedImage theImage, int minX, int minY, int width, int height, int periodX, int periodY, int[] bands){
+            if(periodX == 1 && periodY == 1 && minY + height >= theImage.getHeight()){
+                source.abort();
+            }
+        }
+
+        @Override
+        public void passComplete(ImageReader source, BufferedImage theImage){}
+
+        @Override
+        public void thumbnailPassStarted(ImageReader source, BufferedImage theThumbnail, int pass, int minPass, int maxPass, int minX, int minY, int periodX, int periodY, int[] bands){}
+
+        @Override
+        public void thumbnailUpdate(ImageReader source, BufferedImage theThumbnail, int minX, int minY, int width, int height, int periodX, int periodY, int[] bands){}
+
+        @Override
+        public void thumbnailPassComplete(ImageReader source, BufferedImage theThumbnail){}
+    }
+
+    public final int getWidth(){
+        return width;
+    }
+
+    public final int getHeight(){
+        return height;
+    }
+
+    /**
+     * @return this image, or null if it is too large to keep in memory
+     */
+    public final BufferedImage getImage(){
+        return image;
+    }
+
+    /**
+     * @return the Transparency of this image's pixels, such as
+     * Transparency.OPAQUE
+     */
+    public final int getTransparency(){
+        return ((image == null) ? overview : image).getColorModel().getTransparency();
+    }
+
+    /**
+     * @return how much memory decoded tiles are taking up
+     */
+    public final synchronized long getCachedBytes(){
+        return cachedBytes;
+    }
+
+    /**
+     * @return how many times part of the file has been decoded
+     */
+    public final synchronized long getDecodeCount(){
+        return decodeCount;
+    }
+
+    /**
+     * @return how long building the pyramid took, or 0 if it isn't built yet
+     */
+    public final synchronized long getLevelBuildMillis(){
+        return levelBuildMillis;
+    }
+
+    /**
+     * @return how much memory the pyramid is taking up, not counting the
+     * full size image
+     */
+    public final long getLevelBytes(){
+        BufferedImage[] built = levels;
+        long ret = 0;
+        if(built != null){
+            for(int i = 1; i < built.length; i++){
+                ret += sizeOf(built[i]);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return whether the pyramid has been built
+     */
+    public final boolean hasLevels(){
+        return levels != null;
+    }
+
+    /**
+     * @return a summary of how much time and memory this image is taking,
+     * to show the user
+     */
+    public final String getStats(){
+        double mb = 1024 * 1024;
+        BufferedImage[] built = levels;
+        String ret;
+        if(image == null){
+            ret = String.format(
+                "Map image: %d x %d pixels, left in its file. Decoded parts of it %d times, and the decoded tiles use %.1f of %.1f MB.",
+                width, height, getDecodeCount(), getCachedBytes() / mb, maxCacheBytes / mb
+            );
+        } else if(built != null){
+            ret = String.format(
+                "Map image: %d x %d pixels, in memory. Built %d smaller copies in %d ms, which use %.1f MB.",
+                width, height, built.length - 1, getLevelBuildMillis(), getLevelBytes() / mb
+            );
+        } else {
+            ret = String.format("Map image: %d x %d pixels, in memory. No smaller copies are built yet.", width, height);
+        }
+        return ret;
+    }
+
+    /**
+     * Writes this image to a stream. Images which aren't in memory can only
+     * be copied from their file as-is, so must already be in the given
+     * format.
+     *
+     * @param formatName the informal name of the format to write, such as "png"
+     * @param out the stream to write to
+     * @throws IOException if the image cannot be written in that format
+     */
+    public final void writeTo(String formatName, OutputStream out) throws IOException {
+        if(image != null){
+            if(!ImageIO.write(image, formatName, out)){
+                throw new IOException("Cannot write images as " + formatName);
+            }
+        } else if(formatName.equalsIgnoreCase(this.formatName)){
+            Files.copy(file.toPath(), out);
+        } else {
+            throw new IOException(String.format("The map image is too large to convert from %s to %s", this.formatName, formatName));
+        }
+    }
+
+    /*
+    Drawing
+    */
+
+    // tiles are identified by their level of subsampling, row, and column
+    private static long keyOf(int level, int row, int col){
+        return ((long)level << 48) | ((long)row << 24) | col;
+    }
+
+    /**
+     * Draws part of this image, in this image's coordinates. If some of it
+     * isn't decoded yet, it is drawn at a lower resolution for now.
+     *
+     * @param g the graphics context to draw on. Should be scaled by zoom.
+     * @param zoom how much g is scaled by, which decides how much detail to decode
+     * @param region the part of this image to draw
+     * @param onTilesDecoded called on another thread once the tiles or
+     * pyramid which weren't ready yet are
+     */
+    public final void draw(Graphics2D g, double zoom, Rectangle region, Runnable onTilesDecoded){
+        if(image != null){
+            drawLevel(g, zoom, onTilesDecoded);
+            return;
+        }
+
+        int subsampling = subsamplingFor(zoom, overviewSubsampling);
+        if(subsampling >= overviewSubsampling){
+            drawOverview(g);
+            return;
+        }
+
+        int level = Integer.numberOfTrailingZeros(subsampling);
+        int span = TILE_SIZE * subsampling; // how many of this image's pixels a tile covers across and down
+        Rectangle inImage = region.intersection(new Rectangle(0, 0, width, height));
+        if(inImage.isEmpty()){
+            return;
+        }
+        int firstCol = inImage.x / span;
+        int firstRow = inImage.y / span;
+        int lastCol = (inImage.x + inImage.width - 1) / span;
+        int lastRow = (inImage.y + inImage.height - 1) / span;
+
+        ArrayList<Point> missing = new ArrayList<>(); // column and row of each tile to decode
+        ArrayList<BufferedImage> ready = new ArrayList<>();
+        ArrayList<Rectangle> readyBounds = new ArrayList<>();
+        HashSet<Long> needed = new HashSet<>();
+        boolean anyMissing = false;
+        long now = System.currentTimeMillis();
+        synchronized(this){
+            for(int row = firstRow; row <= lastRow; row++){
+                for(int col = firstCol; col <= lastCol; col++){
+                    long key = keyOf(level, row, col);
+                    needed.add(key);
+                    BufferedImage tile = tiles.get(key);
+                    if(tile == null){
+                        anyMissing = true;
+                        Retry retry = failed.get(key);
+                        if(!pending.contains(key) && (retry == null || now >= retry.at)){
+                            missing.add(new Point(col, row));
+                            pending.add(key);
+                        }
+                    } else {
+                        ready.add(tile);
+                        readyBounds.add(new Rectangle(col * span, row * span, tile.getWidth() * subsampling, tile.getHeight() * subsampling));
+                    }
+                }
+            }
+            wanted = needed;
+        }
+
+        if(anyMissing){
+            drawOverview(g);
+        }
+        for(int i = 0; i < ready.size(); i++){
+            Rectangle r = readyBounds.get(i);
+            g.drawImage(ready.get(i), r.x, r.y, r.x + r.width, r.y + r.height, 0, 0, ready.get(i).getWidth(), ready.get(i).getHeight(), null);
+        }
+
+        if(!missing.isEmpty()){
+            DECODER.submit(()->decodeTiles(level, missing, onTilesDecoded));
+        }
+    }
+
+    /**
+     * @param zoom how much this image is scaled by on screen
+     * @param max the most subsampling to allow
+     * @return the most subsampling, as a power of 2, which still leaves a
+     * pixel for every pixel on screen
+     */
+    private static int subsamplingFor(double zoom, int max){
+        int subsampling = 1;
+        while(subsampling < max && subsampling * 2 * zoom <= 1){
+            subsampling *= 2;
+        }
+        return subsampling;
+    }
+
+    private void drawOverview(Graphics2D g){
+        drawSubsampled(g, overview, overviewSubsampling);
+    }
+
+    // draws a copy of this image which is 1 / subsampling its size
+    private static void drawSubsampled(Graphics2D g, BufferedImage smaller, int subsampling){
+        g.drawImage(
+            smaller,
+            0,
+            0,
+            smaller.getWidth() * subsampling,
+            smaller.getHeight() * subsampling,
+            0,
+            0,
+            smaller.getWidth(),
+            smaller.getHeight(),
+            null
+        );
+    }
+
+    /**
+     * Draws the image in memory from the best level of its pyramid, or all
+     * of it if the pyramid isn't built yet, in which case it starts building.
+     */
+    private void drawLevel(Graphics2D g, double zoom, Runnable onLevelsBuilt){
+        BufferedImage[] built = levels;
+        if(built == null){
+            synchronized(this){
+                if(!levelsRequested && Math.max(width, height) > MIN_LEVEL_SIZE){
+                    levelsRequested = true;
+                    DECODER.submit(()->buildLevels(onLevelsBuilt));
+                }
+            }
+            g.drawImage(image, 0, 0, null);
+            return;
+        }
+
+        int subsampling = subsamplingFor(zoom, 1 << (built.length - 1));
+        if(subsampling == 1){
+            g.drawImage(image, 0, 0, null);
+        } else {
+            drawSubsampled(g, built[Integer.numberOfTrailingZeros(subsampling)], subsampling);
+        }
+    }
+
+    /**
+     * Builds the pyramid by halving the image until it is small. Scaling by
+     * exactly 1/2 with bilinear interpolation samples halfway between each
+     * pair of pixels, so each new pixel is the average of four old ones.
+     */
+    private void buildLevels(Runnable onLevelsBuilt){
+        long start = System.currentTimeMillis();
+        ArrayList<BufferedImage> built = new ArrayList<>();
+        built.add(image);
+        int type = (image.getColorModel().getTransparency() == Transparency.OPAQUE) ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+        try {
+            BufferedImage last = image;
+            while(Math.max(last.getWidth(), last.getHeight()) > MIN_LEVEL_SIZE){
+                BufferedImage half = new BufferedImage(Math.max(1, (last.getWidth() + 1) / 2), Math.max(1, (last.getHeight() + 1) / 2), type);
+                Graphics2D g = half.createGraphics();
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.scale(0.5, 0.5);
+                g.drawImage(last, 0, 0, null);
+                g.dispose();
+                built.add(half);
+                last = half;
+            }
+        } catch (OutOfMemoryError ex) {
+            // keep drawing the full image
+            ex.printStackTrace();
+            return;
+        }
+        synchronized(this){
+            levelBuildMillis = System.currentTimeMillis() - start;
+        }
+        levels = built.toArray(new BufferedImage[built.size()]);
+        onLevelsBuilt.run();
+    }
+
+    /**
+     * Decodes some tiles in one read, as most formats can only be decoded
+     * from the top down, so each read is about as slow as decoding everything
+     * above the last row it needs.
+     */
+    private void decodeTiles(int level, ArrayList<Point> toDecode, Runnable onTilesDecoded){
+        synchronized(this){
+            // skip tiles the screen has moved away from
+            toDecode.removeIf((tile)->{
+                long key = keyOf(level, tile.y, tile.x);
+                if(!wanted.contains(key)){
+                    pending.remove(key);
+                    return true;
+                }
+                return false;
+            });
+        }
+        if(toDecode.isEmpty()){
+            return;
+        }
+
+        Rectangle tileBounds = new Rectangle(toDecode.get(0));
+        toDecode.forEach(tileBounds::add);
+        int subsampling = 1 << level;
+        int span = TILE_SIZE * subsampling;
+        Rectangle source = new Rectangle(tileBounds.x * span, tileBounds.y * span, 0, 0);
+        source.width = Math.min((tileBounds.x + tileBounds.width + 1) * span, width) - source.x;
+        source.height = Math.min((tileBounds.y + tileBounds.height + 1) * span, height) - source.y;
+
+        HashSet<Long> decodedKeys = new HashSet<>();
+        long retryDelay = -1; // soonest any tile which failed can be tried again
+        try {
+            BufferedImage decoded = read(source, subsampling);
+            synchronized(this){
+                decodeCount++;
+            }
+            for(Point p : toDecode){
+                int x = (p.x - tileBounds.x) * TILE_SIZE;
+                int y = (p.y - tileBounds.y) * TILE_SIZE;
+                int w = Math.min(TILE_SIZE, decoded.getWidth() - x);
+                int h = Math.min(TILE_SIZE, decoded.getHeight() - y);
+                BufferedImage tile = new BufferedImage(
+                    decoded.getColorModel(),
+                    decoded.getRaster().createCompatibleWritableRaster(w, h),
+                    decoded.isAlphaPremultiplied(),
+                    null
+                );
+                decoded.getSubimage(x, y, w, h).copyData(tile.getRaster());
+                cache(keyOf(level, p.y, p.x), tile);
+                decodedKeys.add(keyOf(level, p.y, p.x));
+            }
+        } catch (IOException | RuntimeException ex) {
+            ex.printStackTrace();
+        } finally {
+            long now = System.currentTimeMillis();
+            synchronized(this){
+                for(Point p : toDecode){
+                    long key = keyOf(level, p.y, p.x);
+                    pending.remove(key);
+                    Retry last = failed.remove(key);
+                    if(!decodedKeys.contains(key)){
+                        long delay = (last == null) ? MIN_RETRY_MILLIS : Math.min(last.delay * 2, MAX_RETRY_MILLIS);
+                        failed.put(key, new Retry(now + delay, delay));
+                        retryDelay = (retryDelay < 0) ? delay : Math.min(retryDelay, delay);
+                    }
+                }
+            }
+        }
+        onTilesDecoded.run();
+        if(retryDelay >= 0){
+            // draw again once they can be retried, which asks for any still on screen
+            DECODER.schedule(onTilesDecoded, retryDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void cache(long key, BufferedImage tile){
+        BufferedImage old = tiles.put(key, tile);
+        if(old != null){
+            cachedBytes -= sizeOf(old);
+        }
+        cachedBytes += sizeOf(tile);
+
+        // tiles on screen are kept even if over budget, else they would be decoded again and again
+        Iterator<Map.Entry<Long, BufferedImage>> it = tiles.entrySet().iterator();
+        while(cachedBytes > maxCacheBytes && it.hasNext()){
+            Map.Entry<Long, BufferedImage> oldest = it.next();
+            if(oldest.getKey() != key && !wanted.contains(oldest.getKey())){
+                cachedBytes -= sizeOf(oldest.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    private static long sizeOf(BufferedImage tile){
+        return (long)tile.getWidth() * tile.getHeight() * tile.getColorModel().getPixelSize() / 8;
+    }
+}
@@ -24,8 +24,7 @@ public class ModeMove extends AbstractMode {
     public AbstractMode mapImageClicked(MapImage mapImage, MouseEvent me) {
         NodeIcon mapIcon = mapImage.getIcon(movingNode.getId());
         Point newCoords = mapImage.mouseClickToNodeSpace(me.getPoint());
-        movingNode.setX(newCoords.x);
-        movingNode.setY(newCoords.y);
+        mapImage.getGraph().moveNode(movingNode.getId(), newCoords.x, newCoords.y);
         
         Point iconCoords = mapImage.nodeCoordToMapSpace(newCoords);
         mapIcon.setPos(
@@ -0,0 +1,480 @@
+package nodemanager.routing;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A ContractionHierarchy is a preprocessed form of a RoutingGraph which can
+ * answer shortest-distance queries much faster than Dijkstra's algorithm.
+ *
+ * Nodes are contracted one at a time, least important first. Contracting a
+ * node removes it from the graph, adding a shortcut between any two of its
+ * neighbors whose shortest route went through it. The order nodes are
+ * contracted in is their rank. A query then only needs to search upward, from
+ * lower to higher rank, from both ends at once.
+ *
+ * Wayfinding clients can use the ranks and shortcuts this produces to do the
+ * same, rather than run Dijkstra over the raw connections.
+ *
+ * @author Matt Crow
+ */
+public class ContractionHierarchy {
+    /*
+    Witness searches give up after settling this many nodes. Giving up early
+    only adds shortcuts that weren't strictly needed, so it never makes routes
+    wrong. Estimating priorities only needs a rough count, so it gives up
+    sooner than actually contracting does.
+    */
+    private static final int WITNESS_SETTLE_LIMIT = 256;
+    private static final int ESTIMATE_SETTLE_LIMIT = 32;
+
+    private final RoutingGraph routingGraph;
+    private final int[] ranks; // index -> rank
+
+    // upward edges, in CSR form, indexed by RoutingGraph index
+    private final int[] upOffsets;
+    private final int[] upTargets;
+    private final double[] upLengths;
+
+    // shortcuts, as RoutingGraph indices
+    private final int[] shortcutFrom;
+    private final int[] shortcutTo;
+    private final int[] shortcutVia;
+    private final double[] shortcutLength;
+
+    // query work arrays
+    private final double[] forwardDist;
+    private final double[] backwardDist;
+    private final int[] forwardIn;
+    private final int[] backwardIn;
+    private final IntDoubleHeap forwardQueue;
+    private final IntDoubleHeap backwardQueue;
+    private int queryNumber;
+
+    private ContractionHierarchy(RoutingGraph rg, Builder b){
+        routingGraph = rg;
+        ranks = b.ranks;
+        int n = rg.getNodeCount();
+
+        upOffsets = new int[n + 1];
+        for(int i = 0; i < n; i++){
+            upOffsets[i + 1] = upOffsets[i] + b.upSizes[i];
+        }
+        upTargets = new int[upOffsets[n]];
+        upLengths = new double[upOffsets[n]];
+        for(int i = 0; i < n; i++){
+            System.arraycopy(b.upNeighbors[i], 0, upTargets, upOffsets[i], b.upSizes[i]);
+            System.arraycopy(b.upWeights[i], 0, upLengths, upOffsets[i], b.upSizes[i]);
+        }
+
+        int numShortcuts = b.numShortcuts;
+        shortcutFrom = Arrays.copyOf(b.shortcutFrom, numShortcuts);
+        shortcutTo = Arrays.copyOf(b.shortcutTo, numShortcuts);
+        shortcutVia = Arrays.copyOf(b.shortcutVia, numShortcuts);
+        shortcutLength = Arrays.copyOf(b.shortcutLength, numShortcuts);
+
+        forwardDist = new double[n];
+        backwardDist = new double[n];
+        forwardIn = new int[n];
+        backwardIn = new int[n];
+        forwardQueue = new IntDoubleHeap(64);
+        backwardQueue = new IntDoubleHeap(64);
+        queryNumber = 0;
+    }
+
+    /**
+     * Contracts every node in the given snapshot
+     *
+     * @param rg the snapshot to preprocess
+     * @return the resulting hierarchy
+     */
+    public static ContractionHierarchy build(RoutingGraph rg){
+        Builder b = new Builder(rg);
+        b.contractAll();
+        return new ContractionHierarchy(rg, b);
+    }
+
+    public final RoutingGraph getRoutingGraph(){
+        return routingGraph;
+    }
+
+    /**
+     * @param index the RoutingGraph index of a node
+     * @return the rank of that node. Nodes with a higher rank were contracted later.
+     */
+    public final int getRankAt(int index){
+        return ranks[index];
+    }
+
+    public final int getShortcutCount(){
+        return shortcutFrom.length;
+    }
+
+    /*
+    Shortcuts are numbered 0 to getShortcutCount() - 1, and refer to nodes by
+    their RoutingGraph index. Shortcuts are undirected.
+    */
+
+    public final int getShortcutFrom(int shortcut){
+        return shortcutFrom[shortcut];
+    }
+
+    public final int getShortcutTo(int shortcut){
+        return shortcutTo[shortcut];
+    }
+
+    /**
+     * @return the node the shortcut skips over
+     */
+    public final int getShortcutVia(int shortcut){
+        return shortcutVia[shortcut];
+    }
+
+    public final double getShortcutLength(int shortcut){
+        return shortcutLength[shortcut];
+    }
+
+    /**
+     * Finds the length of the shortest route between two nodes, using a
+     * bidirectional search that only goes up the hierarchy. This is not
+     * thread-safe.
+     *
+     * @param fromIndex the RoutingGraph index of the start node
+     * @param toIndex the RoutingGraph index of the end node
+     * @return the length of the shortest route, or positive infinity if there is none
+     */
+    public final double findDistance(int fromIndex, int toIndex){
+        queryNumber++;
+        if(queryNumber == Integer.MAX_VALUE){
+            Arrays.fill(forwardIn, 0);
+            Arrays.fill(backwardIn, 0);
+            queryNumber = 1;
+        }
+        forwardQueue.clear();
+        backwardQueue.clear();
+
+        forwardIn[fromIndex] = queryNumber;
+        forwardDist[fromIndex] = 0.0;
+        forwardQueue.push(fromIndex, 0.0);
+        backwardIn[toIndex] = queryNumber;
+        backwardDist[toIndex] = 0.0;
+        backwardQueue.push(toIndex, 0.0);
+
+        double best = Double.POSITIVE_INFINITY;
+        boolean forwardDone = false;
+        boolean backwardDone = false;
+        while(!forwardDone || !backwardDone){
+            forwardDone = forwardDone || forwardQueue.isEmpty() || forwardQueue.peekKey() >= best;
+            if(!forwardDone){
+                best = searchStep(forwardQueue, forwardDist, forwardIn, backwardDist, backwardIn, best);
+            }
+            backwardDone = backwardDone || backwardQueue.isEmpty() || backwardQueue.peekKey() >= best;
+            if(!backwardDone){
+                best = searchStep(backwardQueue, backwardDist, backwardIn, forwardDist, forwardIn, best);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Settles one node in one direction of a query
+     * @return the new shortest known distance
+     */
+    private double searchStep(IntDoubleHeap queue, double[] dist, int[] in, double[] otherDist, int[] otherIn, double best){
+        double currentDist = queue.peekKey();
+        int current = queue.pop();
+        if(currentDist > dist[current]){
+            return best; // stale
+        }
+        if(otherIn[current] == queryNumber && currentDist + otherDist[current] < best){
+            best = currentDist + otherDist[current];
+        }
+        int next;
+        double nextDist;
+        /*
+        stall-on-demand: if a higher node already reached by this search has
+        a shorter route down to this one, no shortest route goes through here
+        */
+        for(int edge = upOffsets[current]; edge < upOffsets[current + 1]; edge++){
+            next = upTargets[edge];
+            if(in[next] == queryNumber && dist[next] + upLengths[edge] < currentDist){
+                return best;
+            }
+        }
+        for(int edge = upOffsets[current]; edge < upOffsets[current + 1]; edge++){
+            next = upTargets[edge];
+            nextDist = currentDist + upLengths[edge];
+            if(in[next] != queryNumber || nextDist < dist[next]){
+                in[next] = queryNumber;
+                dist[next] = nextDist;
+                queue.push(next, nextDist);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Holds the graph while it is being contracted
+     */
+    private static final class Builder {
+        private final int n;
+
+        // the remaining graph. Contracted neighbors are removed lazily
+        private final int[][] neighbors;
+        private final double[][] weights;
+        private final int[] sizes;
+        private final boolean[] contracted;
+        private final int[] contractedNeighbors;
+        private final int[] levels; // how far each node is from the bottom of the hierarchy
+
+        // the output
+        private final int[] ranks;
+        private final int[][] upNeighbors;
+        private final double[][] upWeights;
+        private final int[] upSizes;
+        private int[] shortcutFrom;
+        private int[] shortcutTo;
+        private int[] shortcutVia;
+        private double[] shortcutLength;
+        private int numShortcuts;
+        private final HashMap<Long, Integer> shortcutIndex; // pair of nodes -> their latest shortcut
+
+        // witness search work arrays
+        private final double[] witnessDist;
+        private final int[] witnessIn;
+        private final IntDoubleHeap witnessQueue;
+        private int witnessNumber;
+
+        private Builder(RoutingGraph rg){
+            n = rg.getNodeCount();
+            neighbors = new int[n][];
+            weights = new double[n][];
+            sizes = new int[n];
+            contracted = new boolean[n];
+            contractedNeighbors = new int[n];
+            levels = new int[n];
+            for(int i = 0; i < n; i++){
+                int degree = rg.getFirstEdge(i + 1) - rg.getFirstEdge(i);
+                neighbors[i] = new int[Math.max(degree, 2)];
+                weights[i] = new double[neighbors[i].length];
+                for(int edge = rg.getFirstEdge(i); edge < rg.getFirstEdge(i + 1); edge++){
+                    setEdge(i, rg.getEdgeTarget(edge), rg.getEdgeLength(edge));
+                }
+            }
+
+            ranks = new int[n];
+            upNeighbors = new int[n][];
+            upWeights = new double[n][];
+            upSizes = new int[n];
+            shortcutFrom = new int[16];
+            shortcutTo = new int[16];
+            shortcutVia = new int[16];
+            shortcutLength = new double[16];
+            numShortcuts = 0;
+            shortcutIndex = new HashMap<>();
+
+            witnessDist = new double[n];
+            witnessIn = new int[n];
+            witnessQueue = new IntDoubleHeap(64);
+            witnessNumber = 0;
+        }
+
+        /**
+         * Adds or shortens the edge from one node to another
+         * @return whether or not the edge was added or shortened
+         */
+        private boolean setEdge(int from, int to, double weight){
+            for(int i = 0; i < sizes[from]; i++){
+                if(neighbors[from][i] == to){
+                    if(weight < weights[from][i]){
+                        weights[from][i] = weight;
+                        return true;
+                    }
+                    return false;
+                }
+            }
+            if(sizes[from] == neighbors[from].length){
+                neighbors[from] = Arrays.copyOf(neighbors[from], sizes[from] * 2);
+                weights[from] = Arrays.copyOf(weights[from], sizes[from] * 2);
+            }
+            neighbors[from][sizes[from]] = to;
+            weights[from][sizes[from]] = weight;
+            sizes[from]++;
+            return true;
+        }
+
+        /**
+         * Drops contracted nodes from a node's neighbors
+         */
+        private void pruneNeighbors(int node){
+            int kept = 0;
+            for(int i = 0; i < sizes[node]; i++){
+                if(!contracted[neighbors[node][i]]){
+                    neighbors[node][kept] = neighbors[node][i];
+                    weights[node][kept] = weights[node][i];
+                    kept++;
+                }
+            }
+            sizes[node] = kept;
+        }
+
+        private void contractAll(){
+            IntDoubleHeap queue = new IntDoubleHeap(n);
+            for(int i = 0; i < n; i++){
+                queue.push(i, priorityOf(i));
+            }
+
+            int rank = 0;
+            int node;
+            double priority;
+            int neighbor;
+            while(!queue.isEmpty()){
+                node = queue.pop();
+                // lazy update: the priority may have changed since it was queued
+                priority = priorityOf(node);
+                if(!queue.isEmpty() && priority > queue.peekKey()){
+                    queue.push(node, priority);
+                    continue;
+                }
+                contract(node, true);
+                ranks[node] = rank;
+                rank++;
+
+                for(int i = 0; i < upSizes[node]; i++){
+                    neighbor = upNeighbors[node][i];
+                    levels[neighbor] = Math.max(levels[neighbor], levels[node] + 1);
+                }
+            }
+        }
+
+        /**
+         * Lower priorities are contracted first. Prefers nodes which add few
+         * shortcuts, and spreads contraction out by penalizing nodes whose
+         * neighbors have already been contracted, and nodes which are already
+         * high in the hierarchy.
+         */
+        private double priorityOf(int node){
+            pruneNeighbors(node);
+            int shortcuts = contract(node, false);
+            return 2 * (shortcuts - sizes[node]) + contractedNeighbors[node] + levels[node];
+        }
+
+        /**
+         * Finds, and optionally adds, the shortcuts needed to remove a node
+         *
+         * @param node the node to contract
+         * @param apply whether to actually contract the node, or just count shortcuts
+         * @return the number of shortcuts needed
+         */
+        private int contract(int node, boolean apply){
+            pruneNeighbors(node);
+            int degree = sizes[node];
+            int[] adj = Arrays.copyOf(neighbors[node], degree);
+            double[] adjWeights = Arrays.copyOf(weights[node], degree);
+
+            if(apply){
+                upNeighbors[node] = adj;
+                upWeights[node] = adjWeights;
+                upSizes[node] = degree;
+                contracted[node] = true;
+            }
+
+            int shortcuts = 0;
+            double maxWeight;
+            double viaLength;
+            // the last neighbor has already been paired with every other one
+            for(int i = 0; i < degree - 1; i++){
+                maxWeight = 0.0;
+                for(int j = i + 1; j < degree; j++){
+                    maxWeight = Math.max(maxWeight, adjWeights[i] + adjWeights[j]);
+                }
+                witnessSearch(adj[i], node, maxWeight, (apply) ? WITNESS_SETTLE_LIMIT : ESTIMATE_SETTLE_LIMIT);
+                for(int j = i + 1; j < degree; j++){
+                    viaLength = adjWeights[i] + adjWeights[j];
+                    if(witnessIn[adj[j]] != witnessNumber || witnessDist[adj[j]] > viaLength){
+                        shortcuts++;
+                        if(apply){
+                            addShortcut(adj[i], adj[j], node, viaLength);
+                        }
+                    }
+                }
+            }
+
+            if(apply){
+                for(int i = 0; i < degree; i++){
+                    contractedNeighbors[adj[i]]++;
+                }
+            }
+            return shortcuts;
+        }
+
+        /**
+         * Runs a limited Dijkstra from start, ignoring the node being
+         * contracted, to find routes which make shortcuts unnecessary
+         */
+        private void witnessSearch(int start, int ignore, double maxDist, int settleLimit){
+            witnessNumber++;
+            witnessQueue.clear();
+            witnessIn[start] = witnessNumber;
+            witnessDist[start] = 0.0;
+            witnessQueue.push(start, 0.0);
+
+            int settled = 0;
+            int current;
+            double currentDist;
+            int next;
+            double nextDist;
+            while(!witnessQueue.isEmpty() && settled < settleLimit){
+                currentDist = witnessQueue.peekKey();
+                current = witnessQueue.pop();
+                if(currentDist > witnessDist[current]){
+                    continue;
+                }
+                settled++;
+                for(int i = 0; i < sizes[current]; i++){
+                    next = neighbors[current][i];
+                    if(next == ignore || contracted[next]){
+                        continue;
+                    }
+                    nextDist = currentDist + weights[current][i];
+                    if(nextDist <= maxDist && (witnessIn[next] != witnessNumber || nextDist < witnessDist[next])){
+                        witnessIn[next] = witnessNumber;
+                        witnessDist[next] = nextDist;
+                        witnessQueue.push(next, nextDist);
+                    }
+                }
+            }
+        }
+
+        private void addShortcut(int from, int to, int via, double length){
+            boolean shorter = setEdge(from, to, length);
+            setEdge(to, from, length);
+            if(!shorter){
+                return; // an existing edge was already as short
+            }
+            long key = (from < to)
+                ? (((long)from) << 32) | (to & 0xffffffffL)
+                : (((long)to) << 32) | (from & 0xffffffffL);
+            Integer existing = shortcutIndex.get(key);
+            int index;
+            if(existing == null){
+                if(numShortcuts == shortcutFrom.length){
+                    int newLength = numShortcuts * 2;
+                    shortcutFrom = Arrays.copyOf(shortcutFrom, newLength);
+                    shortcutTo = Arrays.copyOf(shortcutTo, newLength);
+                    shortcutVia = Arrays.copyOf(shortcutVia, newLength);
+                    shortcutLength = Arrays.copyOf(shortcutLength, newLength);
+                }
+                index = numShortcuts;
+                numShortcuts++;
+                shortcutIndex.put(key, index);
+            } else {
+                index = existing;
+            }
+            shortcutFrom[index] = from;
+            shortcutTo[index] = to;
+            shortcutVia[index] = via;
+            shortcutLength[index] = length;
+        }
+    }
+}
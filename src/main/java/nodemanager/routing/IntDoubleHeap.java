@@ -0,0 +1,89 @@
+package nodemanager.routing;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of int values ordered by double keys, stored in two
+ * primitive arrays so pushing and popping never boxes anything.
+ * 
+ * There is no decrease-key operation: searches push a value again with its
+ * smaller key, and skip the stale entry when it is popped later.
+ * 
+ * @author Matt Crow
+ */
+final class IntDoubleHeap {
+    private double[] keys;
+    private int[] values;
+    private int size;
+    
+    IntDoubleHeap(int initialCapacity){
+        keys = new double[Math.max(initialCapacity, 16)];
+        values = new int[keys.length];
+        size = 0;
+    }
+    
+    final void clear(){
+        size = 0;
+    }
+    
+    final boolean isEmpty(){
+        return size == 0;
+    }
+    
+    final void push(int value, double key){
+        if(size == keys.length){
+            keys = Arrays.copyOf(keys, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        int i = size;
+        size++;
+        int parent;
+        while(i > 0){
+            parent = (i - 1) >>> 1;
+            if(keys[parent] <= key){
+                break;
+            }
+            keys[i] = keys[parent];
+            values[i] = values[parent];
+            i = parent;
+        }
+        keys[i] = key;
+        values[i] = value;
+    }
+    
+    /**
+     * @return the key of the smallest entry. The heap must not be empty.
+     */
+    final double peekKey(){
+        return keys[0];
+    }
+    
+    /**
+     * Removes the entry with the smallest key. The heap must not be empty.
+     * @return the value of the removed entry
+     */
+    final int pop(){
+        int ret = values[0];
+        size--;
+        if(size > 0){
+            double key = keys[size];
+            int value = values[size];
+            int i = 0;
+            int child;
+            while((child = 2 * i + 1) < size){
+                if(child + 1 < size && keys[child + 1] < keys[child]){
+                    child++;
+                }
+                if(key <= keys[child]){
+                    break;
+                }
+                keys[i] = keys[child];
+                values[i] = values[child];
+                i = child;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,69 @@
+package nodemanager.routing;
+
+import java.util.Arrays;
+
+/**
+ * A Route is the result of searching for a path between two nodes.
+ * 
+ * @author Matt Crow
+ */
+public class Route {
+    private final int[] nodeIds;
+    private final double length;
+    
+    /**
+     * @param nodeIds the ids of the nodes along the route, starting at the
+     * start and ending at the destination. Empty if there is no route.
+     * @param length the total length of the route
+     */
+    public Route(int[] nodeIds, double length){
+        this.nodeIds = nodeIds;
+        this.length = length;
+    }
+    
+    /**
+     * @return a Route representing there being no path between two nodes
+     */
+    public static Route none(){
+        return new Route(new int[0], Double.POSITIVE_INFINITY);
+    }
+    
+    /**
+     * @return whether or not a path was found
+     */
+    public final boolean exists(){
+        return nodeIds.length > 0;
+    }
+    
+    /**
+     * @return the ids of the nodes along this route, in order
+     */
+    public final int[] getNodeIds(){
+        return Arrays.copyOf(nodeIds, nodeIds.length);
+    }
+    
+    /**
+     * @return the sum of the lengths of the connections this route uses,
+     * or positive infinity if there is no route
+     */
+    public final double getLength(){
+        return length;
+    }
+    
+    @Override
+    public String toString(){
+        StringBuilder sb = new StringBuilder();
+        if(exists()){
+            sb.append(String.format("Route of length %.2f: ", length));
+            for(int i = 0; i < nodeIds.length; i++){
+                if(i != 0){
+                    sb.append(" -> ");
+                }
+                sb.append(nodeIds[i]);
+            }
+        } else {
+            sb.append("No route");
+        }
+        return sb.toString();
+    }
+}
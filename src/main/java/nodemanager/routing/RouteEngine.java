@@ -0,0 +1,215 @@
+package nodemanager.routing;
+
+import java.util.Arrays;
+import nodemanager.model.Graph;
+import nodemanager.model.Node;
+
+/**
+ * The RouteEngine finds the shortest route between two nodes in a Graph using
+ * A*, with the straight-line distance to the destination as its heuristic.
+ * Since connections are as long as the straight line between their nodes,
+ * this heuristic never overestimates, so the routes found are optimal.
+ * 
+ * The engine searches a RoutingGraph snapshot, and keeps its work arrays
+ * between queries, so searching allocates almost nothing. This also means a
+ * RouteEngine must not be shared between threads.
+ * 
+ * @author Matt Crow
+ */
+public class RouteEngine {
+    private final Graph graph;
+    private final RoutingGraph routingGraph;
+    
+    // work arrays, reused between searches
+    private final double[] distances;
+    private final int[] previous;
+    private final int[] visitedIn; // the search a node's distance was set in. Saves clearing distances
+    private final int[] targetIn; // the search a node was a target of
+    private final IntDoubleHeap open;
+    private int searchNumber;
+    
+    /**
+     * Takes a snapshot of the given Graph, then sets up the engine to search it.
+     * @param g the graph to search
+     */
+    public RouteEngine(Graph g){
+        this(g, RoutingGraph.fromGraph(g));
+    }
+    
+    /**
+     * @param g the graph to look labels up in. May be null if this won't be
+     * searching by label.
+     * @param routingGraph a snapshot of g to search
+     */
+    public RouteEngine(Graph g, RoutingGraph routingGraph){
+        graph = g;
+        this.routingGraph = routingGraph;
+        int n = routingGraph.getNodeCount();
+        distances = new double[n];
+        previous = new int[n];
+        visitedIn = new int[n];
+        targetIn = new int[n];
+        open = new IntDoubleHeap(1024);
+        searchNumber = 0;
+    }
+    
+    public final RoutingGraph getRoutingGraph(){
+        return routingGraph;
+    }
+    
+    /**
+     * Finds the shortest route between two labeled nodes
+     * 
+     * @param fromLabel a label of the node to start at
+     * @param toLabel a label of the node to end at
+     * @return the shortest route between the two nodes
+     * @throws IllegalArgumentException if either label doesn't belong to a node
+     */
+    public final Route findRoute(String fromLabel, String toLabel){
+        Node from = graph.getNodeByLabel(fromLabel);
+        Node to = graph.getNodeByLabel(toLabel);
+        if(from == null){
+            throw new IllegalArgumentException(String.format("No node has label '%s'", fromLabel));
+        }
+        if(to == null){
+            throw new IllegalArgumentException(String.format("No node has label '%s'", toLabel));
+        }
+        return findRoute(from.getId(), to.getId());
+    }
+    
+    /**
+     * Finds the shortest route between two nodes
+     * 
+     * @param fromId the id of the node to start at
+     * @param toId the id of the node to end at
+     * @return the shortest route between the two nodes
+     * @throws IllegalArgumentException if either node doesn't exist
+     */
+    public final Route findRoute(int fromId, int toId){
+        int start = routingGraph.indexOf(fromId);
+        int end = routingGraph.indexOf(toId);
+        if(start == -1){
+            throw new IllegalArgumentException(String.format("Couldn't find node with id %d", fromId));
+        }
+        if(end == -1){
+            throw new IllegalArgumentException(String.format("Couldn't find node with id %d", toId));
+        }
+        
+        beginSearch();
+        setDistance(start, 0.0, -1);
+        open.push(start, routingGraph.distanceBetween(start, end));
+        
+        boolean found = false;
+        int current;
+        double currentDist;
+        int next;
+        double nextDist;
+        int lastEdge;
+        while(!open.isEmpty() && !found){
+            double estimate = open.peekKey();
+            current = open.pop();
+            currentDist = distances[current];
+            if(estimate > currentDist + routingGraph.distanceBetween(current, end)){
+                continue; // stale entry, already reached more cheaply
+            }
+            if(current == end){
+                found = true;
+            } else {
+                lastEdge = routingGraph.getFirstEdge(current + 1);
+                for(int edge = routingGraph.getFirstEdge(current); edge < lastEdge; edge++){
+                    next = routingGraph.getEdgeTarget(edge);
+                    nextDist = currentDist + routingGraph.getEdgeLength(edge);
+                    if(visitedIn[next] != searchNumber || nextDist < distances[next]){
+                        setDistance(next, nextDist, current);
+                        open.push(next, nextDist + routingGraph.distanceBetween(next, end));
+                    }
+                }
+            }
+        }
+        
+        return (found) ? buildRoute(end) : Route.none();
+    }
+    
+    /**
+     * Finds the length of the shortest route from one node to each of the
+     * given nodes, using Dijkstra's algorithm. The search stops as soon as
+     * every target has been reached.
+     * 
+     * @param fromIndex the RoutingGraph index of the node to start at
+     * @param targetIndices the RoutingGraph indices of the nodes to measure to
+     * @param out where to write the distances. out[outOffset + i] is set to
+     * the distance to targetIndices[i], or positive infinity if it can't be reached.
+     * @param outOffset where in out to start writing
+     */
+    public final void findDistances(int fromIndex, int[] targetIndices, double[] out, int outOffset){
+        beginSearch();
+        int remaining = 0;
+        for(int target : targetIndices){
+            if(targetIn[target] != searchNumber){
+                targetIn[target] = searchNumber;
+                remaining++;
+            }
+        }
+        
+        setDistance(fromIndex, 0.0, -1);
+        open.push(fromIndex, 0.0);
+        
+        int current;
+        double currentDist;
+        int next;
+        double nextDist;
+        int lastEdge;
+        while(!open.isEmpty() && remaining > 0){
+            currentDist = open.peekKey();
+            current = open.pop();
+            if(currentDist > distances[current]){
+                continue; // stale entry
+            }
+            if(targetIn[current] == searchNumber){
+                remaining--;
+            }
+            lastEdge = routingGraph.getFirstEdge(current + 1);
+            for(int edge = routingGraph.getFirstEdge(current); edge < lastEdge; edge++){
+                next = routingGraph.getEdgeTarget(edge);
+                nextDist = currentDist + routingGraph.getEdgeLength(edge);
+                if(visitedIn[next] != searchNumber || nextDist < distances[next]){
+                    setDistance(next, nextDist, current);
+                    open.push(next, nextDist);
+                }
+            }
+        }
+        
+        for(int i = 0; i < targetIndices.length; i++){
+            out[outOffset + i] = (visitedIn[targetIndices[i]] == searchNumber) ? distances[targetIndices[i]] : Double.POSITIVE_INFINITY;
+        }
+    }
+    
+    private void beginSearch(){
+        open.clear();
+        searchNumber++;
+        if(searchNumber == Integer.MAX_VALUE){
+            Arrays.fill(visitedIn, 0);
+            Arrays.fill(targetIn, 0);
+            searchNumber = 1;
+        }
+    }
+    
+    private void setDistance(int index, double distance, int from){
+        visitedIn[index] = searchNumber;
+        distances[index] = distance;
+        previous[index] = from;
+    }
+    
+    private Route buildRoute(int end){
+        int length = 0;
+        for(int i = end; i != -1; i = previous[i]){
+            length++;
+        }
+        int[] path = new int[length];
+        for(int i = end; i != -1; i = previous[i]){
+            length--;
+            path[length] = routingGraph.getIdAt(i);
+        }
+        return new Route(path, distances[end]);
+    }
+}
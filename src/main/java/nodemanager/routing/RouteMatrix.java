@@ -0,0 +1,186 @@
+package nodemanager.routing;
+
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import static nodemanager.io.StreamReaderUtil.NEWLINE;
+
+/**
+ * A RouteMatrix holds the length of the shortest route from each of a set of
+ * source nodes to each of a set of target nodes.
+ * 
+ * Each row of the matrix takes one single-source search, so computing it fans
+ * the rows out over a ForkJoinPool. Each worker thread gets its own
+ * RouteEngine, and reuses its work arrays for every row it computes.
+ * 
+ * @author Matt Crow
+ */
+public class RouteMatrix {
+    private static final int BINARY_MAGIC = 0x57464d58; // "WFMX"
+    private static final int BINARY_VERSION = 1;
+    
+    private final int[] sourceIds;
+    private final int[] targetIds;
+    private final double[] distances; // row-major: distances[source * targetIds.length + target]
+    
+    private RouteMatrix(int[] sourceIds, int[] targetIds, double[] distances){
+        this.sourceIds = sourceIds;
+        this.targetIds = targetIds;
+        this.distances = distances;
+    }
+    
+    /**
+     * Computes a RouteMatrix using one worker thread per available processor.
+     * 
+     * @see RouteMatrix#compute(RoutingGraph, int[], int[], int)
+     */
+    public static RouteMatrix compute(RoutingGraph rg, int[] sourceIds, int[] targetIds){
+        return compute(rg, sourceIds, targetIds, Runtime.getRuntime().availableProcessors());
+    }
+    
+    /**
+     * Computes the distance from every source to every target. Since routes
+     * are undirected, it is fastest to pass the smaller set as the sources.
+     * 
+     * @param rg the snapshot to search
+     * @param sourceIds the ids of the nodes to start from. Each becomes a row.
+     * @param targetIds the ids of the nodes to measure to. Each becomes a column.
+     * @param parallelism how many worker threads to use
+     * @return the computed matrix
+     * @throws IllegalArgumentException if any of the ids aren't in rg
+     */
+    public static RouteMatrix compute(RoutingGraph rg, int[] sourceIds, int[] targetIds, int parallelism){
+        int[] sourceIndices = toIndices(rg, sourceIds);
+        int[] targetIndices = toIndices(rg, targetIds);
+        double[] distances = new double[sourceIds.length * targetIds.length];
+        
+        ThreadLocal<RouteEngine> engines = ThreadLocal.withInitial(()->new RouteEngine(null, rg));
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            // running a parallel stream from inside the pool keeps it in the pool
+            pool.submit(()->{
+                IntStream.range(0, sourceIndices.length).parallel().forEach((row)->{
+                    engines.get().findDistances(sourceIndices[row], targetIndices, distances, row * targetIndices.length);
+                });
+            }).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        
+        return new RouteMatrix(sourceIds.clone(), targetIds.clone(), distances);
+    }
+    
+    private static int[] toIndices(RoutingGraph rg, int[] ids){
+        int[] indices = new int[ids.length];
+        for(int i = 0; i < ids.length; i++){
+            indices[i] = rg.indexOf(ids[i]);
+            if(indices[i] == -1){
+                throw new IllegalArgumentException(String.format("Couldn't find node with id %d", ids[i]));
+            }
+        }
+        return indices;
+    }
+    
+    public final int getSourceCount(){
+        return sourceIds.length;
+    }
+    
+    public final int getTargetCount(){
+        return targetIds.length;
+    }
+    
+    /**
+     * @param row which source to get the distance from
+     * @param column which target to get the distance to
+     * @return the length of the shortest route between them, or positive
+     * infinity if there is no route.
+     */
+    public final double getDistance(int row, int column){
+        return distances[row * targetIds.length + column];
+    }
+    
+    /**
+     * Writes this as a CSV file, labeling the rows and columns with node ids.
+     * 
+     * @param out the stream to write to
+     * @throws IOException if the stream cannot be written to
+     */
+    public final void writeCsv(OutputStream out) throws IOException{
+        writeCsv(out, idsToNames(sourceIds), idsToNames(targetIds));
+    }
+    
+    /**
+     * Writes this as a CSV file. Unreachable targets are left blank.
+     * 
+     * @param out the stream to write to
+     * @param rowNames what to call each source
+     * @param columnNames what to call each target
+     * @throws IOException if the stream cannot be written to
+     */
+    public final void writeCsv(OutputStream out, String[] rowNames, String[] columnNames) throws IOException{
+        BufferedWriter buff = new BufferedWriter(new OutputStreamWriter(out));
+        buff.write("from\\to");
+        for(String name : columnNames){
+            buff.write(", ");
+            buff.write(name);
+        }
+        double dist;
+        for(int row = 0; row < sourceIds.length; row++){
+            buff.write(NEWLINE);
+            buff.write(rowNames[row]);
+            for(int column = 0; column < targetIds.length; column++){
+                buff.write(", ");
+                dist = getDistance(row, column);
+                if(!Double.isInfinite(dist)){
+                    buff.write(Double.toString(dist));
+                }
+            }
+        }
+        buff.flush();
+    }
+    
+    /**
+     * Writes this in a compact binary form: a magic number, version, the
+     * number of sources and targets, their ids, then each row of distances
+     * as doubles. All values are big-endian.
+     * 
+     * @param out the stream to write to
+     * @throws IOException if the stream cannot be written to
+     */
+    public final void writeBinary(OutputStream out) throws IOException{
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(BINARY_MAGIC);
+        data.writeInt(BINARY_VERSION);
+        data.writeInt(sourceIds.length);
+        data.writeInt(targetIds.length);
+        for(int id : sourceIds){
+            data.writeInt(id);
+        }
+        for(int id : targetIds){
+            data.writeInt(id);
+        }
+        for(double dist : distances){
+            data.writeDouble(dist);
+        }
+        data.flush();
+    }
+    
+    private static String[] idsToNames(int[] ids){
+        String[] names = new String[ids.length];
+        for(int i = 0; i < ids.length; i++){
+            names[i] = Integer.toString(ids[i]);
+        }
+        return names;
+    }
+}
@@ -0,0 +1,154 @@
+package nodemanager.routing;
+
+import java.util.Arrays;
+import java.util.List;
+import nodemanager.model.Graph;
+import nodemanager.model.Node;
+
+/**
+ * A RoutingGraph is a read-only snapshot of the nodes and connections of a
+ * Graph, laid out for fast searching. Nodes are given indices 0 to n - 1,
+ * ordered by id, and connections are stored in compressed sparse row form
+ * with their length precomputed.
+ * 
+ * The length of a connection is the Euclidean distance between the
+ * coordinates of the two nodes it connects. Connections to ids without a node
+ * are left out, as there is no way to measure them.
+ * 
+ * Since this is a snapshot, it needs to be rebuilt after the Graph changes.
+ * 
+ * @author Matt Crow
+ */
+public class RoutingGraph {
+    private final int[] ids;
+    private final int[] xs;
+    private final int[] ys;
+    private final int[] offsets; // connections of node i are targets[offsets[i]] to targets[offsets[i + 1] - 1]
+    private final int[] targets;
+    private final double[] lengths;
+    
+    private RoutingGraph(int[] ids, int[] xs, int[] ys, int[] offsets, int[] targets, double[] lengths){
+        this.ids = ids;
+        this.xs = xs;
+        this.ys = ys;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.lengths = lengths;
+    }
+    
+    /**
+     * Takes a snapshot of the given Graph
+     * 
+     * @param g the Graph to snapshot
+     * @return the new RoutingGraph
+     */
+    public static RoutingGraph fromGraph(Graph g){
+        List<Node> allNodes = g.getAllNodes();
+        int n = allNodes.size();
+        int[] ids = new int[n];
+        for(int i = 0; i < n; i++){
+            ids[i] = allNodes.get(i).getId();
+        }
+        Arrays.sort(ids);
+        
+        int[] xs = new int[n];
+        int[] ys = new int[n];
+        int[] offsets = new int[n + 1];
+        Node node;
+        for(int i = 0; i < n; i++){
+            node = g.getNodeById(ids[i]);
+            xs[i] = node.getX();
+            ys[i] = node.getY();
+            offsets[i + 1] = offsets[i] + g.getConnectionCount(ids[i]);
+        }
+        
+        // offsets is an upper bound for now, as some connections may be skipped
+        int[] targets = new int[offsets[n]];
+        double[] lengths = new double[offsets[n]];
+        int[] numEdges = new int[1];
+        int start;
+        for(int i = 0; i < n; i++){
+            start = numEdges[0];
+            final int from = i;
+            g.forEachConnection(ids[i], (toId)->{
+                int to = Arrays.binarySearch(ids, toId);
+                if(to >= 0 && to != from){
+                    targets[numEdges[0]] = to;
+                    lengths[numEdges[0]] = Math.hypot(xs[to] - xs[from], ys[to] - ys[from]);
+                    numEdges[0]++;
+                }
+            });
+            offsets[i] = start;
+        }
+        offsets[n] = numEdges[0];
+        
+        return new RoutingGraph(
+            ids, 
+            xs, 
+            ys, 
+            offsets, 
+            Arrays.copyOf(targets, numEdges[0]), 
+            Arrays.copyOf(lengths, numEdges[0])
+        );
+    }
+    
+    /**
+     * @return the number of nodes in this snapshot
+     */
+    public final int getNodeCount(){
+        return ids.length;
+    }
+    
+    /**
+     * @return the number of directed connections in this snapshot. Each
+     * connection in the Graph is counted twice, once from each end.
+     */
+    public final int getConnectionCount(){
+        return targets.length;
+    }
+    
+    /**
+     * @param id the id of a node
+     * @return the index of that node in this snapshot, or -1 if it isn't in it
+     */
+    public final int indexOf(int id){
+        int i = Arrays.binarySearch(ids, id);
+        return (i < 0) ? -1 : i;
+    }
+    
+    public final int getIdAt(int index){
+        return ids[index];
+    }
+    
+    public final int getXAt(int index){
+        return xs[index];
+    }
+    
+    public final int getYAt(int index){
+        return ys[index];
+    }
+    
+    /*
+    Edges are numbered 0 to getConnectionCount() - 1, with the edges leaving
+    node i numbered getFirstEdge(i) up to, but not including, getFirstEdge(i + 1)
+    */
+    
+    public final int getFirstEdge(int index){
+        return offsets[index];
+    }
+    
+    public final int getEdgeTarget(int edge){
+        return targets[edge];
+    }
+    
+    public final double getEdgeLength(int edge){
+        return lengths[edge];
+    }
+    
+    /**
+     * @return the straight-line distance between two nodes
+     */
+    public final double distanceBetween(int fromIndex, int toIndex){
+        return Math.hypot(xs[toIndex] - xs[fromIndex], ys[toIndex] - ys[fromIndex]);
+    }
+}
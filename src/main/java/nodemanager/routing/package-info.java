@@ -0,0 +1,5 @@
+/**
+ * This package computes routes over a Graph, so we can check that the data
+ * we export actually lets Wayfinding get from one place to another.
+ */
+package nodemanager.routing;
@@ -0,0 +1,153 @@
+package nodemanager.files;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import nodemanager.model.Graph;
+import nodemanager.model.Node;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the binary graph file holds the same Graph as the csv files.
+ *
+ * @author Matt Crow
+ */
+public class BinaryGraphFileHelperTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * @return a Graph whose ids and coordinates are negative, large, and
+     * far apart, so their differences need every length of varint, and
+     * overflow an int
+     */
+    private static Graph createGraph(){
+        Graph g = new Graph();
+        int[] ids = {-1, -2, 0, 5, 127, 128, 16384, -300000, 1000000000, -1000000000, Integer.MAX_VALUE, Integer.MIN_VALUE + 1};
+        for(int i = 0; i < ids.length; i++){
+            g.addNode(new Node(ids[i], (i % 2 == 0) ? -i * 70000 : i * 3, i * -129));
+        }
+        for(int i = 0; i < ids.length; i++){
+            g.addConnection(ids[i], ids[(i + 1) % ids.length]);
+            g.addConnection(ids[i], ids[(i * 5 + 3) % ids.length]);
+        }
+        g.addLabel("room 101", 5);
+        g.addLabel("room 102", 16384);
+        g.addLabel("entrance", -300000);
+        g.addLabel("exit", Integer.MAX_VALUE);
+        g.addLabel("stair-1", -1);
+        return g;
+    }
+
+    private static void assertSameGraph(Graph expected, Graph actual){
+        HashMap<Integer, String> expectedNodes = new HashMap<>();
+        for(Node n : expected.getAllNodes()){
+            expectedNodes.put(n.getId(), n.getX() + ", " + n.getY());
+        }
+        HashMap<Integer, String> actualNodes = new HashMap<>();
+        for(Node n : actual.getAllNodes()){
+            actualNodes.put(n.getId(), n.getX() + ", " + n.getY());
+        }
+        assertEquals(expectedNodes, actualNodes);
+        assertEquals(connectionsOf(expected), connectionsOf(actual));
+        assertEquals(labelsOf(expected), labelsOf(actual));
+    }
+
+    private static HashSet<String> connectionsOf(Graph g){
+        HashSet<String> connections = new HashSet<>();
+        int[] pairs = g.copyConnectionPairs();
+        for(int i = 0; i < pairs.length; i += 2){
+            connections.add(pairs[i] + " " + pairs[i + 1]);
+        }
+        return connections;
+    }
+
+    private static HashMap<String, Integer> labelsOf(Graph g){
+        HashMap<String, Integer> labels = new HashMap<>();
+        for(String label : g.getAllLabel()){
+            labels.put(label, g.getNodeByLabel(label).getId());
+        }
+        return labels;
+    }
+
+    @Test
+    public void binaryMatchesCsv() throws IOException {
+        Graph g = createGraph();
+        new NodeCoordFileHelper("test").writeToFileUnderParent(g, folder.getRoot().getPath());
+        new NodeConnFileHelper("test").writeToFileUnderParent(g, folder.getRoot().getPath());
+        new NodeLabelFileHelper("test").writeToFileUnderParent(g, folder.getRoot().getPath());
+        new BinaryGraphFileHelper("test").writeToFileUnderParent(g, folder.getRoot().getPath());
+
+        Graph fromCsv = new Graph();
+        for(AbstractWayfindingFileHelper csv : new AbstractWayfindingFileHelper[]{new NodeCoordFileHelper("test"), new NodeConnFileHelper("test"), new NodeLabelFileHelper("test")}){
+            csv.readGraphDataFromFile(fromCsv, new File(folder.getRoot(), csv.getFileName()));
+        }
+        BinaryGraphFileHelper binary = new BinaryGraphFileHelper("test");
+        Graph fromBinary = new Graph();
+        binary.readGraphDataFromFile(fromBinary, new File(folder.getRoot(), binary.getFileName()));
+
+        assertSameGraph(g, fromCsv);
+        assertSameGraph(fromCsv, fromBinary);
+    }
+
+    /**
+     * The csv files use the platform's charset, but the binary file always
+     * uses UTF-8
+     */
+    @Test
+    public void keepsNonAsciiLabels() throws IOException {
+        Graph g = createGraph();
+        g.addLabel("caf\u00e9", 0);
+        g.addLabel("caf\u00e9 \u6771", 1000000000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BinaryGraphFileHelper().writeGraphDataToFile(g, out);
+        Graph read = new Graph();
+        new BinaryGraphFileHelper().readGraphDataFromFile(read, new ByteArrayInputStream(out.toByteArray()));
+        assertSameGraph(g, read);
+    }
+
+    @Test
+    public void emptyGraph() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BinaryGraphFileHelper().writeGraphDataToFile(new Graph(), out);
+        Graph read = new Graph();
+        new BinaryGraphFileHelper().readGraphDataFromFile(read, new ByteArrayInputStream(out.toByteArray()));
+        assertSameGraph(new Graph(), read);
+    }
+
+    @Test
+    public void rejectsBadMagicNumber() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BinaryGraphFileHelper().writeGraphDataToFile(createGraph(), out);
+        byte[] bytes = out.toByteArray();
+        bytes[0] = 'X';
+        try {
+            new BinaryGraphFileHelper().readGraphDataFromFile(new Graph(), new ByteArrayInputStream(bytes));
+            fail("Read a file with the wrong magic number");
+        } catch (IOException ex) {
+            assertEquals("Not a binary graph file", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void rejectsEveryTruncation() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BinaryGraphFileHelper().writeGraphDataToFile(createGraph(), out);
+        byte[] bytes = out.toByteArray();
+        for(int length = 0; length < bytes.length; length++){
+            try {
+                new BinaryGraphFileHelper().readGraphDataFromFile(new Graph(), new ByteArrayInputStream(Arrays.copyOf(bytes, length)));
+                fail("Read a file truncated to " + length + " of " + bytes.length + " bytes");
+            } catch (IOException ex) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package nodemanager.files;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicReference;
+import static nodemanager.io.GoogleDriveUploader.DOWNLOAD_URL_PREFIX;
+import nodemanager.io.TestStorageBackend;
+import nodemanager.model.Graph;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Runs exports against a LocalStorageBackend, and checks what is left
+ * behind when they fail or are cancelled.
+ *
+ * @author Matt Crow
+ */
+public class ExportPipelineTest {
+    private static final String TITLE = "test";
+    private static final String TYPE = "wayfinding";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static VersionLog download(TestStorageBackend backend) throws IOException {
+        VersionLog log = new VersionLog();
+        try(InputStream in = backend.download(VersionLog.DEFAULT_VERSION_LOG_ID)){
+            log.readGraphDataFromFile(null, in);
+        }
+        return log;
+    }
+
+    @Test
+    public void addsExportToVersionLog() throws Exception {
+        TestStorageBackend backend = new TestStorageBackend(folder.getRoot());
+        VersionLog log = new VersionLog();
+        ExportPipeline export = new ExportPipeline(new WayfindingManifest(TITLE), backend, "", log, TYPE);
+        String id = export.run(Graph.createDefault());
+
+        assertArrayEquals(new String[]{DOWNLOAD_URL_PREFIX + id}, log.getExportsFor(TYPE));
+        assertArrayEquals(new String[]{DOWNLOAD_URL_PREFIX + id}, download(backend).getExportsFor(TYPE));
+    }
+
+    @Test
+    public void failedSaveLeavesVersionLogUnchanged() throws Exception {
+        TestStorageBackend backend = new TestStorageBackend(folder.getRoot());
+        VersionLog log = new VersionLog();
+        new ExportPipeline(new WayfindingManifest("first"), backend, "", log, TYPE).run(Graph.createDefault());
+        String[] before = log.getExportsFor(TYPE);
+
+        backend.setFailUpdates(true);
+        try {
+            new ExportPipeline(new WayfindingManifest("second"), backend, "", log, TYPE).run(Graph.createDefault());
+            fail("The version log should have failed to save");
+        } catch (IOException ex) {
+            assertEquals("Connection lost", ex.getMessage());
+        }
+        assertArrayEquals(before, log.getExportsFor(TYPE));
+
+        // so the next export doesn't save the failed one either
+        backend.setFailUpdates(false);
+        String id = new ExportPipeline(new WayfindingManifest("third"), backend, "", log, TYPE).run(Graph.createDefault());
+        assertArrayEquals(new String[]{before[0], DOWNLOAD_URL_PREFIX + id}, download(backend).getExportsFor(TYPE));
+    }
+
+    @Test
+    public void cancelledExportDeletesItsFolder() throws Exception {
+        TestStorageBackend backend = new TestStorageBackend(folder.getRoot());
+        backend.setUploadMillis(10000);
+        VersionLog log = new VersionLog();
+        ExportPipeline export = new ExportPipeline(new WayfindingManifest(TITLE), backend, "", log, TYPE);
+        AtomicReference<Exception> thrown = new AtomicReference<>();
+        Thread running = new Thread(()->{
+            try {
+                export.run(Graph.createDefault());
+            } catch (Exception ex) {
+                thrown.set(ex);
+            }
+        });
+        running.start();
+
+        File exported = new File(folder.getRoot(), TITLE);
+        long giveUpAt = System.currentTimeMillis() + 5000;
+        while(!exported.isDirectory() && System.currentTimeMillis() < giveUpAt){
+            Thread.sleep(10);
+        }
+        assertTrue("The export never created its folder", exported.isDirectory());
+        running.interrupt();
+        running.join(5000);
+
+        assertFalse("The export is still running", running.isAlive());
+        assertTrue(String.valueOf(thrown.get()), thrown.get() instanceof InterruptedException);
+        assertFalse(exported.exists());
+        assertNull(export.getAbandonedFolderId());
+        assertEquals(0, log.getExportsFor(TYPE).length);
+    }
+}
@@ -0,0 +1,182 @@
+package nodemanager.files;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import nodemanager.model.Graph;
+import nodemanager.model.Node;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that importing files through an ImportPipeline gives the same Graph
+ * as importing them one after another.
+ *
+ * @author Matt Crow
+ */
+public class ImportPipelineTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Graph createGraph(int numNodes, long seed){
+        Random rand = new Random(seed);
+        Graph g = new Graph();
+        for(int id = 0; id < numNodes; id++){
+            g.addNode(new Node(id, rand.nextInt(5000), rand.nextInt(5000)));
+        }
+        for(int id = 1; id < numNodes; id++){
+            g.addConnection(id, rand.nextInt(id));
+            if(rand.nextInt(3) == 0){
+                g.addConnection(id, rand.nextInt(numNodes));
+            }
+        }
+        for(int id = 0; id < numNodes; id += 7){
+            g.addLabel("room " + id, id);
+        }
+        return g;
+    }
+
+    private File write(AbstractWayfindingFileHelper helper, Graph g, String name) throws IOException {
+        File f = folder.newFile(name);
+        try(OutputStream out = new FileOutputStream(f)){
+            helper.writeGraphDataToFile(g, out);
+        }
+        return f;
+    }
+
+    private File write(String contents, String name) throws IOException {
+        File f = folder.newFile(name);
+        Files.write(f.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+        return f;
+    }
+
+    /**
+     * Imports each file straight into the Graph, in order, skipping those
+     * which fail to parse
+     */
+    private static Graph importSequentially(List<AbstractWayfindingFileHelper> helpers, List<File> files){
+        Graph g = new Graph();
+        for(int i = 0; i < files.size(); i++){
+            try {
+                helpers.get(i).readGraphDataFromFile(g, files.get(i));
+            } catch (Exception ex) {
+                // skipped, as the pipeline does
+            }
+        }
+        return g;
+    }
+
+    private static Graph importThroughPipeline(List<AbstractWayfindingFileHelper> helpers, List<File> files) throws InterruptedException {
+        ImportPipeline pipeline = new ImportPipeline();
+        for(int i = 0; i < files.size(); i++){
+            pipeline.add(helpers.get(i), files.get(i));
+        }
+        pipeline.stage();
+        Graph g = new Graph();
+        pipeline.applyTo(g);
+        return g;
+    }
+
+    private static void assertSameGraph(Graph expected, Graph actual){
+        ArrayList<Node> expectedNodes = new ArrayList<>(expected.getAllNodes());
+        ArrayList<Node> actualNodes = new ArrayList<>(actual.getAllNodes());
+        expectedNodes.sort((a, b)->Integer.compare(a.getId(), b.getId()));
+        actualNodes.sort((a, b)->Integer.compare(a.getId(), b.getId()));
+        assertEquals(expectedNodes.size(), actualNodes.size());
+        for(int i = 0; i < expectedNodes.size(); i++){
+            Node e = expectedNodes.get(i);
+            Node a = actualNodes.get(i);
+            assertEquals(e.getId(), a.getId());
+            assertEquals("x of node " + e.getId(), e.getX(), a.getX());
+            assertEquals("y of node " + e.getId(), e.getY(), a.getY());
+
+            int[] expectedConns = expected.getConnectionsById(e.getId()).clone();
+            int[] actualConns = actual.getConnectionsById(a.getId()).clone();
+            Arrays.sort(expectedConns);
+            Arrays.sort(actualConns);
+            assertArrayEquals("connections of node " + e.getId(), expectedConns, actualConns);
+        }
+
+        ArrayList<String> expectedLabels = new ArrayList<>(expected.getAllLabel());
+        ArrayList<String> actualLabels = new ArrayList<>(actual.getAllLabel());
+        expectedLabels.sort(null);
+        actualLabels.sort(null);
+        assertEquals(expectedLabels, actualLabels);
+        for(String label : expectedLabels){
+            assertEquals(label, expected.getNodeByLabel(label).getId(), actual.getNodeByLabel(label).getId());
+        }
+    }
+
+    @Test
+    public void matchesSequentialImport() throws Exception {
+        Graph g = createGraph(500, 1);
+        List<AbstractWayfindingFileHelper> helpers = Arrays.asList(
+            new NodeCoordFileHelper(),
+            new NodeConnFileHelper(),
+            new NodeConnFileHelper(),
+            new NodeLabelFileHelper(),
+            new NodeLabelFileHelper()
+        );
+        List<File> files = Arrays.asList(
+            write(helpers.get(0), g, "coords.csv"),
+            write(helpers.get(1), g, "connections.csv"),
+            write("node1, node2\n3\n", "broken connections.csv"),
+            write(helpers.get(3), g, "labels.csv"),
+            // the first file to give a label decides which node it belongs to
+            write("label, id\nroom 0, 1\nlobby, 2\n", "more labels.csv")
+        );
+
+        Graph sequential = importSequentially(helpers, files);
+        assertSameGraph(g, importSequentially(helpers.subList(0, 4), files.subList(0, 4)));
+        assertEquals(0, sequential.getNodeByLabel("room 0").getId());
+        assertSameGraph(sequential, importThroughPipeline(helpers, files));
+    }
+
+    @Test
+    public void matchesSequentialImportWhenLabelsFailToParse() throws Exception {
+        Graph g = createGraph(200, 2);
+        List<AbstractWayfindingFileHelper> helpers = Arrays.asList(
+            new NodeCoordFileHelper(),
+            new NodeConnFileHelper(),
+            new NodeLabelFileHelper()
+        );
+        List<File> files = Arrays.asList(
+            write(helpers.get(0), g, "coords.csv"),
+            write(helpers.get(1), g, "connections.csv"),
+            write("label, id\nlobby, not a number\n", "labels.csv")
+        );
+
+        Graph sequential = importSequentially(helpers, files);
+        assertTrue(sequential.getAllLabel().isEmpty());
+        assertSameGraph(sequential, importThroughPipeline(helpers, files));
+    }
+
+    @Test
+    public void leavesOutTheWholeOfAFileWhichFailsToParse() throws Exception {
+        Graph g = createGraph(50, 3);
+        ImportPipeline pipeline = new ImportPipeline()
+            .add(new NodeCoordFileHelper(), write(new NodeCoordFileHelper(), g, "coords.csv"))
+            .add(new NodeConnFileHelper(), write("node1, node2\n1, 2\n2, 3\n4\n", "connections.csv"));
+        pipeline.stage();
+
+        assertTrue(pipeline.wasStaged(0));
+        assertFalse(pipeline.wasStaged(1));
+        assertEquals(1, pipeline.getErrors().size());
+        assertTrue(pipeline.getErrors().get(0), pipeline.getErrors().get(0).contains("connections.csv"));
+
+        // unlike reading straight into the Graph, which keeps the rows before the error
+        Graph imported = new Graph();
+        pipeline.applyTo(imported);
+        assertEquals(g.getAllNodes().size(), imported.getAllNodes().size());
+        assertEquals(0, imported.getConnectionsById(1).length);
+    }
+}
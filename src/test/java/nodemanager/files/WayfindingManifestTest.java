@@ -0,0 +1,266 @@
+package nodemanager.files;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import nodemanager.files.ExportProgress.Stage;
+import nodemanager.files.ExportProgress.Status;
+import nodemanager.io.CsvReader;
+import static nodemanager.io.GoogleDriveUploader.DOWNLOAD_URL_PREFIX;
+import nodemanager.io.LocalStorageBackend;
+import nodemanager.io.TestStorageBackend;
+import nodemanager.model.Graph;
+import nodemanager.model.Node;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Uploads exports to a LocalStorageBackend, slowed down or made to fail on
+ * purpose.
+ *
+ * @author Matt Crow
+ */
+public class WayfindingManifestTest {
+    private static final String TITLE = "test";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * @return a backend slow enough that each file is copied in several chunks
+     */
+    private TestStorageBackend createBackend(){
+        return new TestStorageBackend(folder.getRoot(), 200);
+    }
+
+    /**
+     * @return a Graph whose files are each at least a few chunks long
+     */
+    private static Graph createGraph(){
+        Graph g = Graph.createDefault();
+        g.addConnection(-1, -2);
+        g.addLabel("entrance", -1);
+        g.addLabel("exit", -2);
+        return g;
+    }
+
+    /**
+     * @return the URLs in an uploaded manifest, by file type
+     */
+    private static HashMap<FileType, String> readManifest(LocalStorageBackend backend, String id) throws IOException {
+        HashMap<FileType, String> urls = new HashMap<>();
+        try(InputStream in = backend.download(id); CsvReader csv = new CsvReader(in)){
+            String[] row = csv.nextRow(); //skip header
+            while((row = csv.nextRow()) != null){
+                urls.put(FileType.fromTitle(row[0]), row[1]);
+            }
+        }
+        return urls;
+    }
+
+    @Test
+    public void takesAsLongAsTheSlowestUpload() throws Exception {
+        TestStorageBackend backend = createBackend();
+        backend.setUploadMillis(new NodeCoordFileHelper(TITLE).getFileName(), 300L);
+        backend.setUploadMillis(new NodeConnFileHelper(TITLE).getFileName(), 300L);
+        backend.setUploadMillis(new NodeLabelFileHelper(TITLE).getFileName(), 800L);
+        backend.setUploadMillis(new MapFileHelper(TITLE).getFileName(), 300L);
+
+        ExportProgress progress = new ExportProgress();
+        WayfindingManifest manifest = new WayfindingManifest(TITLE);
+        manifest.upload(backend, "", createGraph(), progress);
+        assertTrue(manifest.getUploadErrors().toString(), manifest.getUploadErrors().isEmpty());
+
+        long uploadMillis = -1;
+        for(Status status : progress.getStatuses()){
+            if(status.getStage() == Stage.UPLOAD){
+                uploadMillis = status.getElapsedMillis();
+            }
+        }
+        // one after another, they would take 1700ms
+        assertTrue("Uploads took " + uploadMillis + "ms", uploadMillis >= 800);
+        assertTrue("Uploads took " + uploadMillis + "ms", uploadMillis < 1300);
+    }
+
+    @Test
+    public void leavesOutFailedUploads() throws Exception {
+        TestStorageBackend backend = createBackend();
+        String labels = new NodeLabelFileHelper(TITLE).getFileName();
+        backend.setFailName(labels);
+
+        WayfindingManifest manifest = new WayfindingManifest(TITLE);
+        String id = manifest.upload(backend, "", createGraph(), new ExportProgress());
+
+        assertEquals(1, manifest.getUploadErrors().size());
+        assertEquals("Connection lost", manifest.getUploadErrors().get(FileType.LABEL));
+        assertFalse(manifest.containsUrlFor(FileType.LABEL));
+
+        // the manifest only links to files which were uploaded and published
+        HashMap<FileType, String> urls = readManifest(backend, id);
+        assertEquals(3, urls.size());
+        assertFalse(urls.containsKey(FileType.LABEL));
+        for(String url : urls.values()){
+            assertTrue(url, backend.getLocalFile(url).isFile());
+            assertTrue(url, backend.isPublished(url.split("id=")[1]));
+        }
+        // and nothing is left of the failed upload
+        String[] uploaded = new File(folder.getRoot(), TITLE).list();
+        assertEquals(4, uploaded.length);
+        assertFalse(new File(new File(folder.getRoot(), TITLE), labels).exists());
+    }
+
+    @Test
+    public void failedManifestLeavesNothingBehind() throws Exception {
+        TestStorageBackend backend = createBackend();
+        WayfindingManifest manifest = new WayfindingManifest(TITLE);
+        backend.setFailName(manifest.getFileName());
+        try {
+            manifest.upload(backend, "", createGraph(), new ExportProgress());
+            fail("The manifest upload should have failed");
+        } catch (IOException ex) {
+            assertEquals("Connection lost", ex.getMessage());
+        }
+        assertFalse(new File(new File(folder.getRoot(), TITLE), manifest.getFileName()).exists());
+        assertEquals(4, new File(folder.getRoot(), TITLE).list().length);
+    }
+
+    @Test
+    public void onlyUploadsChangedFiles() throws Exception {
+        TestStorageBackend backend = createBackend();
+        Graph g = createGraph();
+        WayfindingManifest first = new WayfindingManifest("first");
+        String firstId = first.upload(backend, "", g, new ExportProgress());
+
+        // the next export reads the previous one back, as ExportPipeline does
+        WayfindingManifest previous = new WayfindingManifest();
+        try(InputStream in = backend.download(firstId)){
+            previous.readUrls(in);
+        }
+        g.addLabel("stairs", -2);
+        backend.getUploaded().clear();
+        WayfindingManifest second = new WayfindingManifest("second");
+        second.setPreviousExport(previous);
+        String secondId = second.upload(backend, "", g, new ExportProgress());
+
+        assertEquals(
+            new HashSet<>(Arrays.asList(new NodeLabelFileHelper("second").getFileName(), second.getFileName())),
+            new HashSet<>(backend.getUploaded())
+        );
+        HashMap<FileType, String> firstUrls = readManifest(backend, firstId);
+        HashMap<FileType, String> secondUrls = readManifest(backend, secondId);
+        assertEquals(firstUrls.keySet(), secondUrls.keySet());
+        for(FileType type : firstUrls.keySet()){
+            if(type == FileType.LABEL){
+                assertFalse(firstUrls.get(type).equals(secondUrls.get(type)));
+            } else {
+                assertEquals(firstUrls.get(type), secondUrls.get(type));
+            }
+        }
+        long skipped = 0;
+        for(FileType type : Arrays.asList(FileType.NODE_COORD, FileType.NODE_CONN, FileType.MAP_IMAGE)){
+            skipped += backend.getLocalFile(firstUrls.get(type)).length();
+        }
+        assertEquals(skipped, second.getBytesSkipped());
+    }
+
+    @Test
+    public void retriesFailedDownloads() throws Exception {
+        TestStorageBackend backend = createBackend();
+        String id = new WayfindingManifest(TITLE).upload(backend, "", createGraph(), new ExportProgress());
+        HashMap<FileType, String> urls = readManifest(backend, id);
+        String connId = urls.get(FileType.NODE_CONN).replace(DOWNLOAD_URL_PREFIX, "");
+        backend.failNextDownloadOf(connId);
+
+        WayfindingManifest manifest = new WayfindingManifest();
+        manifest.setStorageBackend(backend);
+        try(InputStream in = backend.download(id)){
+            manifest.readUrls(in);
+        }
+        List<FileType> types = Arrays.asList(FileType.NODE_COORD, FileType.NODE_CONN, FileType.LABEL);
+        Graph g = new Graph();
+        assertEquals(1, manifest.importFilesFor(g, types).size());
+        assertEquals(0, g.getConnectionsById(-1).length);
+
+        // only the connections are downloaded again
+        backend.getDownloaded().clear();
+        assertEquals(0, manifest.importFilesFor(g, types).size());
+        assertEquals(Arrays.asList(connId), backend.getDownloaded());
+        assertEquals(1, g.getConnectionsById(-1).length);
+        assertEquals(2, g.getAllNodes().size());
+        Node entrance = g.getNodeByLabel("entrance");
+        assertEquals(-1, entrance.getId());
+    }
+
+    private static final List<FileType> GRAPH_TYPES = Arrays.asList(FileType.NODE_COORD, FileType.NODE_CONN, FileType.LABEL);
+
+    /**
+     * @return the id of a manifest for the test Graph, with a binary graph file
+     */
+    private static String exportWithBinaryGraph(TestStorageBackend backend) throws Exception {
+        WayfindingManifest exported = new WayfindingManifest(TITLE);
+        exported.setIncludeBinaryGraph(true);
+        return exported.upload(backend, "", createGraph(), new ExportProgress());
+    }
+
+    private static WayfindingManifest open(TestStorageBackend backend, String id) throws IOException {
+        WayfindingManifest manifest = new WayfindingManifest();
+        manifest.setStorageBackend(backend);
+        try(InputStream in = backend.download(id)){
+            manifest.readUrls(in);
+        }
+        backend.getDownloaded().clear();
+        return manifest;
+    }
+
+    private static void assertImportedGraph(Graph g){
+        assertEquals(createGraph().getAllNodes().size(), g.getAllNodes().size());
+        assertEquals(1, g.getConnectionsById(-1).length);
+        assertEquals(-2, g.getNodeByLabel("exit").getId());
+    }
+
+    @Test
+    public void importsBinaryGraphInPlaceOfCsvs() throws Exception {
+        TestStorageBackend backend = createBackend();
+        String id = exportWithBinaryGraph(backend);
+        String binaryId = readManifest(backend, id).get(FileType.BINARY_GRAPH).replace(DOWNLOAD_URL_PREFIX, "");
+        WayfindingManifest manifest = open(backend, id);
+
+        Graph g = new Graph();
+        assertEquals(0, manifest.importFilesFor(g, GRAPH_TYPES).size());
+        assertEquals(Arrays.asList(binaryId), backend.getDownloaded());
+        assertImportedGraph(g);
+    }
+
+    @Test
+    public void fallsBackToCsvsWhenBinaryGraphFailsToDownload() throws Exception {
+        TestStorageBackend backend = createBackend();
+        String id = exportWithBinaryGraph(backend);
+        backend.failNextDownloadOf(readManifest(backend, id).get(FileType.BINARY_GRAPH).replace(DOWNLOAD_URL_PREFIX, ""));
+        WayfindingManifest manifest = open(backend, id);
+
+        Graph g = new Graph();
+        assertEquals(0, manifest.importFilesFor(g, GRAPH_TYPES).size());
+        assertEquals(3, backend.getDownloaded().size());
+        assertImportedGraph(g);
+    }
+
+    @Test
+    public void fallsBackToCsvsWhenBinaryGraphIsCorrupt() throws Exception {
+        TestStorageBackend backend = createBackend();
+        String id = exportWithBinaryGraph(backend);
+        File binary = backend.getLocalFile(readManifest(backend, id).get(FileType.BINARY_GRAPH));
+        Files.write(binary.toPath(), "not a graph".getBytes("UTF-8"));
+        WayfindingManifest manifest = open(backend, id);
+
+        Graph g = new Graph();
+        assertEquals(0, manifest.importFilesFor(g, GRAPH_TYPES).size());
+        assertImportedGraph(g);
+    }
+}
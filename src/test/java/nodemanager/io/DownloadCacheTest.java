@@ -0,0 +1,147 @@
+package nodemanager.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the DownloadCache, and the CachingStorageBackend around it, against
+ * a TestStorageBackend, which counts its downloads and can go offline.
+ *
+ * @author Matt Crow
+ */
+public class DownloadCacheTest {
+    private static final String FILE_ID = "export, 1.csv"; // ids may contain commas
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File storage;
+    private File cacheDir;
+    private TestStorageBackend backend;
+
+    @Before
+    public void uploadFile() throws IOException {
+        storage = folder.getRoot();
+        cacheDir = new File(storage, "cache");
+        backend = new TestStorageBackend(storage);
+        Files.write(new File(storage, FILE_ID).toPath(), "id, x, y\n1, 2, 3".getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try(InputStream stream = in){
+            byte[] buffer = new byte[1024];
+            int numRead;
+            while((numRead = stream.read(buffer)) != -1){
+                out.write(buffer, 0, numRead);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private String version() throws IOException {
+        return backend.getMetadata(FILE_ID).getVersion();
+    }
+
+    @Test
+    public void downloadsOnce() throws IOException {
+        DownloadCache cache = new DownloadCache(cacheDir, 1 << 20);
+        assertEquals("id, x, y\n1, 2, 3", read(cache.open(backend, FILE_ID, version())));
+        assertEquals("id, x, y\n1, 2, 3", read(cache.open(backend, FILE_ID, version())));
+        assertEquals(1, backend.getDownloaded().size());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void savesOrderWhenAsked() throws IOException {
+        DownloadCache cache = new DownloadCache(cacheDir, 1 << 20);
+        read(cache.open(backend, FILE_ID, version()));
+        File index = new File(cacheDir, "index.csv");
+        long saved = index.lastModified();
+        byte[] before = Files.readAllBytes(index.toPath());
+
+        // a hit doesn't write the index
+        index.setLastModified(saved - 10000);
+        read(cache.open(backend, FILE_ID, version()));
+        assertEquals(saved - 10000, index.lastModified());
+        cache.save();
+        assertTrue(index.lastModified() != saved - 10000);
+        assertArrayEquals(before, Files.readAllBytes(index.toPath()));
+
+        // the key is read back, despite its comma
+        DownloadCache reopened = new DownloadCache(cacheDir, 1 << 20);
+        read(reopened.open(backend, FILE_ID, version()));
+        assertEquals(1, backend.getDownloaded().size());
+        assertEquals(1, reopened.getHitCount());
+    }
+
+    @Test
+    public void downloadsCorruptFilesAgain() throws IOException {
+        read(new DownloadCache(cacheDir, 1 << 20).open(backend, FILE_ID, version()));
+        File blob = new File(cacheDir, HashUtil.sha256Of(new File(storage, FILE_ID)));
+        Files.write(blob.toPath(), "id, x, y\n1, 2, 4".getBytes(StandardCharsets.UTF_8));
+
+        DownloadCache reopened = new DownloadCache(cacheDir, 1 << 20);
+        assertEquals("id, x, y\n1, 2, 3", read(reopened.open(backend, FILE_ID, version())));
+        assertEquals(1, reopened.getCorruptCount());
+        assertEquals(2, backend.getDownloaded().size());
+    }
+
+    @Test
+    public void skipsDamagedIndexLines() throws IOException {
+        read(new DownloadCache(cacheDir, 1 << 20).open(backend, FILE_ID, version()));
+        File index = new File(cacheDir, "index.csv");
+        String listed = new String(Files.readAllBytes(index.toPath()), StandardCharsets.UTF_8);
+        Files.write(index.toPath(), (listed + "\nsomething\n").getBytes(StandardCharsets.UTF_8));
+
+        DownloadCache reopened = new DownloadCache(cacheDir, 1 << 20);
+        read(reopened.open(backend, FILE_ID, version()));
+        assertEquals(1, reopened.getHitCount());
+        assertEquals(1, backend.getDownloaded().size());
+
+        // cut short in the middle of the download's own line
+        Files.write(index.toPath(), listed.substring(0, listed.lastIndexOf(',')).getBytes(StandardCharsets.UTF_8));
+        reopened = new DownloadCache(cacheDir, 1 << 20);
+        read(reopened.open(backend, FILE_ID, version()));
+        assertEquals(1, reopened.getMissCount());
+        assertEquals(2, backend.getDownloaded().size());
+    }
+
+    @Test
+    public void deletesUnlistedDownloads() throws IOException {
+        read(new DownloadCache(cacheDir, 1 << 20).open(backend, FILE_ID, version()));
+        File unlisted = new File(cacheDir, HashUtil.toHex(new byte[32]));
+        File other = new File(cacheDir, "names.csv");
+        Files.write(unlisted.toPath(), new byte[10]);
+        Files.write(other.toPath(), new byte[10]);
+
+        new DownloadCache(cacheDir, 1 << 20);
+        assertFalse(unlisted.exists());
+        assertTrue(other.exists());
+        assertEquals(3, cacheDir.list().length); // the index, the download, and names.csv
+    }
+
+    @Test
+    public void usesCachedVersionWhenOffline() throws IOException {
+        CachingStorageBackend caching = new CachingStorageBackend(backend, new DownloadCache(cacheDir, 1 << 20));
+        read(caching.download(FILE_ID));
+        backend.setOffline(true);
+        assertEquals("id, x, y\n1, 2, 3", read(caching.download(FILE_ID)));
+        try {
+            caching.download("not cached.csv");
+            fail("Downloaded a file which isn't cached while offline");
+        } catch (IOException ex) {
+            assertEquals("Offline", ex.getMessage());
+        }
+    }
+}
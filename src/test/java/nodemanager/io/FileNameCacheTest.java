@@ -0,0 +1,141 @@
+package nodemanager.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import static nodemanager.io.GoogleDriveUploader.DOWNLOAD_URL_PREFIX;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Looks up the names of files in a TestStorageBackend, counting each
+ * request it makes.
+ *
+ * @author Matt Crow
+ */
+public class FileNameCacheTest {
+    private static final int NUM_FILES = 60;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File cacheFile;
+    private TestStorageBackend backend;
+    private List<String> ids;
+
+    @Before
+    public void uploadFiles() throws IOException {
+        cacheFile = new File(folder.getRoot(), "names.csv");
+        backend = new TestStorageBackend(folder.newFolder("storage"));
+        String folderId = backend.createFolder("", "exports");
+        File empty = folder.newFile("empty.csv");
+        ids = new ArrayList<>();
+        for(int i = 0; i < NUM_FILES; i++){
+            // commas, as in the cache file's own format
+            ids.add(backend.upload(empty, "export, " + i + ".csv", "text/csv", folderId));
+        }
+    }
+
+    /**
+     * @return the names which were handed back, by the id given for them
+     */
+    private static Map<String, String> resolve(FileNameCache cache, StorageBackend from, List<String> fileIds) throws InterruptedException {
+        HashMap<String, String> found = new HashMap<>();
+        List<String> failed = cache.resolve(from, fileIds, found::putAll);
+        assertEquals(Arrays.asList(), failed);
+        return found;
+    }
+
+    @Test
+    public void looksUpNamesInBatches() throws Exception {
+        FileNameCache cache = new FileNameCache(cacheFile, 100);
+        Map<String, String> found = resolve(cache, backend, ids);
+
+        assertEquals(NUM_FILES, found.size());
+        for(int i = 0; i < NUM_FILES; i++){
+            assertEquals("export, " + i + ".csv", found.get(ids.get(i)));
+        }
+        assertEquals(Arrays.asList(10, 25, 25), sorted(backend.getBatchSizes()));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(NUM_FILES, cache.getMissCount());
+    }
+
+    @Test
+    public void servesNamesFromTheCache() throws Exception {
+        FileNameCache cache = new FileNameCache(cacheFile, 100);
+        resolve(cache, backend, ids);
+        backend.getBatchSizes().clear();
+
+        // URLs share an entry with their id
+        ArrayList<String> urls = new ArrayList<>();
+        ids.forEach((id)->urls.add(DOWNLOAD_URL_PREFIX + id));
+        Map<String, String> found = resolve(cache, backend, urls);
+
+        assertEquals(NUM_FILES, found.size());
+        assertEquals("export, 0.csv", found.get(urls.get(0)));
+        assertTrue(backend.getBatchSizes().isEmpty());
+        assertEquals(NUM_FILES, cache.getHitCount());
+    }
+
+    @Test
+    public void keepsOnlyTheMostRecentNames() throws Exception {
+        FileNameCache cache = new FileNameCache(cacheFile, 30);
+        resolve(cache, backend, ids.subList(0, 30));
+        assertEquals(30, cache.getSize());
+
+        resolve(cache, backend, ids.subList(30, NUM_FILES));
+        assertEquals(30, cache.getSize());
+
+        // the last 30 are still cached, but the first 30 were evicted
+        backend.getBatchSizes().clear();
+        resolve(cache, backend, ids.subList(30, NUM_FILES));
+        assertTrue(backend.getBatchSizes().isEmpty());
+        resolve(cache, backend, ids.subList(0, 30));
+        assertEquals(Arrays.asList(5, 25), sorted(backend.getBatchSizes()));
+    }
+
+    @Test
+    public void remembersNamesBetweenRuns() throws Exception {
+        resolve(new FileNameCache(cacheFile, 100), backend, ids);
+        backend.getBatchSizes().clear();
+
+        FileNameCache reopened = new FileNameCache(cacheFile, 100);
+        assertEquals(NUM_FILES, reopened.getSize());
+        Map<String, String> found = resolve(reopened, backend, ids);
+        assertEquals("export, " + (NUM_FILES - 1) + ".csv", found.get(ids.get(NUM_FILES - 1)));
+        assertTrue(backend.getBatchSizes().isEmpty());
+
+        // a smaller cache only loads as many as it can hold
+        assertEquals(10, new FileNameCache(cacheFile, 10).getSize());
+    }
+
+    @Test
+    public void listsFilesWhichCannotBeFound() throws Exception {
+        FileNameCache cache = new FileNameCache(cacheFile, 100);
+        ArrayList<String> withMissing = new ArrayList<>(ids.subList(0, 3));
+        withMissing.add("exports/deleted.csv");
+        HashMap<String, String> found = new HashMap<>();
+
+        List<String> failed = cache.resolve(backend, withMissing, found::putAll);
+
+        assertEquals(Arrays.asList("exports/deleted.csv"), failed);
+        assertEquals(3, found.size());
+        assertEquals(3, cache.getSize());
+    }
+
+    /**
+     * Batches run concurrently, so they can finish in any order
+     */
+    private static List<Integer> sorted(List<Integer> sizes){
+        ArrayList<Integer> ret = new ArrayList<>(sizes);
+        ret.sort(null);
+        return ret;
+    }
+}
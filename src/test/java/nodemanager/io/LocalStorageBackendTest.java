@@ -0,0 +1,71 @@
+package nodemanager.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the LocalStorageBackend keeps everything in its folder.
+ *
+ * @author Matt Crow
+ */
+public class LocalStorageBackendTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+    private File root;
+    private File local;
+
+    @Before
+    public void createDirectories() throws IOException {
+        dir = folder.getRoot();
+        root = folder.newFolder("storage");
+        local = folder.newFile("local.csv");
+        Files.write(local.toPath(), "id, x, y".getBytes());
+    }
+
+    @Test
+    public void uploadsIntoFolders() throws IOException {
+        LocalStorageBackend backend = new LocalStorageBackend(root);
+        String folder = backend.createFolder("", "export");
+        String id = backend.upload(local, "coords.csv", "text/csv", folder);
+        assertEquals("export/coords.csv", id);
+        assertTrue(new File(root, "export/coords.csv").isFile());
+    }
+
+    @Test
+    public void rejectsNamesOutsideStorage() throws IOException {
+        LocalStorageBackend backend = new LocalStorageBackend(root);
+        String folder = backend.createFolder("", "export");
+        String[] names = {"../../escaped.csv", "../escaped.csv", "..", ".", "a/b.csv"};
+        for(String name : names){
+            try {
+                backend.upload(local, name, "text/csv", folder);
+                fail("Uploaded to " + name);
+            } catch (IOException ex) {
+                // expected
+            }
+            try {
+                backend.createFolder("", name);
+                fail("Created folder " + name);
+            } catch (IOException ex) {
+                // expected
+            }
+        }
+        assertFalse(new File(dir, "escaped.csv").exists());
+        assertArrayEquals(new String[]{"local.csv", "storage"}, sortedList(dir));
+    }
+
+    private static String[] sortedList(File f){
+        String[] names = f.list();
+        Arrays.sort(names);
+        return names;
+    }
+}
@@ -0,0 +1,212 @@
+package nodemanager.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A LocalStorageBackend for tests, which can be slowed down, made to fail,
+ * or taken offline, and which remembers what was asked of it.
+ *
+ * Simulated latency never actually waits, so a throttled backend copies
+ * files in chunks without taking any longer. Use setUploadMillis to slow
+ * down uploads instead.
+ *
+ * @author Matt Crow
+ */
+public class TestStorageBackend extends LocalStorageBackend {
+    private final Map<String, Long> uploadMillisByName;
+    private volatile long uploadMillis;
+    private volatile String failName;
+    private volatile boolean failUpdates;
+    private volatile boolean offline;
+    private final HashSet<String> failDownloads; // ids to fail to download once
+    private final List<String> uploaded; // names
+    private final List<String> downloaded; // ids
+    private final List<Integer> batchSizes;
+    private final ThreadLocal<AtomicInteger> waitsLeft;
+
+    /**
+     * @param root the folder to store everything in
+     * @param bytesPerSecond how fast each upload or download can go, or 0
+     * for no limit. A low limit copies files in several chunks.
+     */
+    public TestStorageBackend(File root, long bytesPerSecond){
+        super(root, 0, bytesPerSecond);
+        uploadMillisByName = new ConcurrentHashMap<>();
+        uploadMillis = 0;
+        failName = null;
+        failUpdates = false;
+        offline = false;
+        failDownloads = new HashSet<>();
+        uploaded = new CopyOnWriteArrayList<>();
+        downloaded = new CopyOnWriteArrayList<>();
+        batchSizes = new CopyOnWriteArrayList<>();
+        waitsLeft = new ThreadLocal<>();
+    }
+
+    public TestStorageBackend(File root){
+        this(root, 0);
+    }
+
+    /*
+    Setters
+    */
+
+    /**
+     * @param millis how long to wait before uploading any file
+     */
+    public final void setUploadMillis(long millis){
+        uploadMillis = millis;
+    }
+
+    /**
+     * @param name the name of the file to slow down
+     * @param millis how long to wait before uploading it, instead of the
+     * time given to every file
+     */
+    public final void setUploadMillis(String name, long millis){
+        uploadMillisByName.put(name, millis);
+    }
+
+    /**
+     * @param name the name of a file to fail part way through copying, or
+     * null to stop failing
+     */
+    public final void setFailName(String name){
+        failName = name;
+    }
+
+    public final void setFailUpdates(boolean failUpdates){
+        this.failUpdates = failUpdates;
+    }
+
+    /**
+     * @param offline whether or not to fail every download and metadata
+     * request
+     */
+    public final void setOffline(boolean offline){
+        this.offline = offline;
+    }
+
+    /**
+     * @param fileId the id of a file to fail to download the next time it
+     * is asked for
+     */
+    public final void failNextDownloadOf(String fileId){
+        synchronized(failDownloads){
+            failDownloads.add(fileId);
+        }
+    }
+
+    /*
+    Getters
+    */
+
+    /**
+     * @return the names of the files uploaded so far, in the order they
+     * finished. Clear this to start counting again.
+     */
+    public final List<String> getUploaded(){
+        return uploaded;
+    }
+
+    /**
+     * @return the ids of the files downloaded so far. Clear this to start
+     * counting again.
+     */
+    public final List<String> getDownloaded(){
+        return downloaded;
+    }
+
+    /**
+     * @return how many ids each batched metadata lookup asked for. Clear this
+     * to start counting again.
+     */
+    public final List<Integer> getBatchSizes(){
+        return batchSizes;
+    }
+
+    /*
+    LocalStorageBackend
+    */
+
+    /**
+     * Throttling calls this after each chunk, so this decides whether to
+     * fail, but never actually waits
+     */
+    @Override
+    protected void simulateLatency(long millis) throws IOException {
+        AtomicInteger left = waitsLeft.get();
+        if(left != null && left.decrementAndGet() < 0){
+            throw new IOException("Connection lost");
+        }
+    }
+
+    @Override
+    public String upload(File local, String name, String mimeType, String folderId) throws IOException {
+        long millis = uploadMillisByName.getOrDefault(name, uploadMillis);
+        if(millis > 0){
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the simulated network", ex);
+            }
+        }
+        // the first wait is for the request, then one per chunk
+        waitsLeft.set((name.equals(failName)) ? new AtomicInteger(2) : null);
+        try {
+            String id = super.upload(local, name, mimeType, folderId);
+            uploaded.add(name);
+            return id;
+        } finally {
+            waitsLeft.remove();
+        }
+    }
+
+    @Override
+    public void update(String fileId, File local, String mimeType) throws IOException {
+        if(failUpdates){
+            throw new IOException("Connection lost");
+        }
+        super.update(fileId, local, mimeType);
+    }
+
+    @Override
+    public InputStream download(String fileId) throws IOException {
+        if(offline){
+            throw new IOException("Offline");
+        }
+        synchronized(failDownloads){
+            if(failDownloads.remove(fileId)){
+                throw new IOException("Connection lost");
+            }
+        }
+        downloaded.add(fileId);
+        return super.download(fileId);
+    }
+
+    @Override
+    public FileMetadata getMetadata(String fileId) throws IOException {
+        if(offline){
+            throw new IOException("Offline");
+        }
+        return super.getMetadata(fileId);
+    }
+
+    @Override
+    public Map<String, FileMetadata> getMetadata(List<String> fileIds) throws IOException {
+        if(offline){
+            throw new IOException("Offline");
+        }
+        batchSizes.add(fileIds.size());
+        return super.getMetadata(fileIds);
+    }
+}
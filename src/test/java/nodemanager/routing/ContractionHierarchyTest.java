@@ -0,0 +1,141 @@
+package nodemanager.routing;
+
+import java.util.Random;
+import nodemanager.model.Graph;
+import nodemanager.model.Node;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks distances found by ContractionHierarchy against Dijkstra, from
+ * RouteEngine, on graphs with fixed seeds.
+ *
+ * @author Matt Crow
+ */
+public class ContractionHierarchyTest {
+    /**
+     * Compares the distance between every pair of nodes, so a failure names
+     * the pair which disagreed
+     */
+    private static void assertMatchesDijkstra(Graph g){
+        RoutingGraph rg = RoutingGraph.fromGraph(g);
+        ContractionHierarchy ch = ContractionHierarchy.build(rg);
+        RouteEngine engine = new RouteEngine(null, rg);
+        int n = rg.getNodeCount();
+        int[] targets = new int[n];
+        for(int i = 0; i < n; i++){
+            targets[i] = i;
+        }
+        double[] expected = new double[n];
+        for(int from = 0; from < n; from++){
+            engine.findDistances(from, targets, expected, 0);
+            for(int to = 0; to < n; to++){
+                assertEquals(
+                    String.format("From node %d to node %d", rg.getIdAt(from), rg.getIdAt(to)),
+                    expected[to],
+                    ch.findDistance(from, to),
+                    1e-6 * Math.max(1.0, expected[to])
+                );
+            }
+        }
+    }
+
+    /**
+     * @return a grid of nodes, jittered, with some connections left out
+     */
+    private static Graph createCampus(int side, long seed){
+        Random rand = new Random(seed);
+        Graph g = new Graph();
+        for(int row = 0; row < side; row++){
+            for(int col = 0; col < side; col++){
+                g.addNode(new Node(row * side + col, col * 100 + rand.nextInt(40), row * 100 + rand.nextInt(40)));
+            }
+        }
+        int id;
+        for(int row = 0; row < side; row++){
+            for(int col = 0; col < side; col++){
+                id = row * side + col;
+                if(col + 1 < side && rand.nextInt(10) > 0){
+                    g.addConnection(id, id + 1);
+                }
+                if(row + 1 < side && rand.nextInt(10) > 0){
+                    g.addConnection(id, id + side);
+                }
+                if(row + 1 < side && col + 1 < side && rand.nextInt(4) == 0){
+                    g.addConnection(id, id + side + 1);
+                }
+            }
+        }
+        return g;
+    }
+
+    /**
+     * @return floors of the same building, one above the other, so each
+     * node shares its x and y with a node on every other floor. Some of
+     * those are joined by stairs, which have no length on the map.
+     */
+    private static Graph createBuilding(int side, int floors, long seed){
+        Random rand = new Random(seed);
+        Graph campus = createCampus(side, seed);
+        Graph g = new Graph();
+        int perFloor = side * side;
+        for(int floor = 0; floor < floors; floor++){
+            for(Node node : campus.getAllNodes()){
+                g.addNode(new Node(floor * perFloor + node.getId(), node.getX(), node.getY()));
+            }
+            for(Node node : campus.getAllNodes()){
+                int offset = floor * perFloor;
+                campus.forEachConnection(node.getId(), (otherId)->g.addConnection(offset + node.getId(), offset + otherId));
+            }
+            if(floor > 0){
+                for(int i = 0; i < perFloor; i++){
+                    if(rand.nextInt(8) == 0){
+                        g.addConnection((floor - 1) * perFloor + i, floor * perFloor + i);
+                    }
+                }
+            }
+        }
+        return g;
+    }
+
+    @Test
+    public void keepsRoutesBetweenColocatedNodes(){
+        // stairs on two floors, joined through a landing at the same spot
+        Graph g = new Graph();
+        g.addNode(new Node(1, 0, 0));
+        g.addNode(new Node(2, 0, 0));
+        g.addNode(new Node(3, 0, 0));
+        g.addNode(new Node(4, 500, 0));
+        g.addNode(new Node(5, 0, 500));
+        g.addConnection(1, 2);
+        g.addConnection(2, 3);
+        g.addConnection(1, 4);
+        g.addConnection(3, 5);
+        assertMatchesDijkstra(g);
+
+        RoutingGraph rg = RoutingGraph.fromGraph(g);
+        assertEquals(0.0, ContractionHierarchy.build(rg).findDistance(rg.indexOf(1), rg.indexOf(3)), 0.0);
+    }
+
+    @Test
+    public void matchesDijkstraOnCampuses(){
+        for(long seed = 1; seed <= 5; seed++){
+            assertMatchesDijkstra(createCampus(12, seed));
+        }
+    }
+
+    @Test
+    public void matchesDijkstraOnBuildings(){
+        for(long seed = 1; seed <= 5; seed++){
+            assertMatchesDijkstra(createBuilding(6, 4, seed));
+        }
+    }
+
+    @Test
+    public void handlesDisconnectedNodes(){
+        Graph g = createCampus(5, 1);
+        g.addNode(new Node(100, 0, 0));
+        g.addNode(new Node(101, 0, 0));
+        assertMatchesDijkstra(g);
+    }
+}